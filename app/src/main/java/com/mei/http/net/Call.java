@@ -1,6 +1,5 @@
 package com.mei.http.net;
 
-import com.mei.http.R;
 import com.mei.http.net.chain.CallServiceInterceptor;
 import com.mei.http.net.chain.ConnectionInterceptor;
 import com.mei.http.net.chain.HeaderInterceptor;
@@ -8,6 +7,7 @@ import com.mei.http.net.chain.Interceptor;
 import com.mei.http.net.chain.InterceptorChain;
 import com.mei.http.net.chain.RetryInterceptor;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,6 +30,9 @@ public class Call {
     // 请求是否取消
     private boolean canceled;
 
+    // 下载文件时，响应体写入的目标
+    private DownloadSink downloadSink;
+
 
     public Call(Request request, HttpClient httpClient) {
         this.request = request;
@@ -48,6 +51,10 @@ public class Call {
         return canceled;
     }
 
+    public DownloadSink downloadSink() {
+        return downloadSink;
+    }
+
     public void enqueue(CallBack callBack) throws IllegalAccessException {
         synchronized (this) {
             if (executed) {
@@ -58,6 +65,26 @@ public class Call {
         }
     }
 
+    /**
+     * 下载文件，响应体直接写入文件，Response中的body为null
+     * 文件已存在时当作上次中断的下载，从文件末尾继续下载，需要重新下载请先删除文件
+     * 下载成功时状态码为200或206，文件本来就已经下载完整时（服务器返回416）也是206，
+     * contentLength为文件的长度
+     *
+     * @param file     保存的文件
+     * @param listener 下载进度回调，可以为null
+     */
+    public void download(File file, ProgressListener listener, CallBack callBack)
+            throws IllegalAccessException {
+        synchronized (this) {
+            if (executed) {
+                throw new IllegalAccessException("请求已经执行过连。。");
+            }
+            downloadSink = new DownloadSink(file, listener);
+            enqueue(callBack);
+        }
+    }
+
 
     public class AsyncCall implements Runnable {
 
@@ -133,14 +133,14 @@ public class ConnectionPool {
     /**
      * 从连接池中，获取一个http连接，即获得满足条件可复用的连接池
      *
-     * @param host 服务器地址
-     * @param port 端口号
+     * @param url 请求地址，按{@link HttpUrl#hostPortKey()}查找，不用每次拼接host和port
      */
-    public HttpConnection get(String host, int port) {
+    public HttpConnection get(HttpUrl url) {
+        String hostPortKey = url.hostPortKey();
         Iterator<HttpConnection> iterator = mConnections.iterator();
         while (iterator.hasNext()) {
             HttpConnection connection = iterator.next();
-            if (connection.isSameAddress(host, port)) {
+            if (connection.isSameAddress(hostPortKey)) {
                 iterator.remove();
                 return connection;
             }
@@ -40,8 +40,17 @@ public class Dispatcher {
         this.maxRequestsPreHost = maxRequestsPreHost;
     }
 
+    /**
+     * 使用指定的线程池执行请求
+     */
+    public Dispatcher(ExecutorService executorService) {
+        this();
+        this.executorService = executorService;
+    }
+
     // 把线程任务交给线程池执行
-    public void enqueue(Call.AsyncCall asyncCall) {
+    // 与finished()在不同的线程中调用，都会修改执行队列和等待队列，需要加锁
+    public synchronized void enqueue(Call.AsyncCall asyncCall) {
         //不能超过最大请求数与相同host的请求数
         //满足条件意味着可以马上开始任务
         if (runningAsyncCalls.size() < maxRequests
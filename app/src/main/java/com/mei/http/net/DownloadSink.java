@@ -0,0 +1,220 @@
+package com.mei.http.net;
+
+import android.text.TextUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 下载文件时，把响应体直接写入文件，不经过字符串，内存占用与文件大小无关
+ * 1. http连接通过 FileChannel.transferFrom 从SocketChannel直接写入文件
+ * 2. https连接没有通道，分段读取到缓存池的字节数组中再写入文件
+ * 3. 文件已存在时当作上次中断的下载，通过 Range 请求头从文件末尾继续下载
+ * @desired
+ */
+public final class DownloadSink {
+
+    // 每次写入文件的最大字节数，写完一次回调一次进度
+    private static final long TRANSFER_SIZE = 64 * 1024;
+
+    // 下载保存的文件
+    private final File file;
+
+    // 下载进度回调，可以为null
+    private final ProgressListener listener;
+
+    DownloadSink(File file, ProgressListener listener) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        this.file = file;
+        this.listener = listener;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * 断点续传的起始位置，即已经下载的长度
+     */
+    public long resumeOffset() {
+        return file.isFile() ? file.length() : 0;
+    }
+
+    /**
+     * 服务器返回的状态码是否需要写入文件：200 完整的文件，206 文件的一部分
+     */
+    public boolean accepts(int code) {
+        return code == 200 || code == 206;
+    }
+
+    /**
+     * 服务器返回416，说明Range超出了文件的长度
+     * 如果本地文件已经是完整的，则下载完成，否则删除本地文件，重试时重新下载
+     *
+     * @return 本地文件已经完整时返回文件的长度
+     */
+    public long rangeNotSatisfiable(Headers headers) throws IOException {
+        // Content-Range: bytes */1234
+        long total = -1;
+        String contentRange = headers.get("Content-Range");
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash != -1) {
+                total = parseLong(contentRange.substring(slash + 1));
+            }
+        }
+        long length = resumeOffset();
+        if (total != -1 && total == length) {
+            progress(length, total);
+            return length;
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("failed to delete " + file);
+        }
+        throw new ProtocolException("Range not satisfiable: " + contentRange);
+    }
+
+    /**
+     * 读取响应体写入文件
+     *
+     * @return 写入之后文件的长度
+     */
+    public long readBody(HttpCodec codec, HttpConnection connection, InputStream is, int code,
+            Headers headers) throws IOException {
+        long offset = 0;
+        long total = -1;
+        long contentLength = parseLong(headers.get(HttpCodec.HEAD_CONTENT_LENGTH));
+
+        if (code == 206) {
+            // Content-Range: bytes 100-1233/1234
+            String contentRange = headers.get("Content-Range");
+            if (contentRange == null || !contentRange.startsWith("bytes ")) {
+                throw new ProtocolException("unexpected Content-Range: " + contentRange);
+            }
+            int dash = contentRange.indexOf('-');
+            int slash = contentRange.lastIndexOf('/');
+            if (dash == -1 || slash < dash) {
+                throw new ProtocolException("unexpected Content-Range: " + contentRange);
+            }
+            offset = parseLong(contentRange.substring("bytes ".length(), dash));
+            total = parseLong(contentRange.substring(slash + 1));
+            // 服务器返回的起始位置不能超过本地文件的长度，否则中间会有空洞
+            if (offset < 0 || offset > resumeOffset()) {
+                throw new ProtocolException("unexpected Content-Range: " + contentRange);
+            }
+        } else if (contentLength != -1) {
+            // 服务器不支持断点续传，返回了完整的文件，从头开始写
+            total = contentLength;
+        }
+
+        boolean chunked = HttpCodec.HEAD_VALUE_CHUNKED
+                .equalsIgnoreCase(headers.get(HttpCodec.HEAD_TRANSFER_ENCODING));
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            // 丢弃起始位置之后的旧数据
+            fileChannel.truncate(offset);
+            long position = offset;
+            progress(position, total);
+
+            SocketChannel source = connection.channel();
+            if (chunked) {
+                while (true) {
+                    String line = codec.readLine(is);
+                    int end = line.indexOf(';');
+                    line = line.substring(0, end != -1 ? end : line.length() - 2).trim();
+                    long length = Long.parseLong(line, 16);
+                    if (length == 0) {
+                        String trailer;
+                        do {
+                            trailer = codec.readLine(is);
+                        } while (!TextUtils.equals(trailer, HttpCodec.CRLF));
+                        break;
+                    }
+                    position = transfer(codec, is, source, fileChannel, position, length, total,
+                            false);
+                    // 数据块后面的 "\r\n"
+                    codec.readLine(is);
+                }
+            } else if (contentLength != -1) {
+                position = transfer(codec, is, source, fileChannel, position, contentLength,
+                        total, false);
+            } else {
+                // 没有长度，读到连接关闭为止
+                position = transfer(codec, is, source, fileChannel, position, Long.MAX_VALUE,
+                        total, true);
+            }
+            return position;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 从连接中读取指定长度的数据写入文件
+     *
+     * @param allowEof 是否允许数据没读完连接就关闭了
+     * @return 写入之后文件中的位置
+     */
+    private long transfer(HttpCodec codec, InputStream is, SocketChannel source,
+            FileChannel fileChannel, long position, long length, long total, boolean allowEof)
+            throws IOException {
+        byte[] buffer = source == null ? codec.segment() : null;
+        while (length > 0) {
+            long written;
+            if (source != null) {
+                // 数据直接从通道写入文件，不经过java堆内存
+                written = fileChannel.transferFrom(source, position,
+                        Math.min(length, TRANSFER_SIZE));
+            } else {
+                int read = is.read(buffer, 0, (int) Math.min(length, buffer.length));
+                written = read == -1 ? 0 : read;
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, (int) written);
+                while (byteBuffer.hasRemaining()) {
+                    fileChannel.write(byteBuffer, position + byteBuffer.position());
+                }
+            }
+
+            if (written <= 0) {
+                // 连接已关闭
+                if (allowEof) {
+                    return position;
+                }
+                throw new EOFException("unexpected end of stream, remaining " + length);
+            }
+            position += written;
+            length -= written;
+            progress(position, total);
+        }
+        return position;
+    }
+
+    private void progress(long bytesWritten, long total) {
+        if (listener != null) {
+            listener.onProgress(bytesWritten, total);
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
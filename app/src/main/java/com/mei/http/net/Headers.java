@@ -0,0 +1,252 @@
+package com.mei.http.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 请求头/响应头集合
+ * 所有的name和value按顺序存放在同一个String数组中：[name0, value0, name1, value1, ...]
+ * 1. 同名的头可以出现多次，如：Set-Cookie、Vary
+ * 2. 按name查找时忽略大小写，如：content-length 与 Content-Length 是同一个头
+ * 3. 创建之后不可修改，需要修改时通过 {@link #newBuilder()} 重新构建
+ * @desired
+ */
+public final class Headers {
+
+    // name和value交替存放
+    private final String[] namesAndValues;
+
+    Headers(Builder builder) {
+        this.namesAndValues = builder.namesAndValues.toArray(new String[0]);
+    }
+
+    private Headers(String[] namesAndValues) {
+        this.namesAndValues = namesAndValues;
+    }
+
+    /**
+     * 获取指定name的最后一个值，忽略大小写，没有则返回null
+     */
+    public String get(String name) {
+        return get(namesAndValues, name);
+    }
+
+    /**
+     * 请求头的个数，同名的头分别计数
+     */
+    public int size() {
+        return namesAndValues.length / 2;
+    }
+
+    /**
+     * 第index个请求头的name
+     */
+    public String name(int index) {
+        return namesAndValues[index * 2];
+    }
+
+    /**
+     * 第index个请求头的value
+     */
+    public String value(int index) {
+        return namesAndValues[index * 2 + 1];
+    }
+
+    /**
+     * 所有请求头的name，忽略大小写去重
+     */
+    public Set<String> names() {
+        TreeSet<String> result = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0, size = size(); i < size; i++) {
+            result.add(name(i));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * 获取指定name的所有值，按出现的顺序返回
+     */
+    public List<String> values(String name) {
+        List<String> result = null;
+        for (int i = 0, size = size(); i < size; i++) {
+            if (name.equalsIgnoreCase(name(i))) {
+                if (result == null) {
+                    result = new ArrayList<>(2);
+                }
+                result.add(value(i));
+            }
+        }
+        return result != null
+                ? Collections.unmodifiableList(result)
+                : Collections.<String>emptyList();
+    }
+
+    public Builder newBuilder() {
+        Builder result = new Builder();
+        Collections.addAll(result.namesAndValues, namesAndValues);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Headers
+                && Arrays.equals(((Headers) other).namesAndValues, namesAndValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(namesAndValues);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0, size = size(); i < size; i++) {
+            result.append(name(i)).append(": ").append(value(i)).append("\n");
+        }
+        return result.toString();
+    }
+
+    private static String get(String[] namesAndValues, String name) {
+        // 从后往前找，返回最后一个值
+        for (int i = namesAndValues.length - 2; i >= 0; i -= 2) {
+            if (name.equalsIgnoreCase(namesAndValues[i])) {
+                return namesAndValues[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据 name, value, name, value... 创建请求头
+     */
+    public static Headers of(String... namesAndValues) {
+        if (namesAndValues == null || namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected alternating header names and values");
+        }
+
+        // 拷贝一份，防止外部修改
+        namesAndValues = namesAndValues.clone();
+        for (int i = 0; i < namesAndValues.length; i++) {
+            if (namesAndValues[i] == null) {
+                throw new IllegalArgumentException("Headers cannot be null");
+            }
+            namesAndValues[i] = namesAndValues[i].trim();
+        }
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            checkName(namesAndValues[i]);
+            checkValue(namesAndValues[i + 1], namesAndValues[i]);
+        }
+        return new Headers(namesAndValues);
+    }
+
+    static void checkName(String name) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("name is empty");
+        }
+        for (int i = 0, length = name.length(); i < length; i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= '\u007f') {
+                throw new IllegalArgumentException(String.format(
+                        "Unexpected char %#04x at %d in header name: %s", (int) c, i, name));
+            }
+        }
+    }
+
+    static void checkValue(String value, String name) {
+        if (value == null) {
+            throw new NullPointerException("value for name " + name + " == null");
+        }
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if ((c <= '\u001f' && c != '\t') || c >= '\u007f') {
+                throw new IllegalArgumentException(String.format(
+                        "Unexpected char %#04x at %d in %s value: %s", (int) c, i, name, value));
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        final List<String> namesAndValues = new ArrayList<>(20);
+
+        /**
+         * 添加一个请求头，同名的请求头会保留
+         */
+        public Builder add(String name, String value) {
+            checkName(name);
+            checkValue(value, name);
+            return addUnchecked(name, value.trim());
+        }
+
+        /**
+         * 解析 "name: value" 格式的一行数据并添加，用于解析服务器返回的响应头
+         */
+        Builder addLenient(String line) {
+            int index = line.indexOf(':', 1);
+            if (index != -1) {
+                return addUnchecked(line.substring(0, index), line.substring(index + 1).trim());
+            } else if (line.startsWith(":")) {
+                // 以冒号开头，name为空
+                return addUnchecked("", line.substring(1).trim());
+            } else {
+                return addUnchecked("", line.trim());
+            }
+        }
+
+        private Builder addUnchecked(String name, String value) {
+            namesAndValues.add(name);
+            namesAndValues.add(value);
+            return this;
+        }
+
+        /**
+         * 设置请求头，会先移除所有同名的请求头
+         */
+        public Builder set(String name, String value) {
+            checkName(name);
+            checkValue(value, name);
+            removeAll(name);
+            return addUnchecked(name, value.trim());
+        }
+
+        /**
+         * 移除所有同名的请求头，忽略大小写
+         */
+        public Builder removeAll(String name) {
+            for (int i = 0; i < namesAndValues.size(); i += 2) {
+                if (name.equalsIgnoreCase(namesAndValues.get(i))) {
+                    namesAndValues.remove(i);// name
+                    namesAndValues.remove(i);// value
+                    i -= 2;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 获取指定name的最后一个值，忽略大小写
+         */
+        public String get(String name) {
+            for (int i = namesAndValues.size() - 2; i >= 0; i -= 2) {
+                if (name.equalsIgnoreCase(namesAndValues.get(i))) {
+                    return namesAndValues.get(i + 1);
+                }
+            }
+            return null;
+        }
+
+        public Headers build() {
+            return new Headers(this);
+        }
+    }
+}
@@ -17,6 +17,9 @@ public class HttpClient {
     // 网络连接池
     private ConnectionPool connectionPool;
 
+    // 读写数据使用的字节数组缓存池
+    private SegmentPool segmentPool;
+
 
     public Dispatcher dispatcher() {
         return dispatcher;
@@ -31,6 +34,7 @@ public class HttpClient {
         this.retry = builder.retry;
         this.dispatcher = builder.dispatcher;
         this.connectionPool = builder.connectionPool;
+        this.segmentPool = builder.segmentPool;
     }
 
     public int retry() {
@@ -41,6 +45,10 @@ public class HttpClient {
         return connectionPool;
     }
 
+    public SegmentPool segmentPool() {
+        return segmentPool;
+    }
+
     public static class Builder {
 
         int retry;// 重试次数
@@ -49,6 +57,8 @@ public class HttpClient {
 
         ConnectionPool connectionPool;
 
+        SegmentPool segmentPool;
+
         public Builder retry(int retry) {
             this.retry = retry;
             return this;
@@ -64,6 +74,11 @@ public class HttpClient {
             return this;
         }
 
+        public Builder segmentPool(SegmentPool segmentPool) {
+            this.segmentPool = segmentPool;
+            return this;
+        }
+
         public HttpClient build() {
             if (dispatcher == null) {
                 dispatcher = new Dispatcher();
@@ -72,6 +87,10 @@ public class HttpClient {
             if (connectionPool == null) {
                 connectionPool = new ConnectionPool();
             }
+
+            if (segmentPool == null) {
+                segmentPool = new SegmentPool();
+            }
             return new HttpClient(this);
         }
     }
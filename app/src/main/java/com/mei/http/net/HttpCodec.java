@@ -5,9 +5,11 @@ import android.text.TextUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.EOFException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 
 /**
  * @author mxb
@@ -31,6 +33,11 @@ public class HttpCodec {
 
     static final String COLON = ":";// 冒号
 
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 读取响应体时StringBuilder的初始容量上限，Content-Length不可信，超过时按需扩容
+    static final int MAX_INITIAL_BODY_CAPACITY = 8 * 1024;
+
     // 请求头信息
     public static final String HEAD_HOST = "Host";// 服务器地址
 
@@ -46,68 +53,163 @@ public class HttpCodec {
 
     public static final String HEAD_VALUE_CHUNKED = "chunked";
 
-    private final ByteBuffer byteBuffer;// 字节缓存
+    // 字节数组缓存池
+    private final SegmentPool segmentPool;
+
+    // 从缓存池中获取的字节数组，用完之后通过 release() 放回缓存池
+    // 读取响应行、响应头、数据块长度时使用
+    private byte[] lineSegment;
+
+    // 写入请求、读取响应体时使用
+    private byte[] segment;
+
+    // 响应体解码器，数据可能分多次读取，一个字符的多个字节可能被分开，需要解码器记录状态
+    // 解码器和字符缓冲区属于当前线程，每次读取响应体时从缓存池获取，读完不再使用
+    private CharsetDecoder decoder;
+
+    private CharBuffer charBuffer;
+
+    public HttpCodec(SegmentPool segmentPool) {
+        this.segmentPool = segmentPool;
+    }
 
-    public HttpCodec() {
-        byteBuffer = ByteBuffer.allocate(10 * 1024);
+    byte[] segment() {
+        if (segment == null) {
+            segment = segmentPool.take();
+        }
+        return segment;
+    }
+
+    private byte[] lineSegment() {
+        if (lineSegment == null) {
+            lineSegment = segmentPool.take();
+        }
+        return lineSegment;
+    }
+
+    /**
+     * 一次请求结束后，把字节数组放回缓存池，之后不能再使用这个HttpCodec
+     */
+    public void release() {
+        if (lineSegment != null) {
+            segmentPool.recycle(lineSegment);
+            lineSegment = null;
+        }
+        if (segment != null) {
+            segmentPool.recycle(segment);
+            segment = null;
+        }
+        decoder = null;
+        charBuffer = null;
     }
 
     /**
      * 把客户端需要传递给服务器的数据，写入到输出流中
+     * 数据先写入字节数组，写满了再写到输出流，不需要拼接字符串
      *
      * @param out     输出流
      * @param request 网络请求对象
      */
     public void writeRequest(OutputStream out, Request request) throws IOException {
-
-        StringBuffer sb = new StringBuffer();
+        byte[] buffer = segment();
+        int pos = 0;
         // 1.写入请求行
         //GET /v3/weather/weatherInfo?city=%E9%95%BF%E6%B2%99&key=13cb58f5884f9749287abbead9c658f2 HTTP/1.1\r\n
-        sb.append(request.method());
-        sb.append(SPACE);
-        sb.append(request.url().getFile());
-        sb.append(SPACE);
-        sb.append(VERSION);
-        sb.append(CRLF);
+        pos = writeUtf8(out, buffer, pos, request.method());
+        pos = writeUtf8(out, buffer, pos, SPACE);
+        pos = writeUtf8(out, buffer, pos, request.url().getFile());
+        pos = writeUtf8(out, buffer, pos, SPACE);
+        pos = writeUtf8(out, buffer, pos, VERSION);
+        pos = writeUtf8(out, buffer, pos, CRLF);
 
         // 2.写入请求头
-        Map<String, String> headers = request.headers();
-        for (String key : headers.keySet()) {
-            String value = headers.get(key);
+        Headers headers = request.headers();
+        for (int i = 0, size = headers.size(); i < size; i++) {
             //结构： "key: value"，冒号后面有空格
-            sb.append(key).append(COLON).append(SPACE).append(value);
-            sb.append(CRLF);
+            pos = writeUtf8(out, buffer, pos, headers.name(i));
+            pos = writeUtf8(out, buffer, pos, COLON);
+            pos = writeUtf8(out, buffer, pos, SPACE);
+            pos = writeUtf8(out, buffer, pos, headers.value(i));
+            pos = writeUtf8(out, buffer, pos, CRLF);
         }
         // 请求头和请求体通过空行隔开
-        sb.append(CRLF);
+        pos = writeUtf8(out, buffer, pos, CRLF);
 
         // 3.写入请求体
         RequestBody body = request.requestBody();
         if (body != null) {
-            sb.append(body.body());
+            pos = writeUtf8(out, buffer, pos, body.body());
         }
 
         // 4.把所有的数据，通过输出流传递给服务器
-        out.write(sb.toString().getBytes());
+        out.write(buffer, 0, pos);
         out.flush();
     }
 
     /**
-     * 读取一行数据
+     * 把字符串按UTF-8编码写入字节数组，字节数组写满了就先写到输出流
+     *
+     * @return 字节数组中下一个可写入的位置
+     */
+    private static int writeUtf8(OutputStream out, byte[] buffer, int pos, String string)
+            throws IOException {
+        for (int i = 0, length = string.length(); i < length; ) {
+            // 最多4个字节，剩余空间不足就先写出去
+            if (pos + 4 > buffer.length) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            int c = string.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+                i++;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xc0 | c >> 6);
+                buffer[pos++] = (byte) (0x80 | c & 0x3f);
+                i++;
+            } else if (!Character.isSurrogate((char) c)) {
+                buffer[pos++] = (byte) (0xe0 | c >> 12);
+                buffer[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[pos++] = (byte) (0x80 | c & 0x3f);
+                i++;
+            } else {
+                int codePoint = string.codePointAt(i);
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    buffer[pos++] = (byte) (0xf0 | codePoint >> 18);
+                    buffer[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    buffer[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    buffer[pos++] = (byte) (0x80 | codePoint & 0x3f);
+                    i += 2;
+                } else {
+                    // 不成对的代理字符，写入 '?'
+                    buffer[pos++] = '?';
+                    i++;
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 读取一行数据，包含行尾的 "\r\n"
      *
      * @param is 服务器返回的输入流
      */
     public String readLine(InputStream is) throws IOException {
-        // 清理bytebuffer
-        byteBuffer.clear();
-        // 标记
-        byteBuffer.mark();
+        byte[] line = lineSegment();
+        int pos = 0;
         // 是否可能换行
         boolean maybeEofLine = false;
-        byte b;
+        int b;
         // 一次读一个字节
-        while ((b = (byte) is.read()) != -1) {
-            byteBuffer.put(b);
+        while ((b = is.read()) != -1) {
+            if (pos == line.length) {
+                // 一行数据超过了字节数组的大小，很少出现，扩容
+                byte[] larger = new byte[line.length * 2];
+                System.arraycopy(line, 0, larger, 0, pos);
+                line = larger;
+            }
+            line[pos++] = (byte) b;
             // 如果当前读到一个"\r"
             if (b == CR) {
                 maybeEofLine = true;
@@ -115,14 +217,7 @@ public class HttpCodec {
                 // 读到 "\n"
                 if (b == LF) {
                     //一行数据
-                    byte[] lineBytes = new byte[byteBuffer.position()];
-                    //将
-                    byteBuffer.reset();
-                    //从bytebuffer获得数据
-                    byteBuffer.get(lineBytes);
-                    byteBuffer.clear();
-                    byteBuffer.mark();
-                    return new String(lineBytes);
+                    return new String(line, 0, pos, UTF_8);
                 }
 
                 // 否则还原
@@ -135,8 +230,8 @@ public class HttpCodec {
     /**
      * 读取服务器返回的请求头
      */
-    public Map<String, String> readHeaders(InputStream is) throws IOException {
-        Map<String, String> headers = new HashMap<>();
+    public Headers readHeaders(InputStream is) throws IOException {
+        Headers.Builder headers = new Headers.Builder();
         while (true) {
             String line = readLine(is);
             // 如果读到空行 "\r\n" 响应头读完了，响应头和body通过空行隔开
@@ -144,64 +239,113 @@ public class HttpCodec {
                 break;
             }
 
-            // 找到分隔符到位置
-            int index = line.indexOf(":");
-            //结构： "key: value\r\n"
-            String key = line.substring(0, index);
-            String value = line.substring(index + 2, line.length() - 2);
-            headers.put(key, value);
+            //结构： "key: value\r\n"，去掉行尾的换行符
+            headers.addLenient(line.substring(0, line.length() - 2));
         }
-        return headers;
+        return headers.build();
     }
 
     /**
-     * 根据指定的长度，读取字节
+     * 根据指定的长度读取响应体，并按UTF-8解码成字符串
+     * 分段读取到缓存池的字节数组中，不需要创建和响应体一样大的字节数组
      *
      * @param is     输入流
      * @param length 读取的内容长度
      */
-    public byte[] readBytes(InputStream is, int length) throws IOException {
-        byte[] bytes = new byte[length];
-        int readNum = 0;
-        while (true) {
-            readNum += is.read(bytes, readNum, length - readNum);
-            //读取完毕
-            if (readNum == length) {
-                return bytes;
-            }
-        }
+    public String readBody(InputStream is, long length) throws IOException {
+        StringBuilder body = new StringBuilder((int) Math.min(length, MAX_INITIAL_BODY_CAPACITY));
+        ByteBuffer in = ByteBuffer.wrap(segment());
+        startDecoding();
+        decode(is, length, in, body);
+        finishDecode(in, body);
+        return body.toString();
     }
 
     /**
      * 读取后台返回的分块数据
      */
     public String readChunked(InputStream is) throws IOException {
-        int len = -1;
-        boolean isEmptyData = false;
-        StringBuffer chunked = new StringBuffer();
+        StringBuilder chunked = new StringBuilder();
+        // 同一个字符的字节可能被分到两个数据块中，所有的数据块共用一个解码器
+        ByteBuffer in = ByteBuffer.wrap(segment());
+        startDecoding();
         while (true) {
             /**
              * 数据分块的格式：
              * 指定这一块数据的长度： 10\r\n
              * 这一块数据的具体内容： 10字节长度的内容\r\n
              */
-            if (len < 0) {
-                String line = readLine(is);
-                // 不取换行符
-                line = line.substring(0, line.length() - 2);
-                // 获取数据块的长度，16进制字符串转成10进制整型
-                len = Integer.valueOf(line, 16);
-                //如果长度是0 再读一个/r/n 响应结束
-                isEmptyData = len == 0;
-            } else {
-                // 读取内容
-                byte[] bytes = readBytes(is, len);
-                chunked.append(new String(bytes));
-                len = -1;
-                // 没有下一个数据块了，即读取完毕
-                if (isEmptyData) {
-                    return chunked.toString();
-                }
+            String line = readLine(is);
+            // 不取换行符，忽略分号后面的扩展信息
+            int end = line.indexOf(';');
+            line = line.substring(0, end != -1 ? end : line.length() - 2).trim();
+            // 获取数据块的长度，16进制字符串转成10进制整型
+            long len = Long.parseLong(line, 16);
+            //如果长度是0 再读一个/r/n 响应结束，中间可能还有trailer头，一起跳过
+            if (len == 0) {
+                String trailer;
+                do {
+                    trailer = readLine(is);
+                } while (!TextUtils.equals(trailer, CRLF));
+                finishDecode(in, chunked);
+                return chunked.toString();
+            }
+            // 读取内容
+            decode(is, len, in, chunked);
+            // 数据块后面的 "\r\n"
+            readLine(is);
+        }
+    }
+
+    /**
+     * 从缓存池获取当前线程的解码器和字符缓冲区
+     * 同一个HttpCodec可能在不同的线程中读取，所以每次读取都重新获取，不能一直持有
+     */
+    private void startDecoding() {
+        decoder = segmentPool.utf8Decoder();
+        charBuffer = segmentPool.charBuffer();
+        decoder.reset();
+    }
+
+    /**
+     * 从输入流读取指定长度的字节并解码，不完整的字符会留在 in 中，等下一次读取后再解码
+     */
+    private void decode(InputStream is, long length, ByteBuffer in, StringBuilder out)
+            throws IOException {
+        byte[] buffer = in.array();
+        while (length > 0) {
+            int read = is.read(buffer, in.position(),
+                    (int) Math.min(length, in.remaining()));
+            if (read == -1) {
+                throw new EOFException();
+            }
+            in.position(in.position() + read);
+            length -= read;
+
+            in.flip();
+            decodeTo(in, out, false);
+            in.compact();
+        }
+    }
+
+    private void finishDecode(ByteBuffer in, StringBuilder out) {
+        in.flip();
+        decodeTo(in, out, true);
+        charBuffer.clear();
+        decoder.flush(charBuffer);
+        charBuffer.flip();
+        out.append(charBuffer);
+        in.clear();
+    }
+
+    private void decodeTo(ByteBuffer in, StringBuilder out, boolean endOfInput) {
+        while (true) {
+            charBuffer.clear();
+            boolean overflow = decoder.decode(in, charBuffer, endOfInput).isOverflow();
+            charBuffer.flip();
+            out.append(charBuffer);
+            if (!overflow) {
+                return;
             }
         }
     }
@@ -8,6 +8,7 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 
 import javax.net.ssl.SSLSocketFactory;
 
@@ -25,6 +26,10 @@ public class HttpConnection {
     // 最后一次使用的时间
     long lastUseTime;
 
+    // 建立连接时使用的主机地址和端口号，即HttpUrl.hostPortKey()
+    // 不能用socket.getInetAddress().getHostName()判断，IP地址会被反向解析成域名，导致连接无法复用
+    private String hostPortKey;
+
     private Request request;
 
     // 服务器返回到数据流对象
@@ -39,14 +44,15 @@ public class HttpConnection {
 
     /**
      * 当前连接的socket是否与对应的host ：port一致
+     *
+     * @param hostPortKey {@link HttpUrl#hostPortKey()}
      */
-    public boolean isSameAddress(String host, int port) {
+    public boolean isSameAddress(String hostPortKey) {
         if (socket == null) {
             return false;
         }
 
-        return TextUtils.equals(socket.getInetAddress().getHostName(), host)
-                && socket.getPort() == port;
+        return TextUtils.equals(this.hostPortKey, hostPortKey);
     }
 
     /**
@@ -82,15 +88,16 @@ public class HttpConnection {
             // 获取url
             HttpUrl url = request.url();
             // 判断协议是否是https
-            if (url.getProtocol().equalsIgnoreCase("https")) {
+            if (url.isHttps()) {
                 // 如果是https，则使用SSLSocketFactory工厂创建特殊的为https使用的Socket
                 socket = SSLSocketFactory.getDefault().createSocket();
             } else {
-                // 创建普通的Socket对象
-                socket = new Socket();
+                // 创建普通的Socket对象，通过SocketChannel创建，下载文件时可以直接从通道写入文件
+                socket = SocketChannel.open().socket();
             }
             // 与服务器建立连接
             socket.connect(new InetSocketAddress(url.getHost(), url.getPort()));
+            hostPortKey = url.hostPortKey();
             // 获取输入流
             in = socket.getInputStream();
             // 获取输出流
@@ -99,6 +106,13 @@ public class HttpConnection {
 
     }
 
+    /**
+     * 与服务器连接的通道，https的连接没有通道，返回null
+     */
+    public SocketChannel channel() {
+        return socket != null ? socket.getChannel() : null;
+    }
+
     /**
      * 更新连接最后一次使用的时间
      */
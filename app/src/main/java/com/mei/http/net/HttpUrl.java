@@ -1,54 +1,1019 @@
 package com.mei.http.net;
 
-import android.text.TextUtils;
-
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.ByteArrayOutputStream;
+import java.net.IDN;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * @author mxb
  * @date 2020/5/4
  * @desc http 链接封装
+ * 不依赖 java.net.URL，一次遍历解析出：协议、主机地址、端口号、路径和参数
+ * 1. 协议和主机地址统一转成小写，中文等国际化域名转成 punycode，IPv6地址转成标准格式
+ * 2. 路径中的 "." 和 ".." 会被处理掉，路径和参数中不合法的字符会被百分号编码
+ * 3. 链接格式不正确时，{@link #get(String)} 抛出 IllegalArgumentException
  * @desired
  */
-public class HttpUrl {
+public final class HttpUrl {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS =
+            {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    // 路径中需要编码的字符
+    static final String PATH_SEGMENT_ENCODE_SET = " \"<>^`{}|/\\?#";
+
+    // 链接中的参数需要编码的字符
+    static final String QUERY_ENCODE_SET = " \"'<>#";
+
+    // 单个参数的name和value需要编码的字符
+    static final String QUERY_COMPONENT_ENCODE_SET = " !\"#$&'(),/:;<=>?@[]\\^`{|}~+";
+
+    // 主机地址中不允许出现的字符
+    private static final String FORBIDDEN_HOST_CHARS = " #%/:?@[\\]";
 
     // 协议
-    private String protocol;
+    private final String protocol;
 
-    // 主机地址
-    private String host;
+    // 主机地址，IPv6地址不包含中括号
+    private final String host;
+
+    // 端口号
+    private final int port;
+
+    // 编码后的路径，以 "/" 开头
+    private final String encodedPath;
+
+    // 编码后的参数，不包含 "?"，没有参数时为null
+    private final String encodedQuery;
+
+    // 缓存，避免重复拼接字符串
+    private String url;
 
-    // 如链接：http://www.kuaidi100.com/query?type=yuantong&postid=222222222
-    // file是：query?type=yuantong&postid=222222222
     private String file;
 
-    // 端口号
-    private int port;
+    private String hostPortKey;
+
+    private HttpUrl(Builder builder) {
+        this.protocol = builder.scheme;
+        this.host = builder.host;
+        this.port = builder.effectivePort();
+        this.encodedPath = builder.encodedPath;
+        this.encodedQuery = builder.encodedQuery();
+    }
 
-    public HttpUrl(String url) throws MalformedURLException {
-        URL url1 = new URL(url);
-        this.host = url1.getHost();
-        this.protocol = url1.getProtocol();
-        this.file = url1.getFile();
-        file = TextUtils.isEmpty(file) ? "/" : file;
-        this.port = url1.getPort();
-        port = port == -1 ? url1.getDefaultPort() : port;
+    /**
+     * 解析链接，格式不正确则抛出 IllegalArgumentException
+     */
+    public static HttpUrl get(String url) {
+        Builder builder = new Builder();
+        String error = builder.parse(url);
+        if (error != null) {
+            throw new IllegalArgumentException(error + ": " + url);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 解析链接，格式不正确则返回null
+     */
+    public static HttpUrl parse(String url) {
+        Builder builder = new Builder();
+        return builder.parse(url) == null ? builder.build() : null;
+    }
+
+    /**
+     * 协议http的默认端口为80，https的默认端口为443
+     */
+    public static int defaultPort(String scheme) {
+        if (scheme.equals("http")) {
+            return 80;
+        } else if (scheme.equals("https")) {
+            return 443;
+        } else {
+            return -1;
+        }
     }
 
     public String getProtocol() {
         return protocol;
     }
 
+    public boolean isHttps() {
+        return protocol.equals("https");
+    }
+
     public String getHost() {
         return host;
     }
 
+    /**
+     * 如链接：http://www.kuaidi100.com/query?type=yuantong&postid=222222222
+     * file是：/query?type=yuantong&postid=222222222
+     */
     public String getFile() {
-        return file;
+        String result = file;
+        if (result == null) {
+            result = encodedQuery == null ? encodedPath : encodedPath + '?' + encodedQuery;
+            file = result;
+        }
+        return result;
     }
 
     public int getPort() {
         return port;
     }
+
+    public String encodedPath() {
+        return encodedPath;
+    }
+
+    public String encodedQuery() {
+        return encodedQuery;
+    }
+
+    /**
+     * 获取指定name的第一个参数值（已解码），没有则返回null
+     */
+    public String queryParameter(String name) {
+        if (encodedQuery == null) {
+            return null;
+        }
+        List<String> namesAndValues = queryStringToNamesAndValues(encodedQuery);
+        for (int i = 0, size = namesAndValues.size(); i < size; i += 2) {
+            if (name.equals(percentDecode(namesAndValues.get(i), true))) {
+                String value = namesAndValues.get(i + 1);
+                return value != null ? percentDecode(value, true) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 主机地址和端口号组成的key，如：www.kuaidi100.com:80，用于查找可复用的连接
+     */
+    public String hostPortKey() {
+        String result = hostPortKey;
+        if (result == null) {
+            result = host + ':' + port;
+            hostPortKey = result;
+        }
+        return result;
+    }
+
+    /**
+     * 请求头Host的值：IPv6地址加上中括号，非默认端口需要带上端口号
+     */
+    public String hostHeader() {
+        String result = host.indexOf(':') != -1 ? "[" + host + "]" : host;
+        return port != defaultPort(protocol) ? result + ':' + port : result;
+    }
+
+    public Builder newBuilder() {
+        Builder result = new Builder();
+        result.scheme = protocol;
+        result.host = host;
+        // 默认端口不需要记录
+        result.port = port != defaultPort(protocol) ? port : -1;
+        result.encodedPath = encodedPath;
+        result.setEncodedQuery(encodedQuery);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HttpUrl && ((HttpUrl) other).toString().equals(toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String result = url;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(protocol).append("://");
+            if (host.indexOf(':') != -1) {
+                // IPv6地址需要用中括号括起来
+                sb.append('[').append(host).append(']');
+            } else {
+                sb.append(host);
+            }
+            if (port != defaultPort(protocol)) {
+                sb.append(':').append(port);
+            }
+            sb.append(getFile());
+            result = sb.toString();
+            url = result;
+        }
+        return result;
+    }
+
+    public static final class Builder {
+
+        String scheme;
+
+        String host;
+
+        // -1 表示使用默认端口
+        int port = -1;
+
+        String encodedPath = "/";
+
+        // 解析或直接设置的参数原文，只有增删参数时才拆分成encodedQueryNamesAndValues
+        String encodedQuery;
+
+        // 参数的name和value交替存放，value可能为null，没有参数时为null
+        List<String> encodedQueryNamesAndValues;
+
+        public Builder scheme(String scheme) {
+            if (scheme == null) {
+                throw new NullPointerException("scheme == null");
+            } else if (scheme.equalsIgnoreCase("http")) {
+                this.scheme = "http";
+            } else if (scheme.equalsIgnoreCase("https")) {
+                this.scheme = "https";
+            } else {
+                throw new IllegalArgumentException("unexpected scheme: " + scheme);
+            }
+            return this;
+        }
+
+        public Builder host(String host) {
+            if (host == null) {
+                throw new NullPointerException("host == null");
+            }
+            String encoded = canonicalizeHost(host, 0, host.length());
+            if (encoded == null) {
+                throw new IllegalArgumentException("unexpected host: " + host);
+            }
+            this.host = encoded;
+            return this;
+        }
+
+        public Builder port(int port) {
+            if (port <= 0 || port > 65535) {
+                throw new IllegalArgumentException("unexpected port: " + port);
+            }
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * 设置路径，如：/v3/weather/weatherInfo，不合法的字符会被编码
+         */
+        public Builder encodedPath(String encodedPath) {
+            if (encodedPath == null) {
+                throw new NullPointerException("encodedPath == null");
+            }
+            if (!encodedPath.startsWith("/")) {
+                throw new IllegalArgumentException("unexpected encodedPath: " + encodedPath);
+            }
+            this.encodedPath = canonicalizePath(encodedPath, 0, encodedPath.length());
+            return this;
+        }
+
+        /**
+         * 在路径末尾追加一段路径，会对 "/" 等字符编码
+         */
+        public Builder addPathSegment(String pathSegment) {
+            if (pathSegment == null) {
+                throw new NullPointerException("pathSegment == null");
+            }
+            String segment = canonicalize(pathSegment, 0, pathSegment.length(),
+                    PATH_SEGMENT_ENCODE_SET, false, false);
+            encodedPath = encodedPath.endsWith("/")
+                    ? encodedPath + segment
+                    : encodedPath + '/' + segment;
+            return this;
+        }
+
+        /**
+         * 添加一个参数，name和value会被编码
+         */
+        public Builder addQueryParameter(String name, String value) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            List<String> encodedQueryNamesAndValues = encodedQueryNamesAndValues();
+            if (encodedQueryNamesAndValues == null) {
+                encodedQueryNamesAndValues = new ArrayList<>();
+                this.encodedQueryNamesAndValues = encodedQueryNamesAndValues;
+            }
+            encodedQueryNamesAndValues.add(canonicalize(name, 0, name.length(),
+                    QUERY_COMPONENT_ENCODE_SET, false, true));
+            encodedQueryNamesAndValues.add(value != null
+                    ? canonicalize(value, 0, value.length(), QUERY_COMPONENT_ENCODE_SET, false,
+                    true)
+                    : null);
+            return this;
+        }
+
+        /**
+         * 设置参数，会先移除同名的参数
+         */
+        public Builder setQueryParameter(String name, String value) {
+            removeAllQueryParameters(name);
+            return addQueryParameter(name, value);
+        }
+
+        public Builder removeAllQueryParameters(String name) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            List<String> encodedQueryNamesAndValues = encodedQueryNamesAndValues();
+            if (encodedQueryNamesAndValues == null) {
+                return this;
+            }
+            String encodedName = canonicalize(name, 0, name.length(),
+                    QUERY_COMPONENT_ENCODE_SET, false, true);
+            for (int i = encodedQueryNamesAndValues.size() - 2; i >= 0; i -= 2) {
+                if (encodedName.equals(encodedQueryNamesAndValues.get(i))) {
+                    encodedQueryNamesAndValues.remove(i + 1);
+                    encodedQueryNamesAndValues.remove(i);
+                }
+            }
+            if (encodedQueryNamesAndValues.isEmpty()) {
+                this.encodedQueryNamesAndValues = null;
+            }
+            return this;
+        }
+
+        /**
+         * 设置编码后的参数，不包含 "?"
+         */
+        public Builder encodedQuery(String encodedQuery) {
+            setEncodedQuery(encodedQuery != null
+                    ? canonicalize(encodedQuery, 0, encodedQuery.length(), QUERY_ENCODE_SET,
+                    true, false)
+                    : null);
+            return this;
+        }
+
+        void setEncodedQuery(String encodedQuery) {
+            this.encodedQuery = encodedQuery;
+            this.encodedQueryNamesAndValues = null;
+        }
+
+        /**
+         * 需要增删参数时，才把参数原文拆分成name和value
+         */
+        private List<String> encodedQueryNamesAndValues() {
+            if (encodedQuery != null) {
+                encodedQueryNamesAndValues = queryStringToNamesAndValues(encodedQuery);
+                encodedQuery = null;
+            }
+            return encodedQueryNamesAndValues;
+        }
+
+        String encodedQuery() {
+            if (encodedQuery != null) {
+                // 没有增删过参数，原文已经是规范化的，直接使用
+                return encodedQuery;
+            }
+            if (encodedQueryNamesAndValues == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0, size = encodedQueryNamesAndValues.size(); i < size; i += 2) {
+                String name = encodedQueryNamesAndValues.get(i);
+                String value = encodedQueryNamesAndValues.get(i + 1);
+                if (i > 0) {
+                    sb.append('&');
+                }
+                sb.append(name);
+                if (value != null) {
+                    sb.append('=').append(value);
+                }
+            }
+            return sb.toString();
+        }
+
+        int effectivePort() {
+            return port != -1 ? port : defaultPort(scheme);
+        }
+
+        public HttpUrl build() {
+            if (scheme == null) {
+                throw new IllegalStateException("scheme == null");
+            }
+            if (host == null) {
+                throw new IllegalStateException("host == null");
+            }
+            return new HttpUrl(this);
+        }
+
+        /**
+         * 一次遍历解析链接，成功返回null，否则返回错误信息
+         * 结构：scheme://[userinfo@]host[:port][/path][?query][#fragment]
+         */
+        String parse(String input) {
+            if (input == null) {
+                return "url == null";
+            }
+            // 去掉首尾的空白字符
+            int pos = skipLeadingAsciiWhitespace(input, 0, input.length());
+            int limit = skipTrailingAsciiWhitespace(input, pos, input.length());
+
+            // 1.协议
+            int schemeDelimiterOffset = schemeDelimiterOffset(input, pos, limit);
+            if (schemeDelimiterOffset == -1) {
+                return "Expected URL scheme 'http' or 'https' but no colon was found";
+            }
+            if (input.regionMatches(true, pos, "https:", 0, 6)) {
+                scheme = "https";
+                pos += "https:".length();
+            } else if (input.regionMatches(true, pos, "http:", 0, 5)) {
+                scheme = "http";
+                pos += "http:".length();
+            } else {
+                return "Expected URL scheme 'http' or 'https' but was '"
+                        + input.substring(pos, schemeDelimiterOffset) + "'";
+            }
+
+            // 2.跳过 "//"，兼容 "\\"
+            int slashCount = 0;
+            while (pos < limit) {
+                char c = input.charAt(pos);
+                if (c != '/' && c != '\\') {
+                    break;
+                }
+                slashCount++;
+                pos++;
+            }
+            if (slashCount < 2) {
+                return "Expected '//' after scheme";
+            }
+
+            // 3.主机地址和端口号，到 '/'、'\\'、'?'、'#' 结束
+            int authorityEnd = delimiterOffset(input, pos, limit, "/\\?#");
+            // 用户信息不需要，跳过最后一个 '@' 之前的内容
+            int at = input.lastIndexOf('@', authorityEnd - 1);
+            if (at >= pos) {
+                pos = at + 1;
+            }
+            int portColonOffset = portColonOffset(input, pos, authorityEnd);
+            if (portColonOffset + 1 < authorityEnd) {
+                host = canonicalizeHost(input, pos, portColonOffset);
+                port = parsePort(input, portColonOffset + 1, authorityEnd);
+                if (port == -1) {
+                    return "Invalid URL port: \""
+                            + input.substring(portColonOffset + 1, authorityEnd) + '"';
+                }
+                if (port == defaultPort(scheme)) {
+                    port = -1;
+                }
+            } else {
+                host = canonicalizeHost(input, pos, portColonOffset);
+                port = -1;
+            }
+            if (host == null) {
+                return "Invalid URL host: \"" + input.substring(pos, portColonOffset) + '"';
+            }
+            pos = authorityEnd;
+
+            // 4.路径
+            int pathEnd = delimiterOffset(input, pos, limit, "?#");
+            encodedPath = canonicalizePath(input, pos, pathEnd);
+            pos = pathEnd;
+
+            // 5.参数，fragment不会发送给服务器，直接忽略
+            if (pos < limit && input.charAt(pos) == '?') {
+                int queryEnd = delimiterOffset(input, pos, limit, "#");
+                setEncodedQuery(
+                        canonicalize(input, pos + 1, queryEnd, QUERY_ENCODE_SET, true, false));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 处理路径中的 "." 和 ".."，并对每一段路径编码
+     */
+    static String canonicalizePath(String input, int pos, int limit) {
+        if (pos == limit) {
+            return "/";
+        }
+        // 快速路径：不需要处理的路径直接截取
+        if (isCanonicalPath(input, pos, limit)) {
+            return input.substring(pos, limit);
+        }
+
+        List<String> segments = new ArrayList<>();
+        boolean trailingSlash = false;
+        // 跳过开头的 '/'
+        pos++;
+        while (pos <= limit) {
+            int segmentEnd = delimiterOffset(input, pos, limit, "/\\");
+            String segment = input.substring(pos, segmentEnd);
+            trailingSlash = false;
+            if (isDot(segment)) {
+                trailingSlash = true;
+            } else if (isDotDot(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+                trailingSlash = true;
+            } else if (!segment.isEmpty() || segmentEnd < limit) {
+                segments.add(canonicalize(segment, 0, segment.length(), PATH_SEGMENT_ENCODE_SET,
+                        true, false));
+            } else {
+                trailingSlash = true;
+            }
+            pos = segmentEnd + 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String segment : segments) {
+            sb.append('/').append(segment);
+        }
+        if (trailingSlash || sb.length() == 0) {
+            sb.append('/');
+        }
+        return sb.toString();
+    }
+
+    private static boolean isCanonicalPath(String input, int pos, int limit) {
+        if (input.charAt(pos) != '/') {
+            return false;
+        }
+        int segmentStart = pos + 1;
+        for (int i = pos + 1; i <= limit; i++) {
+            if (i == limit || input.charAt(i) == '/') {
+                int length = i - segmentStart;
+                // "." 或 ".." 需要处理
+                if (length == 1 && input.charAt(segmentStart) == '.') {
+                    return false;
+                }
+                if (length == 2 && input.charAt(segmentStart) == '.'
+                        && input.charAt(segmentStart + 1) == '.') {
+                    return false;
+                }
+                segmentStart = i + 1;
+                continue;
+            }
+            char c = input.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '\\' || c == '%'
+                    || PATH_SEGMENT_ENCODE_SET.indexOf(c) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDot(String input) {
+        return input.equals(".") || input.equalsIgnoreCase("%2e");
+    }
+
+    private static boolean isDotDot(String input) {
+        return input.equals("..")
+                || input.equalsIgnoreCase("%2e.")
+                || input.equalsIgnoreCase(".%2e")
+                || input.equalsIgnoreCase("%2e%2e");
+    }
+
+    /**
+     * 把 "a=1&b=2&c" 拆分成 [a, 1, b, 2, c, null]
+     */
+    static List<String> queryStringToNamesAndValues(String encodedQuery) {
+        List<String> result = new ArrayList<>();
+        for (int pos = 0; pos <= encodedQuery.length(); ) {
+            int ampersandOffset = encodedQuery.indexOf('&', pos);
+            if (ampersandOffset == -1) {
+                ampersandOffset = encodedQuery.length();
+            }
+            int equalsOffset = encodedQuery.indexOf('=', pos);
+            if (equalsOffset == -1 || equalsOffset > ampersandOffset) {
+                result.add(encodedQuery.substring(pos, ampersandOffset));
+                result.add(null);
+            } else {
+                result.add(encodedQuery.substring(pos, equalsOffset));
+                result.add(encodedQuery.substring(equalsOffset + 1, ampersandOffset));
+            }
+            pos = ampersandOffset + 1;
+        }
+        return result;
+    }
+
+    /**
+     * 对指定范围内的字符编码，不需要编码时直接截取，不产生额外的对象
+     *
+     * @param encodeSet     需要编码的字符
+     * @param alreadyEncoded 是否已经编码过，是则保留合法的 "%XX"
+     * @param plusIsSpace   '+' 是否需要编码，参数中的 '+' 会被服务器当成空格
+     */
+    static String canonicalize(String input, int pos, int limit, String encodeSet,
+            boolean alreadyEncoded, boolean plusIsSpace) {
+        for (int i = pos; i < limit; i++) {
+            char c = input.charAt(i);
+            if (c < 0x20 || c >= 0x7f || encodeSet.indexOf(c) != -1
+                    || (c == '%' && (!alreadyEncoded || !percentEncoded(input, i, limit)))
+                    || (c == '+' && plusIsSpace)) {
+                // 需要编码，从这里开始
+                StringBuilder sb = new StringBuilder(limit - pos + 16);
+                sb.append(input, pos, i);
+                canonicalize(sb, input, i, limit, encodeSet, alreadyEncoded, plusIsSpace);
+                return sb.toString();
+            }
+        }
+        return input.substring(pos, limit);
+    }
+
+    private static void canonicalize(StringBuilder out, String input, int pos, int limit,
+            String encodeSet, boolean alreadyEncoded, boolean plusIsSpace) {
+        for (int i = pos; i < limit; ) {
+            int codePoint = input.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+            if (alreadyEncoded && (codePoint == '\t' || codePoint == '\n'
+                    || codePoint == '\f' || codePoint == '\r')) {
+                // 已编码的内容中混入的空白字符直接丢弃
+            } else if (codePoint < 0x20 || codePoint >= 0x7f
+                    || encodeSet.indexOf(codePoint) != -1
+                    || (codePoint == '%' && (!alreadyEncoded || !percentEncoded(input, i, limit)))
+                    || (codePoint == '+' && plusIsSpace)) {
+                // UTF-8编码之后，每个字节转成 %XX
+                byte[] bytes = input.substring(i, i + charCount).getBytes(UTF_8);
+                for (byte b : bytes) {
+                    out.append('%')
+                            .append(HEX_DIGITS[(b >> 4) & 0xf])
+                            .append(HEX_DIGITS[b & 0xf]);
+                }
+            } else {
+                out.appendCodePoint(codePoint);
+            }
+            i += charCount;
+        }
+    }
+
+    private static boolean percentEncoded(String input, int pos, int limit) {
+        return pos + 2 < limit
+                && input.charAt(pos) == '%'
+                && decodeHexDigit(input.charAt(pos + 1)) != -1
+                && decodeHexDigit(input.charAt(pos + 2)) != -1;
+    }
+
+    /**
+     * 百分号解码
+     */
+    static String percentDecode(String encoded, boolean plusIsSpace) {
+        int limit = encoded.length();
+        for (int i = 0; i < limit; i++) {
+            char c = encoded.charAt(i);
+            if (c == '%' || (c == '+' && plusIsSpace)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(limit);
+                byte[] prefix = encoded.substring(0, i).getBytes(UTF_8);
+                out.write(prefix, 0, prefix.length);
+                for (int j = i; j < limit; j++) {
+                    char ch = encoded.charAt(j);
+                    if (ch == '%' && j + 2 < limit) {
+                        int d1 = decodeHexDigit(encoded.charAt(j + 1));
+                        int d2 = decodeHexDigit(encoded.charAt(j + 2));
+                        if (d1 != -1 && d2 != -1) {
+                            out.write((d1 << 4) + d2);
+                            j += 2;
+                            continue;
+                        }
+                    } else if (ch == '+' && plusIsSpace) {
+                        out.write(' ');
+                        continue;
+                    }
+                    int codePoint = encoded.codePointAt(j);
+                    byte[] bytes = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+                    out.write(bytes, 0, bytes.length);
+                    j += Character.charCount(codePoint) - 1;
+                }
+                return new String(out.toByteArray(), UTF_8);
+            }
+        }
+        return encoded;
+    }
+
+    static int decodeHexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * 主机地址规范化：IPv6地址转成标准格式，国际化域名转成 punycode，统一小写
+     * 不合法时返回null
+     */
+    static String canonicalizeHost(String input, int pos, int limit) {
+        if (pos >= limit) {
+            return null;
+        }
+        // IPv6地址
+        if (input.charAt(pos) == '[') {
+            if (input.charAt(limit - 1) != ']') {
+                return null;
+            }
+            byte[] address = decodeIpv6(input, pos + 1, limit - 1);
+            return address != null ? inet6AddressToAscii(address) : null;
+        }
+        if (input.indexOf(':', pos) != -1 && input.indexOf(':', pos) < limit) {
+            byte[] address = decodeIpv6(input, pos, limit);
+            return address != null ? inet6AddressToAscii(address) : null;
+        }
+
+        // 大部分情况下，主机地址本身就是小写的ASCII字符，不需要处理
+        boolean ascii = true;
+        boolean lowerCase = true;
+        for (int i = pos; i < limit; i++) {
+            char c = input.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                lowerCase = false;
+            } else if (c <= 0x20 || c == 0x7f || FORBIDDEN_HOST_CHARS.indexOf(c) != -1) {
+                return null;
+            }
+        }
+        String host = input.substring(pos, limit);
+        if (ascii) {
+            return lowerCase ? host : host.toLowerCase(Locale.US);
+        }
+
+        // 国际化域名，如：中文.com
+        try {
+            String result = IDN.toASCII(host).toLowerCase(Locale.US);
+            if (result.isEmpty()) {
+                return null;
+            }
+            for (int i = 0; i < result.length(); i++) {
+                char c = result.charAt(i);
+                if (c <= 0x20 || c >= 0x7f || FORBIDDEN_HOST_CHARS.indexOf(c) != -1) {
+                    return null;
+                }
+            }
+            return result;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析IPv6地址，如：2001:db8::1，不合法时返回null
+     */
+    private static byte[] decodeIpv6(String input, int pos, int limit) {
+        byte[] address = new byte[16];
+        int b = 0;
+        int compress = -1;
+        int groupOffset = -1;
+
+        for (int i = pos; i < limit; ) {
+            if (b == address.length) {
+                return null;
+            }
+
+            if (i + 2 <= limit && input.regionMatches(i, "::", 0, 2)) {
+                // "::" 只能出现一次
+                if (compress != -1) {
+                    return null;
+                }
+                i += 2;
+                b += 2;
+                compress = b;
+                if (i == limit) {
+                    break;
+                }
+            } else if (b != 0) {
+                if (input.regionMatches(i, ":", 0, 1)) {
+                    i++;
+                } else if (input.regionMatches(i, ".", 0, 1)) {
+                    // 结尾是IPv4地址，如：::ffff:192.168.0.1
+                    if (!decodeIpv4Suffix(input, groupOffset, limit, address, b - 2)) {
+                        return null;
+                    }
+                    b += 2;
+                    break;
+                } else {
+                    return null;
+                }
+            }
+
+            // 读取一组16进制数
+            int value = 0;
+            groupOffset = i;
+            for (; i < limit; i++) {
+                int hexDigit = decodeHexDigit(input.charAt(i));
+                if (hexDigit == -1) {
+                    break;
+                }
+                value = (value << 4) + hexDigit;
+            }
+            int groupLength = i - groupOffset;
+            if (groupLength == 0 || groupLength > 4) {
+                return null;
+            }
+
+            address[b++] = (byte) ((value >>> 8) & 0xff);
+            address[b++] = (byte) (value & 0xff);
+        }
+
+        if (b != address.length) {
+            if (compress == -1) {
+                return null;
+            }
+            // "::" 表示省略的0
+            System.arraycopy(address, compress, address, address.length - (b - compress),
+                    b - compress);
+            for (int i = compress; i < address.length - (b - compress); i++) {
+                address[i] = 0;
+            }
+        }
+        return address;
+    }
+
+    private static boolean decodeIpv4Suffix(String input, int pos, int limit, byte[] address,
+            int addressOffset) {
+        int b = addressOffset;
+        for (int i = pos; i < limit; ) {
+            if (b == address.length) {
+                return false;
+            }
+            if (b != addressOffset) {
+                if (input.charAt(i) != '.') {
+                    return false;
+                }
+                i++;
+            }
+
+            int value = 0;
+            int groupOffset = i;
+            for (; i < limit; i++) {
+                char c = input.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                // 不允许以0开头
+                if (value == 0 && groupOffset != i) {
+                    return false;
+                }
+                value = (value * 10) + c - '0';
+                if (value > 255) {
+                    return false;
+                }
+            }
+            if (i - groupOffset == 0) {
+                return false;
+            }
+            address[b++] = (byte) value;
+        }
+        return b == addressOffset + 4;
+    }
+
+    /**
+     * IPv6地址转成标准格式（RFC 5952）：小写、去掉前导0、最长的连续0用 "::" 代替
+     */
+    private static String inet6AddressToAscii(byte[] address) {
+        int longestRunOffset = -1;
+        int longestRunLength = 0;
+        for (int i = 0; i < address.length; i += 2) {
+            int currentRunOffset = i;
+            while (i < 16 && address[i] == 0 && address[i + 1] == 0) {
+                i += 2;
+            }
+            int currentRunLength = i - currentRunOffset;
+            if (currentRunLength > longestRunLength && currentRunLength >= 4) {
+                longestRunOffset = currentRunOffset;
+                longestRunLength = currentRunLength;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < address.length; ) {
+            if (i == longestRunOffset) {
+                sb.append(':');
+                i += longestRunLength;
+                if (i == 16) {
+                    sb.append(':');
+                }
+            } else {
+                if (i > 0) {
+                    sb.append(':');
+                }
+                int group = (address[i] & 0xff) << 8 | (address[i + 1] & 0xff);
+                sb.append(Integer.toHexString(group));
+                i += 2;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int parsePort(String input, int pos, int limit) {
+        if (limit - pos > 5) {
+            return -1;
+        }
+        int port = 0;
+        for (int i = pos; i < limit; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            port = port * 10 + (c - '0');
+        }
+        return port > 0 && port <= 65535 ? port : -1;
+    }
+
+    /**
+     * 找到端口号前面的冒号，IPv6地址中的冒号需要跳过
+     */
+    private static int portColonOffset(String input, int pos, int limit) {
+        for (int i = pos; i < limit; i++) {
+            switch (input.charAt(i)) {
+                case '[':
+                    while (++i < limit) {
+                        if (input.charAt(i) == ']') {
+                            break;
+                        }
+                    }
+                    break;
+                case ':':
+                    return i;
+                default:
+                    break;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 协议后面冒号的位置，不是合法的协议时返回-1
+     */
+    private static int schemeDelimiterOffset(String input, int pos, int limit) {
+        if (limit - pos < 2) {
+            return -1;
+        }
+        char c0 = input.charAt(pos);
+        if ((c0 < 'a' || c0 > 'z') && (c0 < 'A' || c0 > 'Z')) {
+            return -1;
+        }
+        for (int i = pos + 1; i < limit; i++) {
+            char c = input.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '+' || c == '-' || c == '.') {
+                continue;
+            } else if (c == ':') {
+                return i;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int delimiterOffset(String input, int pos, int limit, String delimiters) {
+        for (int i = pos; i < limit; i++) {
+            if (delimiters.indexOf(input.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int skipLeadingAsciiWhitespace(String input, int pos, int limit) {
+        for (int i = pos; i < limit; i++) {
+            switch (input.charAt(i)) {
+                case '\t':
+                case '\n':
+                case '\f':
+                case '\r':
+                case ' ':
+                    continue;
+                default:
+                    return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int skipTrailingAsciiWhitespace(String input, int pos, int limit) {
+        for (int i = limit - 1; i >= pos; i--) {
+            switch (input.charAt(i)) {
+                case '\t':
+                case '\n':
+                case '\f':
+                case '\r':
+                case ' ':
+                    continue;
+                default:
+                    return i + 1;
+            }
+        }
+        return pos;
+    }
 }
@@ -0,0 +1,16 @@
+package com.mei.http.net;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 下载进度回调，在执行请求的线程中回调
+ * @desired
+ */
+public interface ProgressListener {
+
+    /**
+     * @param bytesWritten  文件当前的长度，断点续传时包括之前已经下载的部分
+     * @param contentLength 文件的总长度，未知时为-1
+     */
+    void onProgress(long bytesWritten, long contentLength);
+}
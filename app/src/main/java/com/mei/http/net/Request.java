@@ -2,9 +2,6 @@ package com.mei.http.net;
 
 import android.text.TextUtils;
 
-import java.net.MalformedURLException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author mxb
@@ -15,7 +12,7 @@ import java.util.Map;
 public class Request {
 
     // 请求头
-    private Map<String, String> headers;
+    private Headers headers;
 
 
     // 请求链接
@@ -30,7 +27,7 @@ public class Request {
         this.url = builder.url;
         this.requestBody = builder.mRequestBody;
         this.method = builder.method;
-        this.headers = builder.headers;
+        this.headers = builder.headers.build();
     }
 
 
@@ -38,10 +35,14 @@ public class Request {
         return url;
     }
 
-    public Map<String, String> headers() {
+    public Headers headers() {
         return headers;
     }
 
+    public String header(String name) {
+        return headers.get(name);
+    }
+
     public RequestBody requestBody() {
         return requestBody;
     }
@@ -50,6 +51,13 @@ public class Request {
         return method;
     }
 
+    /**
+     * 基于当前请求创建Builder，用于在拦截器中补充或修改请求信息
+     */
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
     public static class Builder {
 
         HttpUrl url;
@@ -57,16 +65,34 @@ public class Request {
         String method;//请求方法
 
         // 请求头
-        Map<String, String> headers = new HashMap<>();
+        Headers.Builder headers;
 
         RequestBody mRequestBody;
 
+        public Builder() {
+            this.headers = new Headers.Builder();
+        }
+
+        Builder(Request request) {
+            this.url = request.url;
+            this.method = request.method;
+            this.mRequestBody = request.requestBody;
+            this.headers = request.headers.newBuilder();
+        }
+
+        /**
+         * 设置请求链接，链接格式不正确时抛出 IllegalArgumentException
+         */
         public Builder url(String url) {
-            try {
-                this.url = new HttpUrl(url);
-            } catch (MalformedURLException e) {
-                e.printStackTrace();
+            this.url = HttpUrl.get(url);
+            return this;
+        }
+
+        public Builder url(HttpUrl url) {
+            if (url == null) {
+                throw new NullPointerException("url == null");
             }
+            this.url = url;
             return this;
         }
 
@@ -82,14 +108,30 @@ public class Request {
             return this;
         }
 
+        /**
+         * 设置请求头，会覆盖同名的请求头
+         */
+        public Builder header(String name, String value) {
+            headers.set(name, value);
+            return this;
+        }
+
+        /**
+         * 添加请求头，同名的请求头会保留，如：Cookie
+         */
         public Builder addHeader(String name, String value) {
-            headers.put(name, value);
+            headers.add(name, value);
             return this;
         }
 
 
         public Builder removeHeader(String name) {
-            headers.remove(name);
+            headers.removeAll(name);
+            return this;
+        }
+
+        public Builder headers(Headers headers) {
+            this.headers = headers.newBuilder();
             return this;
         }
 
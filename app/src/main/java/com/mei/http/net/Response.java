@@ -1,8 +1,5 @@
 package com.mei.http.net;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * @author mxb
  * @date 2020/5/4
@@ -13,18 +10,18 @@ public class Response {
 
     int code;// 请求返回的状态码
 
-    int contentLength;// 返回数据长度
+    long contentLength;// 返回数据长度
 
     // 返回的请求头
-    Map<String, String> headers = new HashMap<>();
+    Headers headers;
 
-    // 返回的请求体，即返回的数据
+    // 返回的请求体，即返回的数据，下载文件时为null，数据已写入文件
     String body;
 
     // 是否保持连接
     boolean isKeepAlive;
 
-    public Response(int code, int contentLength, Map<String, String> headers, String body,
+    public Response(int code, long contentLength, Headers headers, String body,
             boolean isKeepAlive) {
         this.code = code;
         this.contentLength = contentLength;
@@ -37,14 +34,18 @@ public class Response {
         return code;
     }
 
-    public int getContentLength() {
+    public long getContentLength() {
         return contentLength;
     }
 
-    public Map<String, String> getHeaders() {
+    public Headers getHeaders() {
         return headers;
     }
 
+    public String header(String name) {
+        return headers.get(name);
+    }
+
     public String getBody() {
         return body;
     }
@@ -0,0 +1,199 @@
+package com.mei.http.net;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 字节数组缓存池，HttpCodec读写数据时使用的字节数组都从这里获取，用完之后放回
+ * 1. 所有的字节数组大小固定为 {@link #SEGMENT_SIZE}
+ * 2. 每个线程有自己的小缓存，大部分情况下获取和回收都不需要加锁
+ * 3. 线程缓存满了之后放回共享缓存，共享缓存有总大小限制，超过则直接丢弃交给GC
+ * 4. 解码响应体用的UTF-8解码器和字符缓冲区也按线程缓存，不用每个HttpCodec都创建
+ * @desired
+ */
+public final class SegmentPool {
+
+    // 每一块字节数组的大小
+    public static final int SEGMENT_SIZE = 8 * 1024;
+
+    // 每个线程最多缓存的字节数组个数
+    private static final int MAX_THREAD_LOCAL_SEGMENTS = 2;
+
+    // 解码时字符缓冲区的大小
+    static final int CHAR_BUFFER_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 共享缓存最多保留的字节数
+    private final long maxSize;
+
+    // 共享缓存
+    private final Deque<byte[]> segments = new ArrayDeque<>();
+
+    // 线程缓存
+    private final ThreadLocal<LocalCache> localCache = new ThreadLocal<LocalCache>() {
+        @Override
+        protected LocalCache initialValue() {
+            return new LocalCache();
+        }
+    };
+
+    // 从缓存中取到的次数
+    private final AtomicLong hitCount = new AtomicLong();
+
+    // 缓存中没有，新创建的次数
+    private final AtomicLong missCount = new AtomicLong();
+
+    public SegmentPool() {
+        // 默认最多保留256K
+        this(256 * 1024);
+    }
+
+    public SegmentPool(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 获取一块字节数组，内容是脏的，使用者不能假设为0
+     */
+    public byte[] take() {
+        // 1.先从线程缓存中取
+        LocalCache cache = localCache.get();
+        if (cache.count > 0) {
+            byte[] segment = cache.segments[--cache.count];
+            cache.segments[cache.count] = null;
+            hitCount.incrementAndGet();
+            return segment;
+        }
+
+        // 2.再从共享缓存中取
+        synchronized (this) {
+            byte[] segment = segments.pollLast();
+            if (segment != null) {
+                hitCount.incrementAndGet();
+                return segment;
+            }
+        }
+
+        // 3.都没有则新建
+        missCount.incrementAndGet();
+        return new byte[SEGMENT_SIZE];
+    }
+
+    /**
+     * 回收字节数组，回收之后使用者不能再持有
+     */
+    public void recycle(byte[] segment) {
+        if (segment.length != SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segment.length != " + SEGMENT_SIZE);
+        }
+
+        // 1.先放到线程缓存
+        LocalCache cache = localCache.get();
+        if (cache.count < MAX_THREAD_LOCAL_SEGMENTS) {
+            cache.segments[cache.count++] = segment;
+            return;
+        }
+
+        // 2.线程缓存满了，放到共享缓存，超过限制则丢弃
+        synchronized (this) {
+            if ((long) (segments.size() + 1) * SEGMENT_SIZE > maxSize) {
+                return;
+            }
+            segments.addLast(segment);
+        }
+    }
+
+    /**
+     * 当前线程的UTF-8解码器，第一次使用时创建，之后一直复用
+     * 只能在当前线程的一次解码过程中使用，开始解码前需要 reset()
+     */
+    CharsetDecoder utf8Decoder() {
+        LocalCache cache = localCache.get();
+        if (cache.decoder == null) {
+            cache.decoder = UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return cache.decoder;
+    }
+
+    /**
+     * 当前线程解码用的字符缓冲区，和 {@link #utf8Decoder()} 一起使用
+     */
+    CharBuffer charBuffer() {
+        LocalCache cache = localCache.get();
+        if (cache.charBuffer == null) {
+            cache.charBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        }
+        return cache.charBuffer;
+    }
+
+    /**
+     * 清空共享缓存，线程缓存只能由各自的线程释放
+     */
+    public synchronized void evictAll() {
+        segments.clear();
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 命中率，没有获取过时返回0
+     */
+    public double hitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 共享缓存当前保留的字节数
+     * 线程缓存不计算在内：线程结束时它的缓存随ThreadLocal被GC回收，这里无法得知，计入会让统计只增不减
+     * 每个线程最多额外保留 MAX_THREAD_LOCAL_SEGMENTS * SEGMENT_SIZE 字节
+     */
+    public synchronized long retainedBytes() {
+        return (long) segments.size() * SEGMENT_SIZE;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentPool{hitCount=" + hitCount()
+                + ", missCount=" + missCount()
+                + ", hitRate=" + hitRate()
+                + ", retainedBytes=" + retainedBytes()
+                + ", maxSize=" + maxSize
+                + '}';
+    }
+
+    private static final class LocalCache {
+
+        final byte[][] segments = new byte[MAX_THREAD_LOCAL_SEGMENTS][];
+
+        int count;
+
+        CharsetDecoder decoder;
+
+        CharBuffer charBuffer;
+    }
+}
@@ -1,5 +1,7 @@
 package com.mei.http.net.chain;
 
+import com.mei.http.net.DownloadSink;
+import com.mei.http.net.Headers;
 import com.mei.http.net.HttpCodec;
 import com.mei.http.net.HttpConnection;
 import com.mei.http.net.Response;
@@ -8,7 +10,6 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
 
 /**
  * @author mxb
@@ -22,7 +23,17 @@ public class CallServiceInterceptor implements Interceptor {
     public Response intercept(InterceptorChain chain) throws IOException {
         Log.e("interceptor", "通信拦截器");
         HttpConnection connection = chain.httpConnection();
-        HttpCodec httpCodec = new HttpCodec();
+        HttpCodec httpCodec = new HttpCodec(chain.call.httpClient().segmentPool());
+        try {
+            return process(connection, httpCodec, chain.call.downloadSink());
+        } finally {
+            // 请求结束，字节数组放回缓存池
+            httpCodec.release();
+        }
+    }
+
+    private Response process(HttpConnection connection, HttpCodec httpCodec,
+            DownloadSink downloadSink) throws IOException {
         // 1.请求服务器连接，并把请求的数据传递给服务器
         InputStream is = connection.call(httpCodec);
 
@@ -32,43 +43,62 @@ public class CallServiceInterceptor implements Interceptor {
         // 2-1.读取响应行
         String statusLine = httpCodec.readLine(is);
 
+        // 根据空格，分割响应行数据
+        String[] status = statusLine.split(" ");
+        int code = Integer.valueOf(status[1]);
+
         // 2-2.读取服务器返回的请求头，响应行下面就是请求头了
-        Map<String, String> headers = httpCodec.readHeaders(is);
+        // 响应头的name忽略大小写
+        Headers headers = httpCodec.readHeaders(is);
 
         //根据Content-Length 解析
         // 2-3.读取响应体，即服务器返回的数据
-        int contentLength = -1;
-        if (headers.containsKey("Content-Length")) {
-            contentLength = Integer.valueOf(headers.get("Content-Length"));
+        long contentLength = -1;
+        String length = headers.get(HttpCodec.HEAD_CONTENT_LENGTH);
+        if (length != null) {
+            contentLength = Long.parseLong(length.trim());
         }
 
         // 如果服务器数据是根据分块编码 解析，即数据是分块返回的
         boolean isChunked = false;
         // 判断是否需要分块读取服务器返回的数据
-        if (headers.containsKey("Transfer-Encoding")) {
+        String transferEncoding = headers.get(HttpCodec.HEAD_TRANSFER_ENCODING);
+        if (transferEncoding != null) {
             // 如果响应头中："Transfer-Encoding：chunked\r\n",说明服务器返回的数据是分块返回的
-            isChunked = headers.get("Transfer-Encoding").equalsIgnoreCase("chunked");
+            isChunked = transferEncoding.equalsIgnoreCase(HttpCodec.HEAD_VALUE_CHUNKED);
         }
 
         // 服务器返回的数据
         String body = null;
-        if (contentLength > 0) {// 如果后台返回了body长度，则直接按照指定长度读取
-            byte[] bytes = httpCodec.readBytes(is, contentLength);
-            body = new String(bytes);
+        // 响应体是否读到连接关闭为止，这种连接不能复用
+        boolean readToEof = false;
+        if (downloadSink != null && downloadSink.accepts(code)) {// 下载文件，响应体直接写入文件
+            downloadSink.readBody(httpCodec, connection, is, code, headers);
+            readToEof = contentLength == -1 && !isChunked;
+        } else if (contentLength > 0) {// 如果后台返回了body长度，则直接按照指定长度读取
+            body = httpCodec.readBody(is, contentLength);
         } else if (isChunked) {// 如果后台返回的数据分块了
             body = httpCodec.readChunked(is);
         }
 
-        // 根据空格，分割响应行数据
-        String[] status = statusLine.split(" ");
+        // 断点续传的位置超出了文件长度
+        if (downloadSink != null && code == 416) {
+            // 本地文件已经完整，当作下载成功：和续传一样返回206，长度为整个文件的长度
+            // 文件不完整时抛出异常
+            contentLength = downloadSink.rangeNotSatisfiable(headers);
+            code = 206;
+            body = null;
+        }
+
         // 是否保持长连接
         boolean keepAlive = false;
-        if (headers.containsKey("Connection")) {
-            keepAlive = headers.get("Connection").equalsIgnoreCase("keep-alive");
+        String connectionHeader = headers.get(HttpCodec.HEAD_CONNECTION);
+        if (connectionHeader != null && !readToEof) {
+            keepAlive = connectionHeader.equalsIgnoreCase(HttpCodec.HEAD_VALUE_KEEP_ALIVE);
         }
         // 更新连接最后一次使用的时间
         connection.updateLastUserTime();
 
-        return new Response(Integer.valueOf(status[1]), contentLength, headers, body, keepAlive);
+        return new Response(code, contentLength, headers, body, keepAlive);
     }
 }
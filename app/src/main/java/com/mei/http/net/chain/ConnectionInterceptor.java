@@ -23,12 +23,12 @@ public class ConnectionInterceptor implements Interceptor {
     public Response intercept(InterceptorChain chain) throws IOException {
         Log.e("interceptor", "获取连接拦截器");
 
-        Request request = chain.call.request();
+        Request request = chain.request();
         HttpClient httpClient = chain.call.httpClient();
         HttpUrl url = request.url();
         //从连接池中获得连接
         ConnectionPool connectionPool = httpClient.connectionPool();
-        HttpConnection connection = connectionPool.get(url.getHost(), url.getPort());
+        HttpConnection connection = connectionPool.get(url);
         if (connection == null) {
             connection = new HttpConnection();
         } else {
@@ -1,5 +1,6 @@
 package com.mei.http.net.chain;
 
+import com.mei.http.net.DownloadSink;
 import com.mei.http.net.Request;
 import com.mei.http.net.RequestBody;
 import com.mei.http.net.Response;
@@ -7,7 +8,6 @@ import com.mei.http.net.Response;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.Map;
 
 /**
  * @author mxb
@@ -23,28 +23,41 @@ public class HeaderInterceptor implements Interceptor {
     @Override
     public Response intercept(InterceptorChain chain) throws IOException {
         Log.e("interceptor", "请求头拦截器");
-        Request request = chain.call.request();
-        Map<String, String> headers = request.headers();
+        Request request = chain.request();
+        // 请求头不可修改，补充请求头需要重新构建请求
+        Request.Builder builder = request.newBuilder();
         // 保持连接
         // 如果使用者没有配置 Connection请求头
-        if (!headers.containsKey("Connection")) {
-            headers.put("Connection", "Keep-Alive");
+        if (request.header("Connection") == null) {
+            builder.header("Connection", "Keep-Alive");
         }
 
         // 添加服务器地址
-        headers.put("Host", request.url().getHost());
+        builder.header("Host", request.url().hostHeader());
 
         RequestBody body = request.requestBody();
         if (body != null) {
             //  //请求体长度
             int contentLength = body.contentLength();
-            headers.put("Content-Length", String.valueOf(contentLength));
+            builder.header("Content-Length", String.valueOf(contentLength));
 
             String contentType = body.contentType();
-            headers.put("Content-Type", contentType);
+            builder.header("Content-Type", contentType);
+        }
+
+        // 下载文件时，本地已有部分数据，从文件末尾继续下载
+        // 每次重试都会重新计算，网络中断后重试只下载剩余的部分
+        DownloadSink downloadSink = chain.call.downloadSink();
+        if (downloadSink != null) {
+            long resumeOffset = downloadSink.resumeOffset();
+            if (resumeOffset > 0) {
+                builder.header("Range", "bytes=" + resumeOffset + "-");
+            } else {
+                builder.removeHeader("Range");
+            }
         }
 
         // 执行下一个拦截器
-        return chain.process();
+        return chain.process(builder.build());
     }
 }
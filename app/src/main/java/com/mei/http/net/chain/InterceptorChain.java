@@ -2,6 +2,7 @@ package com.mei.http.net.chain;
 
 import com.mei.http.net.Call;
 import com.mei.http.net.HttpConnection;
+import com.mei.http.net.Request;
 import com.mei.http.net.Response;
 
 import java.io.IOException;
@@ -25,14 +26,23 @@ public class InterceptorChain {
     // 请求对象
     Call call;
 
+    // 当前的请求信息，拦截器可能会替换成补充过请求头的请求
+    private Request request;
+
     // http请求连接
     private HttpConnection httpConnection;
 
     public InterceptorChain(List<Interceptor> interceptors, int index, Call call,
             HttpConnection httpConnection) {
+        this(interceptors, index, call, call.request(), httpConnection);
+    }
+
+    public InterceptorChain(List<Interceptor> interceptors, int index, Call call, Request request,
+            HttpConnection httpConnection) {
         this.interceptors = interceptors;
         this.index = index;
         this.call = call;
+        this.request = request;
         this.httpConnection = httpConnection;
     }
 
@@ -40,6 +50,15 @@ public class InterceptorChain {
         return httpConnection;
     }
 
+    public Request request() {
+        return request;
+    }
+
+    public Response process(Request request) throws IOException {
+        this.request = request;
+        return process();
+    }
+
     public Response process(HttpConnection connection) throws IOException {
         this.httpConnection = connection;
         return process();
@@ -52,7 +71,7 @@ public class InterceptorChain {
 
         // 获取当前拦截器,并执行
         Interceptor interceptor = interceptors.get(index);
-        InterceptorChain chain = new InterceptorChain(interceptors, index + 1, call,
+        InterceptorChain chain = new InterceptorChain(interceptors, index + 1, call, request,
                 httpConnection);
         return interceptor.intercept(chain);
     }
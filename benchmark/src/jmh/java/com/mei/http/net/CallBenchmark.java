@@ -0,0 +1,85 @@
+package com.mei.http.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 完整请求的吞吐量测试：Dispatcher -> 拦截器链 -> 连接池 -> HttpCodec -> 本机http服务器
+ * 每个benchmark线程同时只有一个请求，请求结束后才发下一个
+ * @desired
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CallBenchmark {
+
+    // 响应体长度
+    @Param({"128", "16384"})
+    int bodySize;
+
+    private LoopbackServer server;
+
+    private HttpClient client;
+
+    private Request request;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new LoopbackServer(bodySize);
+        client = new HttpClient.Builder().build();
+        request = new Request.Builder().url(server.url("/benchmark?size=" + bodySize)).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public Response call() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Response[] result = new Response[1];
+        final Throwable[] failure = new Throwable[1];
+        client.newCall(request).enqueue(new CallBack() {
+            @Override
+            public void onFailure(Call call, Throwable throwable) {
+                failure[0] = throwable;
+                latch.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                result[0] = response;
+                latch.countDown();
+            }
+        });
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("call timed out");
+        }
+        if (failure[0] != null) {
+            throw new IllegalStateException(failure[0]);
+        }
+        return result[0];
+    }
+}
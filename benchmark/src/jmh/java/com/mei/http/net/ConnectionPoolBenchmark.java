@@ -0,0 +1,112 @@
+package com.mei.http.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc ConnectionPool在连接分布在很多host上时get/put的性能测试
+ * 每个host对应本机的一个端口，连接池中每个host有一个已建立的连接
+ * @desired
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+
+    // 连接池中不同的host:port个数
+    @Param({"1", "16", "128"})
+    int hostCount;
+
+    private LoopbackServer[] servers;
+
+    private ConnectionPool connectionPool;
+
+    private HttpConnection[] connections;
+
+    private String host;
+
+    private int[] ports;
+
+    // 每个端口对应的请求地址，连接池按HttpUrl查找连接
+    private HttpUrl[] urls;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        connectionPool = new ConnectionPool(10, TimeUnit.MINUTES);
+        SegmentPool segmentPool = new SegmentPool();
+        servers = new LoopbackServer[hostCount];
+        connections = new HttpConnection[hostCount];
+        ports = new int[hostCount];
+        urls = new HttpUrl[hostCount];
+        for (int i = 0; i < hostCount; i++) {
+            servers[i] = new LoopbackServer(0);
+            Request request = new Request.Builder().url(servers[i].url("/")).build();
+            host = request.url().getHost();
+            ports[i] = request.url().getPort();
+            urls[i] = request.url();
+
+            // 发送一次请求，建立连接
+            HttpConnection connection = new HttpConnection();
+            connection.setRequest(request);
+            HttpCodec codec = new HttpCodec(segmentPool);
+            try {
+                InputStream is = connection.call(codec);
+                codec.readLine(is);
+                codec.readHeaders(is);
+            } finally {
+                codec.release();
+            }
+            connection.updateLastUserTime();
+            connections[i] = connection;
+            connectionPool.put(connection);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (HttpConnection connection : connections) {
+            connection.close();
+        }
+        for (LoopbackServer server : servers) {
+            server.close();
+        }
+    }
+
+    /**
+     * 从连接池中取出一个连接，使用完再放回去
+     */
+    @Benchmark
+    public HttpConnection getAndPut() {
+        int port = ports[next];
+        HttpUrl url = urls[next];
+        next = (next + 1) % hostCount;
+        HttpConnection connection = connectionPool.get(url);
+        if (connection == null) {
+            throw new IllegalStateException("no pooled connection for " + host + ":" + port);
+        }
+        connectionPool.put(connection);
+        return connection;
+    }
+}
@@ -0,0 +1,106 @@
+package com.mei.http.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc Dispatcher在多线程竞争下enqueue和finished的性能测试
+ * 线程池不执行请求，只把开始执行的请求记录下来，由benchmark线程调用finished()结束
+ * 每次操作提交一个请求并结束一个已开始的请求，执行队列和等待队列的长度保持稳定
+ * @desired
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class DispatcherBenchmark {
+
+    // 请求分布在多少个不同的host上
+    @Param({"1", "16", "256"})
+    int hostCount;
+
+    private Dispatcher dispatcher;
+
+    private Call[] calls;
+
+    // 已经开始执行，等待结束的请求
+    private final Queue<Call.AsyncCall> started = new ConcurrentLinkedQueue<>();
+
+    @Setup
+    public void setup() {
+        dispatcher = new Dispatcher(new RecordingExecutor());
+        HttpClient client = new HttpClient.Builder().dispatcher(dispatcher).build();
+        calls = new Call[hostCount];
+        for (int i = 0; i < hostCount; i++) {
+            Request request = new Request.Builder().url("http://host" + i + ".example.com/").build();
+            calls[i] = client.newCall(request);
+        }
+    }
+
+    @Benchmark
+    public void enqueueAndFinish() {
+        Call call = calls[ThreadLocalRandom.current().nextInt(hostCount)];
+        dispatcher.enqueue(call.new AsyncCall(null));
+
+        Call.AsyncCall running = started.poll();
+        if (running != null) {
+            dispatcher.finished(running);
+        }
+    }
+
+    /**
+     * 不执行任务，只记录下来
+     */
+    final class RecordingExecutor extends AbstractExecutorService {
+
+        @Override
+        public void execute(Runnable command) {
+            started.add((Call.AsyncCall) command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public java.util.List<Runnable> shutdownNow() {
+            return java.util.Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mei.http.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc HttpCodec读写数据的性能测试，数据都在内存中，不涉及网络
+ * 与CallServiceInterceptor一样，每次操作都创建新的HttpCodec，用完后释放
+ * @desired
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpCodecBenchmark {
+
+    // 响应头个数
+    @Param({"8", "32"})
+    int headerCount;
+
+    // 分块数据的总长度
+    @Param({"1024", "65536"})
+    int bodySize;
+
+    private SegmentPool segmentPool;
+
+    private ByteArrayInputStream statusLine;
+
+    private ByteArrayInputStream headers;
+
+    private ByteArrayInputStream chunked;
+
+    private Request request;
+
+    private final NullOutputStream out = new NullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        segmentPool = new SegmentPool();
+
+        statusLine = new ByteArrayInputStream("HTTP/1.1 200 OK\r\n".getBytes("US-ASCII"));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < headerCount; i++) {
+            sb.append("X-Header-").append(i).append(": value-").append(i).append("\r\n");
+        }
+        sb.append("\r\n");
+        headers = new ByteArrayInputStream(sb.toString().getBytes("US-ASCII"));
+
+        // 每块1K
+        sb.setLength(0);
+        for (int remaining = bodySize; remaining > 0; ) {
+            int size = Math.min(remaining, 1024);
+            sb.append(Integer.toHexString(size)).append("\r\n");
+            for (int i = 0; i < size; i++) {
+                sb.append('a');
+            }
+            sb.append("\r\n");
+            remaining -= size;
+        }
+        sb.append("0\r\n\r\n");
+        chunked = new ByteArrayInputStream(sb.toString().getBytes("US-ASCII"));
+
+        Request.Builder builder = new Request.Builder()
+                .url("http://restapi.amap.com/v3/weather/weatherInfo?city=%E9%95%BF%E6%B2%99")
+                .post(new RequestBody().add("city", "长沙").add("key", "13cb58f5884f9749"));
+        for (int i = 0; i < headerCount; i++) {
+            builder.addHeader("X-Header-" + i, "value-" + i);
+        }
+        request = builder.build();
+    }
+
+    @Benchmark
+    public String readLine() throws IOException {
+        statusLine.reset();
+        HttpCodec codec = new HttpCodec(segmentPool);
+        try {
+            return codec.readLine(statusLine);
+        } finally {
+            codec.release();
+        }
+    }
+
+    @Benchmark
+    public Headers readHeaders() throws IOException {
+        headers.reset();
+        HttpCodec codec = new HttpCodec(segmentPool);
+        try {
+            return codec.readHeaders(headers);
+        } finally {
+            codec.release();
+        }
+    }
+
+    @Benchmark
+    public String readChunked() throws IOException {
+        chunked.reset();
+        HttpCodec codec = new HttpCodec(segmentPool);
+        try {
+            return codec.readChunked(chunked);
+        } finally {
+            codec.release();
+        }
+    }
+
+    @Benchmark
+    public long writeRequest() throws IOException {
+        HttpCodec codec = new HttpCodec(segmentPool);
+        try {
+            codec.writeRequest(out, request);
+            return out.count;
+        } finally {
+            codec.release();
+        }
+    }
+
+    /**
+     * 只记录写入的字节数，不保存数据
+     */
+    static final class NullOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.mei.http.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc 本机回环地址上的http服务器，benchmark中代替真实的服务器
+ * 每个连接一个线程，支持长连接，所有请求都返回同样长度的响应体
+ * @desired
+ */
+final class LoopbackServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+
+    private final byte[] response;
+
+    private final CopyOnWriteArrayList<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    LoopbackServer(int bodySize) throws IOException {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+        byte[] head = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Length: " + bodySize + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Connection: Keep-Alive\r\n"
+                + "\r\n").getBytes("US-ASCII");
+        response = new byte[head.length + body.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(body, 0, response, head.length, body.length);
+
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "LoopbackServer accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + port() + path;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "LoopbackServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                // 读取请求行和请求头，只关心请求体的长度
+                long contentLength = 0;
+                String line = readLine(in);
+                if (line == null) {
+                    return;
+                }
+                while (!(line = readLine(in)).isEmpty()) {
+                    if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+                        contentLength = Long.parseLong(line.substring(15).trim());
+                    }
+                }
+                // 跳过请求体
+                while (contentLength > 0) {
+                    long skipped = in.skip(contentLength);
+                    if (skipped <= 0) {
+                        return;
+                    }
+                    contentLength -= skipped;
+                }
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // 客户端关闭了连接
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            sockets.remove(socket);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = sb.length();
+                return length > 0 && sb.charAt(length - 1) == '\r'
+                        ? sb.substring(0, length - 1)
+                        : sb.toString();
+            }
+            sb.append((char) b);
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        throw new IOException("unexpected end of stream");
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
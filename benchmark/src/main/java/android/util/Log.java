@@ -0,0 +1,33 @@
+package android.util;
+
+/**
+ * @author mxb
+ * @date 2020/5/4
+ * @desc android.util.Log 在JVM上的替代实现，benchmark中不输出日志，避免影响测量结果
+ * @desired
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int e(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+}
@@ -26,14 +26,19 @@ import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import javax.annotation.Nullable;
 import okhttp3.internal.Util;
 import okhttp3.internal.cache.CacheRequest;
 import okhttp3.internal.cache.CacheStrategy;
 import okhttp3.internal.cache.DiskLruCache;
 import okhttp3.internal.cache.InternalCache;
+import okhttp3.internal.cache.MappedFileCache;
+import okhttp3.internal.cache.SegmentedLruCache;
+import okhttp3.internal.cache.ShardedDiskLruCache;
 import okhttp3.internal.http.HttpHeaders;
 import okhttp3.internal.http.HttpMethod;
 import okhttp3.internal.http.StatusLine;
@@ -70,6 +75,14 @@ import okio.Source;
  * the updated response if it has changed, or a short 'not modified' response if the client's copy
  * is still valid. Such responses increment both the network count and hit count.
  *
+ * <h3>Memory Tier</h3>
+ *
+ * <p>A cache created with a {@code memoryMaxSize} keeps the parsed metadata and body of small
+ * responses in memory as well as on the filesystem, so hot responses are served without reading
+ * files. Responses are written through to both tiers and copied into memory when they are read from
+ * the filesystem. {@linkplain #memoryHitCount() Memory Hit Count} and {@linkplain #diskHitCount()
+ * Disk Hit Count} tell which tier stored responses were found in.
+ *
  * <p>The best way to improve the cache hit rate is by configuring the web server to return
  * cacheable responses. Although this client honors all <a
  * href="http://tools.ietf.org/html/rfc7234">HTTP/1.1 (RFC 7234)</a> cache headers, it doesn't cache
@@ -140,6 +153,17 @@ public final class Cache implements Closeable, Flushable {
   private static final int ENTRY_BODY = 1;
   private static final int ENTRY_COUNT = 2;
 
+  /** Responses with larger bodies are only cached on the filesystem. */
+  static final long MEMORY_MAX_BODY_SIZE = 64 * 1024;
+
+  /** The most response bodies that are mapped at once. The least recently read are unmapped. */
+  static final int MAX_MAPPED_BODIES = 256;
+
+  /** Names the default key strategy that a directory's responses are stored with. */
+  static final String KEY_STRATEGY_FILE = "keys";
+  private static final String KEY_STRATEGY_MD5 = "md5";
+  private static final String KEY_STRATEGY_MURMUR3 = "murmur3";
+
   final InternalCache internalCache = new InternalCache() {
     @Override public @Nullable Response get(Request request) throws IOException {
       return Cache.this.get(request);
@@ -157,6 +181,10 @@ public final class Cache implements Closeable, Flushable {
       Cache.this.update(cached, network);
     }
 
+    @Override public void revalidate(Request request, Call.Factory callFactory) {
+      Cache.this.revalidate(request, callFactory);
+    }
+
     @Override public void trackConditionalCacheHit() {
       Cache.this.trackConditionalCacheHit();
     }
@@ -166,7 +194,16 @@ public final class Cache implements Closeable, Flushable {
     }
   };
 
-  final DiskLruCache cache;
+  final ShardedDiskLruCache cache;
+  final @Nullable SegmentedLruCache<MemoryEntry> memoryCache;
+  final FileSystem fileSystem;
+
+  /** The configured key strategy, or the directory's default once it has been read. */
+  private volatile @Nullable CacheKeyStrategy keyStrategy;
+
+  // Written while synchronized on 'this'. Bodies are streamed while mappedBodies is null.
+  private volatile @Nullable MappedFileCache mappedBodies;
+  private volatile long mappedBodyThreshold = -1L;
 
   /* read and write statistics, all guarded by 'this' */
   int writeSuccessCount;
@@ -174,19 +211,92 @@ public final class Cache implements Closeable, Flushable {
   private int networkCount;
   private int hitCount;
   private int requestCount;
+  private int memoryHitCount;
+  private int diskHitCount;
+
+  /** Keys of the responses being revalidated in the background. Guarded by 'this'. */
+  private final Set<String> revalidatingKeys = new LinkedHashSet<>();
 
   /**
    * Create a cache of at most {@code maxSize} bytes in {@code directory}.
    */
   public Cache(File directory, long maxSize) {
-    this(directory, maxSize, FileSystem.SYSTEM);
+    this(directory, maxSize, 1);
+  }
+
+  /**
+   * Create a cache of at most {@code maxSize} bytes in {@code directory}, split into {@code
+   * shardCount} shards by URL. Each shard has its own journal and lock and evicts independently
+   * from an equal share of {@code maxSize}, so concurrent calls contend only when their URLs map to
+   * the same shard.
+   *
+   * <p>The shard count of a directory may change between runs, including from or to a single
+   * shard. When this cache is initialized it moves stored responses to the shards their URLs now
+   * map to. That costs a one-time move of the affected entries on open.
+   */
+  public Cache(File directory, long maxSize, int shardCount) {
+    this(directory, maxSize, shardCount, FileSystem.SYSTEM);
   }
 
   Cache(File directory, long maxSize, FileSystem fileSystem) {
-    this.cache = DiskLruCache.create(fileSystem, directory, VERSION, ENTRY_COUNT, maxSize);
+    this(directory, maxSize, 1, fileSystem);
   }
 
+  /**
+   * Create a cache of at most {@code maxSize} bytes in {@code directory}, split into {@code
+   * shardCount} shards, that also keeps up to {@code memoryMaxSize} bytes of small responses in
+   * memory. Use a {@code memoryMaxSize} of 0 to cache only on the filesystem.
+   */
+  public Cache(File directory, long maxSize, int shardCount, long memoryMaxSize) {
+    this(directory, maxSize, shardCount, memoryMaxSize, null, FileSystem.SYSTEM);
+  }
+
+  /**
+   * Create a cache like {@link #Cache(File, long, int, long)} that stores responses under the keys
+   * of {@code keyStrategy}.
+   *
+   * <p>Other constructors choose the strategy from the directory: {@link CacheKeyStrategy#MD5} for
+   * a directory written before key strategies were configurable, and {@link
+   * CacheKeyStrategy#MURMUR3} otherwise.
+   */
+  public Cache(File directory, long maxSize, int shardCount, long memoryMaxSize,
+      CacheKeyStrategy keyStrategy) {
+    this(directory, maxSize, shardCount, memoryMaxSize, keyStrategy, FileSystem.SYSTEM);
+    if (keyStrategy == null) throw new NullPointerException("keyStrategy == null");
+  }
+
+  Cache(File directory, long maxSize, int shardCount, FileSystem fileSystem) {
+    this(directory, maxSize, shardCount, 0L, null, fileSystem);
+  }
+
+  Cache(File directory, long maxSize, int shardCount, long memoryMaxSize,
+      @Nullable CacheKeyStrategy keyStrategy, FileSystem fileSystem) {
+    if (memoryMaxSize < 0) throw new IllegalArgumentException("memoryMaxSize < 0");
+    this.cache = ShardedDiskLruCache.create(
+        fileSystem, directory, VERSION, ENTRY_COUNT, maxSize, shardCount);
+    this.memoryCache = memoryMaxSize > 0 ? new SegmentedLruCache<>(memoryMaxSize) : null;
+    if (memoryCache != null) {
+      // 文件被删除或淘汰时，内存中的副本也要移除
+      cache.setRemovalListener(memoryCache::remove);
+    }
+    this.fileSystem = fileSystem;
+    this.keyStrategy = keyStrategy;
+  }
+
+  /**
+   * Returns the hex MD5 of {@code url}. This is only the key of {@link CacheKeyStrategy#MD5}; caches
+   * with other key strategies, including the default for new directories, store {@code url} under
+   * a different key.
+   *
+   * @deprecated keys depend on the cache's {@link CacheKeyStrategy}. Use {@link
+   *     CacheKeyStrategy#key} with the strategy the cache was created with.
+   */
+  @Deprecated
   public static String key(HttpUrl url) {
+    return md5Key(url);
+  }
+
+  static String md5Key(HttpUrl url) {
     return ByteString.encodeUtf8(url.toString()).md5().hex();
   }
 
@@ -196,7 +306,37 @@ public final class Cache implements Closeable, Flushable {
    * @return 如果有缓存，则把缓存封装成Reponse对象，否则返回空
    */
   @Nullable Response get(Request request) {
-    String key = key(request.url());//以url的md5值作为缓存的key
+    String key;
+    try {
+      key = keyStrategy().key(request);//以url的hash值作为缓存的key
+    } catch (IOException e) {
+      // Give up because the cache cannot be read.
+      return null;
+    }
+
+    // 先从内存中获取，命中则不需要读文件
+    long memoryWriteCount = 0L;
+    if (memoryCache != null) {
+      MemoryEntry memoryEntry = memoryCache.get(key);
+      if (memoryEntry != null) {
+        // 记录文件缓存的访问，同时确认内存中的副本还是文件中的最新版本
+        boolean current;
+        try {
+          current = cache.recordRead(key, memoryEntry.sequenceNumber);
+        } catch (IOException e) {
+          return null;
+        }
+        if (current) {
+          trackMemoryHit();
+          Response response = memoryEntry.entry.response(
+              key, memoryEntry.sequenceNumber, memoryEntry.body);
+          return memoryEntry.entry.matches(request, response) ? response : null;
+        }
+        memoryCache.remove(key); // The entry on the filesystem has changed since.
+      }
+      memoryWriteCount = memoryCache.writeCount();
+    }
+
     DiskLruCache.Snapshot snapshot;
     Entry entry;
     try {
@@ -215,8 +355,35 @@ public final class Cache implements Closeable, Flushable {
       Util.closeQuietly(snapshot);
       return null;
     }
+    trackDiskHit();
+
+    // 响应体较小时读到内存中，下次直接从内存获取
+    if (memoryCache != null && snapshot.getLength(ENTRY_BODY) <= MEMORY_MAX_BODY_SIZE) {
+      ByteString body;
+      try (BufferedSource source = Okio.buffer(snapshot.getSource(ENTRY_BODY))) {
+        body = source.readByteString();
+      } catch (IOException e) {
+        return null;
+      } finally {
+        Util.closeQuietly(snapshot);
+      }
+      MemoryEntry memoryEntry = new MemoryEntry(entry, snapshot.sequenceNumber(), body);
+      memoryCache.putIfUnchanged(key, memoryEntry, memoryEntry.size(), memoryWriteCount);
+      Response response = entry.response(key, snapshot.sequenceNumber(), body);
+      return entry.matches(request, response) ? response : null;
+    }
+
+    // 响应体较大时通过内存映射读取，避免复制到堆和系统调用
+    Source mappedBody = null;
+    MappedFileCache mappedBodies = this.mappedBodies;
+    long bodyLength = snapshot.getLength(ENTRY_BODY);
+    if (mappedBodies != null && bodyLength >= mappedBodyThreshold) {
+      mappedBody = mappedBodies.source(
+          key, snapshot.sequenceNumber(), snapshot.getFile(ENTRY_BODY), bodyLength);
+    }
+
     // 从缓存中取出数据，并封装成Response对象
-    Response response = entry.response(snapshot);
+    Response response = entry.response(snapshot, mappedBody);
 
     if (!entry.matches(request, response)) {
       Util.closeQuietly(response.body());
@@ -258,14 +425,16 @@ public final class Cache implements Closeable, Flushable {
 
     // 把Response对象缓存到本地
     Entry entry = new Entry(response);
+    String key;
     DiskLruCache.Editor editor = null;
     try {
-      editor = cache.edit(key(response.request().url()));
+      key = keyStrategy().key(response.request());
+      editor = cache.edit(key);
       if (editor == null) {
         return null;
       }
       entry.writeTo(editor);
-      return new CacheRequestImpl(editor);
+      return new CacheRequestImpl(editor, key, entry);
     } catch (IOException e) {
       abortQuietly(editor);
       return null;
@@ -273,21 +442,131 @@ public final class Cache implements Closeable, Flushable {
   }
 
   void remove(Request request) throws IOException {
-    cache.remove(key(request.url()));
+    CacheKeyStrategy keyStrategy = keyStrategy();
+    String key = keyStrategy.key(request);
+    try {
+      // 按请求头区分的缓存，删除这个url的所有版本
+      String variantKeyPrefix = keyStrategy.variantKeyPrefix(request.url());
+      if (variantKeyPrefix != null) {
+        cache.removeKeysWithPrefix(variantKeyPrefix);
+      } else {
+        cache.remove(key);
+      }
+    } finally {
+      if (memoryCache != null) memoryCache.remove(key);
+    }
   }
 
   void update(Response cached, Response network) {
     Entry entry = new Entry(network);
-    DiskLruCache.Snapshot snapshot = ((CacheResponseBody) cached.body()).snapshot;
+    String key;
+    MemoryResponseBody memoryResponseBody = null;
     DiskLruCache.Editor editor = null;
     try {
-      editor = snapshot.edit(); // Returns null if snapshot is not current.
-      if (editor != null) {
-        entry.writeTo(editor);
-        editor.commit();
+      // Both return null if the cached version is no longer current.
+      if (cached.body() instanceof CacheResponseBody) {
+        DiskLruCache.Snapshot snapshot = ((CacheResponseBody) cached.body()).snapshot;
+        key = snapshot.key();
+        editor = snapshot.edit();
+      } else {
+        // The cached response was served from memory, a copy of the version it names.
+        memoryResponseBody = (MemoryResponseBody) cached.body();
+        key = memoryResponseBody.key;
+        editor = cache.edit(key, memoryResponseBody.sequenceNumber);
       }
+      if (editor == null) return;
+      entry.writeTo(editor);
+      editor.commit();
     } catch (IOException e) {
       abortQuietly(editor);
+      return;
+    }
+
+    if (memoryCache != null) {
+      long sequenceNumber = editor.committedSequenceNumber();
+      if (memoryResponseBody != null && sequenceNumber != -1L) {
+        // Only the metadata changed: the body in memory is still the body on the filesystem.
+        MemoryEntry memoryEntry = new MemoryEntry(entry, sequenceNumber, memoryResponseBody.body);
+        memoryCache.put(key, memoryEntry, memoryEntry.size());
+      } else {
+        memoryCache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * 在后台重新验证过期的缓存，同一个缓存同时只会有一个请求
+   */
+  void revalidate(Request request, Call.Factory callFactory) {
+    final String key;
+    try {
+      key = keyStrategy().key(request);
+    } catch (IOException e) {
+      return; // The cache cannot be read.
+    }
+    synchronized (this) {
+      if (!revalidatingKeys.add(key)) return; // Already in flight.
+    }
+
+    callFactory.newCall(request).enqueue(new Callback() {
+      @Override public void onFailure(Call call, IOException e) {
+        revalidated(key);
+      }
+
+      @Override public void onResponse(Call call, Response response) {
+        // Consume the body so the refreshed response is written to the cache.
+        try (ResponseBody body = response.body()) {
+          body.source().readAll(Okio.blackhole());
+        } catch (IOException ignored) {
+          // The cached response stays stale.
+        } finally {
+          revalidated(key);
+        }
+      }
+    });
+  }
+
+  synchronized void revalidated(String key) {
+    revalidatingKeys.remove(key);
+  }
+
+  /**
+   * Returns the strategy for this cache's keys. Unless one was configured, this reads the
+   * directory's default, initializing the cache. Directories without one get MD5 if a cache has
+   * written them already and MurmurHash3 if they're new.
+   */
+  CacheKeyStrategy keyStrategy() throws IOException {
+    CacheKeyStrategy result = keyStrategy;
+    if (result != null) return result;
+
+    synchronized (this) {
+      result = keyStrategy;
+      if (result != null) return result;
+
+      File file = new File(cache.getDirectory(), KEY_STRATEGY_FILE);
+      String name = null;
+      if (fileSystem.exists(file)) {
+        try (BufferedSource source = Okio.buffer(fileSystem.source(file))) {
+          name = source.readUtf8LineStrict();
+        } catch (IOException ignored) {
+          // Choose again below.
+        }
+      }
+      if (!KEY_STRATEGY_MD5.equals(name) && !KEY_STRATEGY_MURMUR3.equals(name)) {
+        name = cache.hadJournal() ? KEY_STRATEGY_MD5 : KEY_STRATEGY_MURMUR3;
+      }
+
+      // Record the choice after initializing, which may delete a corrupt directory's contents.
+      cache.initialize();
+      if (!fileSystem.exists(file)) {
+        try (BufferedSink sink = Okio.buffer(fileSystem.sink(file))) {
+          sink.writeUtf8(name).writeByte('\n');
+        }
+      }
+
+      result = KEY_STRATEGY_MD5.equals(name) ? CacheKeyStrategy.MD5 : CacheKeyStrategy.MURMUR3;
+      keyStrategy = result;
+      return result;
     }
   }
 
@@ -316,12 +595,47 @@ public final class Cache implements Closeable, Flushable {
     cache.initialize();
   }
 
+  /**
+   * Serve cached bodies of at least {@code byteCount} bytes from memory-mapped files. Repeated
+   * reads of a mapped body share one mapping and copy straight from the page cache, without read
+   * system calls. Smaller bodies are streamed from their files. Use a negative {@code byteCount}
+   * to stream all bodies, which is the default.
+   *
+   * <p>A body stays mapped until its response is replaced, removed or evicted, or until it is one
+   * of the least recently read of the {@value #MAX_MAPPED_BODIES} mapped bodies; it is then
+   * unmapped once no response is reading it. Don't map bodies on Windows, which can't replace or
+   * delete a file that is mapped.
+   */
+  public synchronized void setMappedBodyThreshold(long byteCount) {
+    if (fileSystem != FileSystem.SYSTEM) {
+      throw new IllegalStateException("mapped bodies require the system filesystem");
+    }
+    if (byteCount < 0L) {
+      if (mappedBodies != null) {
+        cache.setMappedFiles(null);
+        mappedBodies.evictAll();
+        mappedBodies = null;
+      }
+    } else if (mappedBodies == null) {
+      mappedBodies = new MappedFileCache(MAX_MAPPED_BODIES);
+      cache.setMappedFiles(mappedBodies);
+    }
+    mappedBodyThreshold = Math.max(byteCount, -1L);
+  }
+
+  /** Returns the smallest body size served from a mapped file, or -1 if bodies are not mapped. */
+  public long mappedBodyThreshold() {
+    return mappedBodyThreshold;
+  }
+
   /**
    * Closes the cache and deletes all of its stored values. This will delete all files in the cache
    * directory including files that weren't created by the cache.
    */
   public void delete() throws IOException {
     cache.delete();
+    if (memoryCache != null) memoryCache.evictAll();
+    releaseMappedBodies();
   }
 
   /**
@@ -330,6 +644,7 @@ public final class Cache implements Closeable, Flushable {
    */
   public void evictAll() throws IOException {
     cache.evictAll();
+    if (memoryCache != null) memoryCache.evictAll();
   }
 
   /**
@@ -346,6 +661,7 @@ public final class Cache implements Closeable, Flushable {
       final Iterator<DiskLruCache.Snapshot> delegate = cache.snapshots();
 
       @Nullable String nextUrl;
+      @Nullable String removeKey;
       boolean canRemove;
 
       @Override public boolean hasNext() {
@@ -356,6 +672,7 @@ public final class Cache implements Closeable, Flushable {
           try (DiskLruCache.Snapshot snapshot = delegate.next()) {
             BufferedSource metadata = Okio.buffer(snapshot.getSource(ENTRY_METADATA));
             nextUrl = metadata.readUtf8LineStrict();
+            removeKey = snapshot.key();
             return true;
           } catch (IOException ignored) {
             // We couldn't read the metadata for this snapshot; possibly because the host filesystem
@@ -377,6 +694,7 @@ public final class Cache implements Closeable, Flushable {
       @Override public void remove() {
         if (!canRemove) throw new IllegalStateException("remove() before next()");
         delegate.remove();
+        if (memoryCache != null) memoryCache.remove(removeKey);
       }
     };
   }
@@ -404,6 +722,12 @@ public final class Cache implements Closeable, Flushable {
 
   @Override public void close() throws IOException {
     cache.close();
+    releaseMappedBodies();
+  }
+
+  private void releaseMappedBodies() {
+    MappedFileCache mappedBodies = this.mappedBodies;
+    if (mappedBodies != null) mappedBodies.evictAll();
   }
 
   public File directory() {
@@ -430,6 +754,14 @@ public final class Cache implements Closeable, Flushable {
     hitCount++;
   }
 
+  synchronized void trackMemoryHit() {
+    memoryHitCount++;
+  }
+
+  synchronized void trackDiskHit() {
+    diskHitCount++;
+  }
+
   public synchronized int networkCount() {
     return networkCount;
   }
@@ -442,16 +774,48 @@ public final class Cache implements Closeable, Flushable {
     return requestCount;
   }
 
+  /**
+   * Returns the number of stored responses found in memory. Like {@link #diskHitCount}, this counts
+   * lookups, including those whose response turned out to be stale or not to match the request.
+   */
+  public synchronized int memoryHitCount() {
+    return memoryHitCount;
+  }
+
+  /** Returns the number of stored responses that were not in memory and read from the filesystem. */
+  public synchronized int diskHitCount() {
+    return diskHitCount;
+  }
+
+  /** Returns the number of bytes of responses held in memory. */
+  public long memorySize() {
+    return memoryCache != null ? memoryCache.size() : 0L;
+  }
+
   private final class CacheRequestImpl implements CacheRequest {
     private final DiskLruCache.Editor editor;
     private Sink cacheOut;
     private Sink body;
+    /** A copy of the body for the memory tier, or null if it is disabled or the body is large. */
+    @Nullable Buffer memoryBody;
     boolean done;
 
-    CacheRequestImpl(final DiskLruCache.Editor editor) {
+    CacheRequestImpl(final DiskLruCache.Editor editor, final String key, final Entry entry) {
       this.editor = editor;
       this.cacheOut = editor.newSink(ENTRY_BODY);
+      this.memoryBody = memoryCache != null ? new Buffer() : null;
       this.body = new ForwardingSink(cacheOut) {
+        @Override public void write(Buffer source, long byteCount) throws IOException {
+          if (memoryBody != null) {
+            if (memoryBody.size() + byteCount <= MEMORY_MAX_BODY_SIZE) {
+              source.copyTo(memoryBody, 0, byteCount);
+            } else {
+              memoryBody = null;
+            }
+          }
+          super.write(source, byteCount);
+        }
+
         @Override public void close() throws IOException {
           synchronized (Cache.this) {
             if (done) {
@@ -462,6 +826,18 @@ public final class Cache implements Closeable, Flushable {
           }
           super.close();
           editor.commit();
+
+          // Write through to memory after the filesystem, replacing what's there.
+          if (memoryCache != null) {
+            long sequenceNumber = editor.committedSequenceNumber();
+            if (memoryBody != null && sequenceNumber != -1L) {
+              MemoryEntry memoryEntry =
+                  new MemoryEntry(entry, sequenceNumber, memoryBody.readByteString());
+              memoryCache.put(key, memoryEntry, memoryEntry.size());
+            } else {
+              memoryCache.remove(key);
+            }
+          }
         }
       };
     }
@@ -710,9 +1086,21 @@ public final class Cache implements Closeable, Flushable {
           && HttpHeaders.varyMatches(response, varyHeaders, request);
     }
 
-    public Response response(DiskLruCache.Snapshot snapshot) {
+    /** Returns a response that reads its body from {@code mappedBody}, or from the snapshot. */
+    public Response response(DiskLruCache.Snapshot snapshot, @Nullable Source mappedBody) {
+      String contentType = responseHeaders.get("Content-Type");
+      String contentLength = responseHeaders.get("Content-Length");
+      return response(new CacheResponseBody(snapshot, mappedBody, contentType, contentLength));
+    }
+
+    public Response response(String key, long sequenceNumber, ByteString body) {
       String contentType = responseHeaders.get("Content-Type");
       String contentLength = responseHeaders.get("Content-Length");
+      return response(
+          new MemoryResponseBody(key, sequenceNumber, body, contentType, contentLength));
+    }
+
+    private Response response(ResponseBody body) {
       Request cacheRequest = new Request.Builder()
           .url(url)
           .method(requestMethod, null)
@@ -724,7 +1112,7 @@ public final class Cache implements Closeable, Flushable {
           .code(code)
           .message(message)
           .headers(responseHeaders)
-          .body(new CacheResponseBody(snapshot, contentType, contentLength))
+          .body(body)
           .handshake(handshake)
           .sentRequestAtMillis(sentRequestMillis)
           .receivedResponseAtMillis(receivedResponseMillis)
@@ -732,6 +1120,28 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  /**
+   * A response held in memory: its parsed metadata and its body, copied from the version of the
+   * entry on the filesystem with {@code sequenceNumber}.
+   */
+  static final class MemoryEntry {
+    final Entry entry;
+    final long sequenceNumber;
+    final ByteString body;
+
+    MemoryEntry(Entry entry, long sequenceNumber, ByteString body) {
+      this.entry = entry;
+      this.sequenceNumber = sequenceNumber;
+      this.body = body;
+    }
+
+    /** Returns the approximate number of bytes this retains. */
+    long size() {
+      return entry.url.length() + entry.varyHeaders.byteCount()
+          + entry.responseHeaders.byteCount() + body.size();
+    }
+  }
+
   static int readInt(BufferedSource source) throws IOException {
     try {
       long result = source.readDecimalLong();
@@ -745,19 +1155,54 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  private static class MemoryResponseBody extends ResponseBody {
+    final String key;
+    final long sequenceNumber;
+    final ByteString body;
+    private final BufferedSource bodySource;
+    private final @Nullable String contentType;
+    private final @Nullable String contentLength;
+
+    MemoryResponseBody(String key, long sequenceNumber, ByteString body, String contentType,
+        String contentLength) {
+      this.key = key;
+      this.sequenceNumber = sequenceNumber;
+      this.body = body;
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+      this.bodySource = new Buffer().write(body);
+    }
+
+    @Override public MediaType contentType() {
+      return contentType != null ? MediaType.parse(contentType) : null;
+    }
+
+    @Override public long contentLength() {
+      try {
+        return contentLength != null ? Long.parseLong(contentLength) : -1;
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    @Override public BufferedSource source() {
+      return bodySource;
+    }
+  }
+
   private static class CacheResponseBody extends ResponseBody {
     final DiskLruCache.Snapshot snapshot;
     private final BufferedSource bodySource;
     private final @Nullable String contentType;
     private final @Nullable String contentLength;
 
-    CacheResponseBody(final DiskLruCache.Snapshot snapshot,
+    CacheResponseBody(final DiskLruCache.Snapshot snapshot, @Nullable Source mappedBody,
         String contentType, String contentLength) {
       this.snapshot = snapshot;
       this.contentType = contentType;
       this.contentLength = contentLength;
 
-      Source source = snapshot.getSource(ENTRY_BODY);
+      Source source = mappedBody != null ? mappedBody : snapshot.getSource(ENTRY_BODY);
       bodySource = Okio.buffer(new ForwardingSource(source) {
         @Override public void close() throws IOException {
           snapshot.close();
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import javax.annotation.Nullable;
+
+/**
+ * Computes the key that {@link Cache} stores the response to a request under. Requests with equal
+ * keys share a cache entry; the entry's {@code Vary} headers decide whether its response can be
+ * used.
+ *
+ * <p>Keys must be 1 to 120 characters of {@code [a-z0-9_-]}. A cache directory must always be used
+ * with the same strategy: responses stored under other keys are never found.
+ *
+ * <p>Implementations of this interface must be safe for concurrent use.
+ */
+public interface CacheKeyStrategy {
+  /**
+   * The hex MD5 of the URL. Caches used this strategy before key strategies were configurable, so
+   * it is the default for directories they wrote.
+   */
+  CacheKeyStrategy MD5 = request -> Cache.md5Key(request.url());
+
+  /**
+   * The hex 128-bit MurmurHash3 of the URL. This is much cheaper to compute than MD5 but it isn't
+   * collision resistant. It is the default for new cache directories.
+   */
+  CacheKeyStrategy MURMUR3 = new Murmur3CacheKeyStrategy();
+
+  String key(Request request);
+
+  /**
+   * Returns the prefix of the keys of every variant of {@code url}, or null if all requests for a
+   * URL share one key. When a request invalidates its URL, the cache removes every entry whose key
+   * has this prefix. Keys of other URLs must not start with it.
+   */
+  default @Nullable String variantKeyPrefix(HttpUrl url) {
+    return null;
+  }
+
+  /**
+   * Returns a strategy that hashes the URL and the values of the request headers named {@code
+   * headerNames} with MurmurHash3. Use this for responses that {@code Vary} on those headers, so
+   * that each variant gets an entry instead of replacing the others. Keys are the URL's hash and
+   * the variant's hash, so a request that invalidates the URL removes all of its variants.
+   */
+  static CacheKeyStrategy murmur3(String... headerNames) {
+    return new Murmur3CacheKeyStrategy(headerNames.clone());
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.internal.Util;
+
+/**
+ * A {@link Dns} that caches the addresses returned by another, by default {@link Dns#SYSTEM}.
+ *
+ * <ul>
+ *   <li>Addresses are reused for the {@linkplain Builder#ttl TTL}. A lookup in the last quarter of
+ *       the TTL returns the cached addresses immediately and refreshes them in the background, so
+ *       hosts in steady use never wait for the resolver.
+ *   <li>Failures are remembered for the {@linkplain Builder#negativeTtl negative TTL}, so calls to
+ *       an unknown host fail fast instead of each waiting for the resolver.
+ *   <li>If the resolver fails, expired addresses are returned for up to the {@linkplain
+ *       Builder#maxStale max stale} duration after their TTL.
+ *   <li>Concurrent lookups of one host share a single resolution, and different hosts resolve in
+ *       parallel.
+ * </ul>
+ *
+ * <p>When this is a client's DNS, its dispatcher {@linkplain #prefetch prefetches} the hosts of
+ * calls that are queued, so the addresses are ready when the calls run. A cached lookup returns
+ * immediately, which is visible in the time between {@link EventListener#dnsStart} and {@link
+ * EventListener#dnsEnd}.
+ */
+public final class CachingDns implements Dns {
+  /** The most hosts resolving in the background at once. */
+  static final int MAX_BACKGROUND_LOOKUPS = 4;
+
+  private final Dns delegate;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final long maxStaleNanos;
+  private final int maxEntries;
+
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      MAX_BACKGROUND_LOOKUPS, MAX_BACKGROUND_LOOKUPS, 60L, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), Util.threadFactory("OkHttp CachingDns", true));
+
+  // Guarded by 'this'. Entries are in access order, least recently used first.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+  private final Map<String, FutureTask<Entry>> resolutions = new LinkedHashMap<>();
+  private int hitCount;
+  private int missCount;
+  private int staleCount;
+
+  CachingDns(Builder builder) {
+    this.delegate = builder.delegate;
+    this.ttlNanos = builder.ttlNanos;
+    this.negativeTtlNanos = builder.negativeTtlNanos;
+    this.maxStaleNanos = builder.maxStaleNanos;
+    this.maxEntries = builder.maxEntries;
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+    if (hostname == null) throw new UnknownHostException("hostname == null");
+
+    Entry entry;
+    FutureTask<Entry> resolution = null;
+    synchronized (this) {
+      long now = System.nanoTime();
+      entry = entries.get(hostname);
+      if (entry != null && entry.isFresh(now)) {
+        hitCount++;
+        if (entry.addresses != null && now - entry.resolvedAtNanos >= ttlNanos - ttlNanos / 4) {
+          resolveInBackground(hostname);
+        }
+      } else {
+        missCount++;
+        resolution = resolutions.get(hostname);
+        if (resolution == null) resolution = newResolution(hostname);
+      }
+    }
+
+    if (resolution != null) {
+      // Resolve on this thread unless another thread already started. This takes over a prefetch
+      // that is still queued behind other background work; its own run is then a no-op.
+      resolution.run();
+      entry = await(hostname, resolution);
+    }
+
+    if (entry.addresses == null) {
+      UnknownHostException exception = new UnknownHostException(entry.failure.getMessage());
+      exception.initCause(entry.failure);
+      throw exception;
+    }
+    return entry.addresses;
+  }
+
+  /**
+   * Resolves {@code hostname} in the background unless its addresses are cached or already being
+   * resolved. Call this ahead of a lookup that is expected soon.
+   */
+  public synchronized void prefetch(String hostname) {
+    Entry entry = entries.get(hostname);
+    if (entry != null && entry.isFresh(System.nanoTime())) return;
+    resolveInBackground(hostname);
+  }
+
+  /** Discards all cached addresses and failures. */
+  public synchronized void evictAll() {
+    entries.clear();
+  }
+
+  /** Returns the number of lookups answered from the cache, including remembered failures. */
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of lookups that waited for the resolver. */
+  public synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of times expired addresses were returned because the resolver failed. */
+  public synchronized int staleCount() {
+    return staleCount;
+  }
+
+  private void resolveInBackground(String hostname) {
+    assert Thread.holdsLock(this);
+    if (resolutions.containsKey(hostname)) return;
+    executor.execute(newResolution(hostname));
+  }
+
+  private FutureTask<Entry> newResolution(String hostname) {
+    assert Thread.holdsLock(this);
+    FutureTask<Entry> resolution = new FutureTask<>(() -> resolve(hostname));
+    resolutions.put(hostname, resolution);
+    return resolution;
+  }
+
+  /** Asks the delegate for the addresses of {@code hostname} and caches the outcome. */
+  private Entry resolve(String hostname) {
+    List<InetAddress> addresses = null;
+    UnknownHostException failure = null;
+    try {
+      addresses = delegate.lookup(hostname);
+      if (addresses.isEmpty()) {
+        failure = new UnknownHostException(delegate + " returned no addresses for " + hostname);
+      }
+    } catch (UnknownHostException e) {
+      failure = e;
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        resolutions.remove(hostname);
+      }
+      throw e;
+    }
+
+    synchronized (this) {
+      // Publish the outcome and end the resolution together, so no lookup starts another.
+      resolutions.remove(hostname);
+      long now = System.nanoTime();
+      if (failure != null) {
+        Entry stale = entries.get(hostname);
+        if (stale != null && stale.addresses != null
+            && now - stale.resolvedAtNanos < ttlNanos + maxStaleNanos) {
+          if (!stale.isFresh(now)) staleCount++;
+          return stale; // Keep the stale addresses until the resolver recovers or they expire.
+        }
+      }
+
+      Entry entry = failure != null
+          ? new Entry(null, failure, now, negativeTtlNanos)
+          : new Entry(Collections.unmodifiableList(addresses), null, now, ttlNanos);
+      entries.put(hostname, entry);
+      if (entries.size() > maxEntries) {
+        entries.remove(entries.keySet().iterator().next());
+      }
+      return entry;
+    }
+  }
+
+  private Entry await(String hostname, FutureTask<Entry> resolution)
+      throws UnknownHostException {
+    try {
+      return resolution.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      UnknownHostException exception = new UnknownHostException("interrupted: " + hostname);
+      exception.initCause(e);
+      throw exception;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new AssertionError(cause);
+    }
+  }
+
+  /** The outcome of a resolution: either some addresses or a failure. */
+  static final class Entry {
+    final @Nullable List<InetAddress> addresses;
+    final @Nullable UnknownHostException failure;
+    final long resolvedAtNanos;
+    final long ttlNanos;
+
+    Entry(@Nullable List<InetAddress> addresses, @Nullable UnknownHostException failure,
+        long resolvedAtNanos, long ttlNanos) {
+      this.addresses = addresses;
+      this.failure = failure;
+      this.resolvedAtNanos = resolvedAtNanos;
+      this.ttlNanos = ttlNanos;
+    }
+
+    boolean isFresh(long nowNanos) {
+      return nowNanos - resolvedAtNanos < ttlNanos;
+    }
+  }
+
+  public static final class Builder {
+    Dns delegate = Dns.SYSTEM;
+    long ttlNanos = TimeUnit.MINUTES.toNanos(1);
+    long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+    long maxStaleNanos = TimeUnit.MINUTES.toNanos(10);
+    int maxEntries = 256;
+
+    /** Sets the DNS that resolves uncached hosts. The default is {@link Dns#SYSTEM}. */
+    public Builder delegate(Dns delegate) {
+      if (delegate == null) throw new NullPointerException("delegate == null");
+      this.delegate = delegate;
+      return this;
+    }
+
+    /** Sets how long resolved addresses are reused. The default is 1 minute. */
+    public Builder ttl(long duration, TimeUnit unit) {
+      this.ttlNanos = checkDuration("ttl", duration, unit);
+      return this;
+    }
+
+    /** Sets how long a failed lookup is remembered. The default is 10 seconds; 0 disables it. */
+    public Builder negativeTtl(long duration, TimeUnit unit) {
+      this.negativeTtlNanos = checkDuration("negativeTtl", duration, unit);
+      return this;
+    }
+
+    /**
+     * Sets how long after their TTL addresses may be returned when the resolver fails. The default
+     * is 10 minutes; 0 disables it.
+     */
+    public Builder maxStale(long duration, TimeUnit unit) {
+      this.maxStaleNanos = checkDuration("maxStale", duration, unit);
+      return this;
+    }
+
+    /** Sets the most hosts to cache. The least recently used are dropped. The default is 256. */
+    public Builder maxEntries(int maxEntries) {
+      if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    private static long checkDuration(String name, long duration, TimeUnit unit) {
+      if (duration < 0) throw new IllegalArgumentException(name + " < 0");
+      if (unit == null) throw new NullPointerException("unit == null");
+      return unit.toNanos(duration);
+    }
+
+    public CachingDns build() {
+      return new CachingDns(this);
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package okhttp3;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import okhttp3.internal.connection.RealConnectionPool;
 
@@ -51,8 +52,57 @@ public final class ConnectionPool {
     return delegate.connectionCount();
   }
 
+  /**
+   * Returns the number of idle HTTP/2 connections that were pinged before they were reused. See
+   * {@link OkHttpClient.Builder#pingBeforeReuse}.
+   */
+  public int reusePingCount() {
+    return delegate.reusePingCount();
+  }
+
+  /** Returns the number of pinged connections that didn't answer in time and were discarded. */
+  public int deadConnectionCount() {
+    return delegate.deadConnectionCount();
+  }
+
   /** 关闭并移除所以空闲连接 Close and remove all idle connections in the pool. */
   public void evictAll() {
     delegate.evictAll();
   }
+
+  /**
+   * 预热连接：在后台提前建立连接，请求时不需要再等待TCP和TLS握手
+   * Opens connections to {@code addresses} in the background so that the first calls to them
+   * don't wait for DNS, TCP and TLS handshakes. Each address gets {@code connectionsPerAddress}
+   * connections, or a single connection if it negotiates HTTP/2. Connections are opened with
+   * {@code client}'s timeouts and become ordinary idle connections subject to this pool's limits.
+   *
+   * <p>Use {@link OkHttpClient#address} to get the address for a URL.
+   *
+   * @param client a client that uses this connection pool.
+   */
+  public void prewarm(OkHttpClient client, List<Address> addresses, int connectionsPerAddress) {
+    checkClient(client);
+    delegate.prewarm(client, addresses, connectionsPerAddress);
+  }
+
+  /**
+   * 为地址维持最小空闲连接数，空闲连接在过期之前会被后台线程替换，0表示取消
+   * Keeps at least {@code minimumIdle} idle connections to {@code address}, or one HTTP/2
+   * connection. A background thread opens connections as they are taken by calls, and replaces
+   * idle connections before they reach this pool's keep alive duration. These connections don't
+   * count towards this pool's maximum idle connections. Pass 0 to stop maintaining the address.
+   *
+   * @param client a client that uses this connection pool.
+   */
+  public void setMinimumIdleConnections(OkHttpClient client, Address address, int minimumIdle) {
+    checkClient(client);
+    delegate.setMinimumIdleConnections(client, address, minimumIdle);
+  }
+
+  private void checkClient(OkHttpClient client) {
+    if (client.connectionPool() != this) {
+      throw new IllegalArgumentException("client doesn't use this connection pool");
+    }
+  }
 }
@@ -17,10 +17,17 @@ package okhttp3;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -39,19 +46,49 @@ import okhttp3.internal.Util;
 public final class Dispatcher {
   private int maxRequests = 64;
   private int maxRequestsPerHost = 5;
+  private boolean adaptivePerHostLimits;
   private @Nullable Runnable idleCallback;
 
   /** Executes calls. Created lazily. */
   private @Nullable ExecutorService executorService;
 
-  /** Ready async calls in the order they'll be run. */
-  private final Deque<AsyncCall> readyAsyncCalls = new ArrayDeque<>();
+  /** Ready and running async calls grouped by host. Hosts without calls are removed. */
+  private final Map<String, HostQueue> hostQueues = new HashMap<>();
+
+  /** Ready web socket calls. These don't count against their host's limit. */
+  private final HostQueue webSocketQueue = new HostQueue(null);
+
+  /**
+   * 有等待中的请求、并且还没达到单个host最大请求数的host，按最早入队的请求排序
+   * Host queues that have ready calls and room to run another, ordered by their oldest ready call.
+   * Promotion only inspects these, so hosts at capacity don't slow down finishing calls.
+   */
+  private final PriorityQueue<HostQueue> promotableHosts =
+      new PriorityQueue<>(11, HostQueue.BY_OLDEST_READY_CALL);
+
+  /**
+   * Adaptive limits of recently used hosts. These outlive their host queues so that a host's limit
+   * isn't forgotten between bursts of calls.
+   */
+  private final Map<String, AdaptiveLimit> adaptiveLimits =
+      new LinkedHashMap<String, AdaptiveLimit>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, AdaptiveLimit> eldest) {
+          return size() > AdaptiveLimit.MAX_HOSTS;
+        }
+      };
+
+  /** The sequence number of the next enqueued call. */
+  private long nextSequence;
 
   /** Running asynchronous calls. Includes canceled calls that haven't finished yet. */
-  private final Deque<AsyncCall> runningAsyncCalls = new ArrayDeque<>();
+  private final Set<AsyncCall> runningAsyncCalls = new LinkedHashSet<>();
 
   /** Running synchronous calls. Includes canceled calls that haven't finished yet. */
-  private final Deque<RealCall> runningSyncCalls = new ArrayDeque<>();
+  private final Set<RealCall> runningSyncCalls = new LinkedHashSet<>();
+
+  /** Written while holding this dispatcher's lock so the gauges can be read without it. */
+  private volatile int queuedCallsCount;
+  private volatile int runningCallsCount;
 
   public Dispatcher(ExecutorService executorService) {
     this.executorService = executorService;
@@ -106,6 +143,12 @@ public final class Dispatcher {
     }
     synchronized (this) {
       this.maxRequestsPerHost = maxRequestsPerHost;
+      for (AdaptiveLimit adaptiveLimit : adaptiveLimits.values()) {
+        adaptiveLimit.clamp(ceiling(adaptiveLimit));
+      }
+      for (HostQueue hostQueue : hostQueues.values()) {
+        updatePromotable(hostQueue);
+      }
     }
     promoteAndExecute();
   }
@@ -114,6 +157,64 @@ public final class Dispatcher {
     return maxRequestsPerHost;
   }
 
+  /**
+   * 根据每个host的响应时间和错误自动调整它的最大并发请求数
+   * Set whether each host's concurrency limit adapts to what the host can sustain. When enabled,
+   * every host starts at {@linkplain #getMaxRequestsPerHost the maximum requests per host}:
+   *
+   * <ul>
+   *   <li>While a host has calls waiting and its calls complete without slowing down, its limit
+   *       increases additively.
+   *   <li>When a call fails, gets a 429 or 503 response, or takes more than twice the host's
+   *       baseline latency, the limit decreases multiplicatively, at most once per round trip.
+   * </ul>
+   *
+   * <p>HTTP/1 hosts need a connection per concurrent call so their limit never exceeds the maximum
+   * requests per host. Hosts whose responses are multiplexed over HTTP/2 may grow up to
+   * {@linkplain #getMaxRequests the maximum requests}.
+   */
+  public void setAdaptivePerHostLimits(boolean adaptivePerHostLimits) {
+    synchronized (this) {
+      this.adaptivePerHostLimits = adaptivePerHostLimits;
+      if (!adaptivePerHostLimits) adaptiveLimits.clear();
+      for (HostQueue hostQueue : hostQueues.values()) {
+        hostQueue.adaptiveLimit = adaptiveLimit(hostQueue.host);
+        updatePromotable(hostQueue);
+      }
+    }
+    promoteAndExecute();
+  }
+
+  public synchronized boolean isAdaptivePerHostLimits() {
+    return adaptivePerHostLimits;
+  }
+
+  /**
+   * Returns the number of calls to {@code host} that may currently run concurrently. This is the
+   * maximum requests per host unless {@linkplain #setAdaptivePerHostLimits adaptive limits} are
+   * enabled.
+   */
+  public synchronized int getRequestsPerHostLimit(String host) {
+    AdaptiveLimit adaptiveLimit = adaptivePerHostLimits ? adaptiveLimits.get(host) : null;
+    return adaptiveLimit != null ? adaptiveLimit.limit() : maxRequestsPerHost;
+  }
+
+  private @Nullable AdaptiveLimit adaptiveLimit(String host) {
+    assert (Thread.holdsLock(this));
+    if (!adaptivePerHostLimits) return null;
+    AdaptiveLimit result = adaptiveLimits.get(host);
+    if (result == null) {
+      result = new AdaptiveLimit(maxRequestsPerHost);
+      adaptiveLimits.put(host, result);
+    }
+    return result;
+  }
+
+  /** HTTP/1 hosts are capped at the maximum requests per host, multiplexed hosts are not. */
+  private int ceiling(AdaptiveLimit adaptiveLimit) {
+    return adaptiveLimit.multiplexed ? maxRequests : maxRequestsPerHost;
+  }
+
   /**
    * Set a callback to be invoked each time the dispatcher becomes idle (when the number of running
    * calls returns to zero).
@@ -132,26 +233,57 @@ public final class Dispatcher {
 
   void enqueue(AsyncCall call) {
     synchronized (this) {
-      readyAsyncCalls.add(call);
-
-      // Mutate the AsyncCall so that it shares the AtomicInteger of an existing running call to
-      // the same host.
-      if (!call.get().forWebSocket) {
-        AsyncCall existingCall = findExistingCallWithHost(call.host());
-        if (existingCall != null) call.reuseCallsPerHostFrom(existingCall);
+      HostQueue hostQueue;
+      if (call.get().forWebSocket) {
+        hostQueue = webSocketQueue;
+      } else {
+        // 相同host的请求共享同一个队列和计数
+        hostQueue = hostQueues.get(call.host());
+        if (hostQueue == null) {
+          hostQueue = new HostQueue(call.host());
+          hostQueue.adaptiveLimit = adaptiveLimit(call.host());
+          hostQueues.put(call.host(), hostQueue);
+        }
       }
+      call.hostQueue = hostQueue;
+      call.sequence = nextSequence++;
+      hostQueue.readyCalls.add(call);
+      queuedCallsCount++;
+      updatePromotable(hostQueue);
     }
     promoteAndExecute();
+    prefetchIfQueued(call);
   }
 
-  @Nullable private AsyncCall findExistingCallWithHost(String host) {
-    for (AsyncCall existingCall : runningAsyncCalls) {
-      if (existingCall.host().equals(host)) return existingCall;
+  /** Resolves the host of {@code call} while it waits, if its client's DNS can do that. */
+  private void prefetchIfQueued(AsyncCall call) {
+    OkHttpClient client = call.get().client;
+    if (!(client.dns() instanceof CachingDns) || client.proxy() != null) return;
+    synchronized (this) {
+      if (!call.hostQueue.readyCalls.contains(call)) return; // Already running.
     }
-    for (AsyncCall existingCall : readyAsyncCalls) {
-      if (existingCall.host().equals(host)) return existingCall;
+    ((CachingDns) client.dns()).prefetch(call.host());
+  }
+
+  /**
+   * Adds {@code hostQueue} to {@link #promotableHosts} if it has ready calls and room to run one,
+   * or removes it if not.
+   */
+  private void updatePromotable(HostQueue hostQueue) {
+    assert (Thread.holdsLock(this));
+    boolean promotable = !hostQueue.readyCalls.isEmpty()
+        && (hostQueue.host == null || hostQueue.runningCount < limit(hostQueue));
+    if (promotable == hostQueue.promotable) return;
+    if (promotable) {
+      promotableHosts.add(hostQueue);
+    } else {
+      promotableHosts.remove(hostQueue);
     }
-    return null;
+    hostQueue.promotable = promotable;
+  }
+
+  private int limit(HostQueue hostQueue) {
+    return hostQueue.adaptiveLimit != null ? hostQueue.adaptiveLimit.limit() : maxRequestsPerHost;
   }
 
   /**
@@ -159,7 +291,7 @@ public final class Dispatcher {
    * Call#execute() synchronously} and {@linkplain Call#enqueue asynchronously}.
    */
   public synchronized void cancelAll() {
-    for (AsyncCall call : readyAsyncCalls) {
+    for (AsyncCall call : readyAsyncCalls()) {
       call.get().cancel();
     }
 
@@ -173,7 +305,7 @@ public final class Dispatcher {
   }
 
   /**
-   * Promotes eligible calls from {@link #readyAsyncCalls} to {@link #runningAsyncCalls} and runs
+   * Promotes eligible calls from {@link #promotableHosts} to {@link #runningAsyncCalls} and runs
    * them on the executor service. Must not be called with synchronization because executing calls
    * can call into user code.
    *
@@ -185,18 +317,21 @@ public final class Dispatcher {
     List<AsyncCall> executableCalls = new ArrayList<>();
     boolean isRunning;
     synchronized (this) {
-      for (Iterator<AsyncCall> i = readyAsyncCalls.iterator(); i.hasNext(); ) {
-        AsyncCall asyncCall = i.next();
-
-        if (runningAsyncCalls.size() >= maxRequests) break; // Max capacity.
-        if (asyncCall.callsPerHost().get() >= maxRequestsPerHost) continue; // Host max capacity.
-
-        i.remove();
-        asyncCall.callsPerHost().incrementAndGet();
+      while (runningAsyncCalls.size() < maxRequests && !promotableHosts.isEmpty()) {
+        // 最早入队的请求所在的host
+        HostQueue hostQueue = promotableHosts.poll();
+        hostQueue.promotable = false;
+
+        AsyncCall asyncCall = hostQueue.readyCalls.poll();
+        hostQueue.runningCount++;
+        queuedCallsCount--;
         executableCalls.add(asyncCall);
         runningAsyncCalls.add(asyncCall);
+
+        updatePromotable(hostQueue);
       }
-      isRunning = runningCallsCount() > 0;
+      runningCallsCount = runningAsyncCalls.size() + runningSyncCalls.size();
+      isRunning = runningCallsCount > 0;
     }
 
     for (int i = 0, size = executableCalls.size(); i < size; i++) {
@@ -210,26 +345,49 @@ public final class Dispatcher {
   /** Used by {@code Call#execute} to signal it is in-flight. */
   synchronized void executed(RealCall call) {
     runningSyncCalls.add(call);
+    runningCallsCount = runningAsyncCalls.size() + runningSyncCalls.size();
   }
 
   /** Used by {@code AsyncCall#run} to signal completion. */
   void finished(AsyncCall call) {
-    call.callsPerHost().decrementAndGet();
-    finished(runningAsyncCalls, call);
+    Runnable idleCallback;
+    synchronized (this) {
+      if (!runningAsyncCalls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
+      HostQueue hostQueue = call.hostQueue;
+      AdaptiveLimit adaptiveLimit = hostQueue.adaptiveLimit;
+      if (adaptiveLimit != null && (call.responseNanos != -1L || call.failed)) {
+        // 有请求在排队或者并发数已满，说明这个host的并发数限制了吞吐量
+        boolean saturated = !hostQueue.readyCalls.isEmpty()
+            || hostQueue.runningCount >= adaptiveLimit.limit();
+        adaptiveLimit.record(call, saturated);
+        adaptiveLimit.clamp(ceiling(adaptiveLimit));
+      }
+
+      hostQueue.runningCount--;
+      if (hostQueue.host != null && hostQueue.runningCount == 0
+          && hostQueue.readyCalls.isEmpty()) {
+        hostQueues.remove(hostQueue.host);
+      } else {
+        updatePromotable(hostQueue);
+      }
+      runningCallsCount = runningAsyncCalls.size() + runningSyncCalls.size();
+      idleCallback = this.idleCallback;
+    }
+    promoteAndNotifyIdle(idleCallback);
   }
 
   /** Used by {@code Call#execute} to signal completion. */
   void finished(RealCall call) {
-    finished(runningSyncCalls, call);
-  }
-
-  private <T> void finished(Deque<T> calls, T call) {
     Runnable idleCallback;
     synchronized (this) {
-      if (!calls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
+      if (!runningSyncCalls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
+      runningCallsCount = runningAsyncCalls.size() + runningSyncCalls.size();
       idleCallback = this.idleCallback;
     }
+    promoteAndNotifyIdle(idleCallback);
+  }
 
+  private void promoteAndNotifyIdle(@Nullable Runnable idleCallback) {
     boolean isRunning = promoteAndExecute();
 
     if (!isRunning && idleCallback != null) {
@@ -237,10 +395,21 @@ public final class Dispatcher {
     }
   }
 
+  /** Returns the calls awaiting execution in the order they were enqueued. */
+  private List<AsyncCall> readyAsyncCalls() {
+    assert (Thread.holdsLock(this));
+    List<AsyncCall> result = new ArrayList<>(webSocketQueue.readyCalls);
+    for (HostQueue hostQueue : hostQueues.values()) {
+      result.addAll(hostQueue.readyCalls);
+    }
+    Collections.sort(result, (a, b) -> Long.compare(a.sequence, b.sequence));
+    return result;
+  }
+
   /** Returns a snapshot of the calls currently awaiting execution. */
   public synchronized List<Call> queuedCalls() {
     List<Call> result = new ArrayList<>();
-    for (AsyncCall asyncCall : readyAsyncCalls) {
+    for (AsyncCall asyncCall : readyAsyncCalls()) {
       result.add(asyncCall.get());
     }
     return Collections.unmodifiableList(result);
@@ -256,11 +425,106 @@ public final class Dispatcher {
     return Collections.unmodifiableList(result);
   }
 
-  public synchronized int queuedCallsCount() {
-    return readyAsyncCalls.size();
+  /** Returns the number of calls awaiting execution. Doesn't block on this dispatcher's lock. */
+  public int queuedCallsCount() {
+    return queuedCallsCount;
+  }
+
+  /** Returns the number of calls being executed. Doesn't block on this dispatcher's lock. */
+  public int runningCallsCount() {
+    return runningCallsCount;
+  }
+
+  /** Ready and running async calls to a single host. Guarded by the dispatcher. */
+  static final class HostQueue {
+    static final Comparator<HostQueue> BY_OLDEST_READY_CALL =
+        (a, b) -> Long.compare(a.readyCalls.peek().sequence, b.readyCalls.peek().sequence);
+
+    /** The host name, or null for web socket calls which aren't limited per host. */
+    final @Nullable String host;
+
+    /** This host's limit, or null if the dispatcher doesn't adapt limits per host. */
+    @Nullable AdaptiveLimit adaptiveLimit;
+    final Deque<AsyncCall> readyCalls = new ArrayDeque<>();
+    int runningCount;
+
+    /** True if this is in {@link Dispatcher#promotableHosts}. */
+    boolean promotable;
+
+    HostQueue(@Nullable String host) {
+      this.host = host;
+    }
   }
 
-  public synchronized int runningCallsCount() {
-    return runningAsyncCalls.size() + runningSyncCalls.size();
+  /**
+   * 加性增、乘性减（AIMD）的并发数限制
+   * A host's concurrency limit that increases additively while calls succeed and decreases
+   * multiplicatively when they fail or slow down. Guarded by the dispatcher.
+   */
+  static final class AdaptiveLimit {
+    /** The number of hosts whose limits are remembered. */
+    static final int MAX_HOSTS = 256;
+
+    /** A call slower than this multiple of the baseline latency signals overload. */
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /** The fraction of the limit kept when backing off. */
+    static final double BACKOFF_RATIO = 0.75;
+
+    double limit;
+
+    /**
+     * The host's unloaded latency: the fastest call seen. It only drifts up when calls are slow even
+     * at a limit of 1, which means the network path changed rather than the host being overloaded.
+     */
+    long baselineNanos;
+
+    /** When the limit was last decreased. Calls that started before then don't decrease it again. */
+    long backoffNanos;
+
+    /** Until the first back off, the limit grows by one per call instead of one per round trip. */
+    boolean slowStart = true;
+
+    /** True if the host's last response was multiplexed over HTTP/2. */
+    boolean multiplexed;
+
+    AdaptiveLimit(int initialLimit) {
+      this.limit = initialLimit;
+      this.backoffNanos = System.nanoTime();
+    }
+
+    int limit() {
+      return Math.max(1, (int) limit);
+    }
+
+    void record(AsyncCall call, boolean saturated) {
+      boolean overloaded = call.failed;
+      if (call.responseNanos != -1L) {
+        multiplexed = call.multiplexed;
+        long latencyNanos = call.responseNanos - call.startNanos;
+        boolean slow = baselineNanos != 0L && latencyNanos > baselineNanos * LATENCY_TOLERANCE;
+        if (baselineNanos == 0L || latencyNanos < baselineNanos) {
+          baselineNanos = Math.max(1L, latencyNanos);
+        } else if (slow && limit() == 1) {
+          // 已经降到最低并发数仍然慢，说明不是并发导致的，基准延迟缓慢上升以适应网络路径的变化
+          baselineNanos += (latencyNanos - baselineNanos) / 64;
+        }
+        overloaded |= slow;
+      }
+
+      if (overloaded) {
+        if (call.startNanos - backoffNanos > 0L) {
+          limit = Math.max(1.0, limit * BACKOFF_RATIO);
+          backoffNanos = System.nanoTime();
+          slowStart = false;
+        }
+      } else if (saturated) {
+        limit += slowStart ? 1.0 : 1.0 / limit;
+      }
+    }
+
+    void clamp(int ceiling) {
+      limit = Math.min(limit, ceiling);
+    }
   }
 }
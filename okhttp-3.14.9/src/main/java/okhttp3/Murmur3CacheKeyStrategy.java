@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Keys responses by the x64 128-bit variant of MurmurHash3. The hash is computed over the UTF-16
+ * code units of the URL, so it needs neither an encoded copy of the URL nor a message digest.
+ */
+final class Murmur3CacheKeyStrategy implements CacheKeyStrategy {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  private static final char[] HEX_DIGITS =
+      {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+  private final String[] headerNames;
+
+  Murmur3CacheKeyStrategy(String... headerNames) {
+    for (String headerName : headerNames) {
+      if (headerName == null) throw new NullPointerException("headerName == null");
+    }
+    this.headerNames = headerNames;
+  }
+
+  @Override public String key(Request request) {
+    String url = request.url().toString();
+    if (headerNames.length == 0) return hash(url);
+
+    // Lines can't contain '\n', so distinct header values always hash distinct input.
+    StringBuilder input = new StringBuilder(url);
+    for (String headerName : headerNames) {
+      List<String> values = request.headers(headerName);
+      for (int i = 0, size = values.size(); i < size; i++) {
+        input.append('\n').append(headerName).append(": ").append(values.get(i));
+      }
+    }
+    // The URL's own hash comes first so that all of its variants share a prefix.
+    return hash(url) + '-' + hash(input).substring(0, 16);
+  }
+
+  @Override public @Nullable String variantKeyPrefix(HttpUrl url) {
+    return headerNames.length != 0 ? hash(url.toString()) + '-' : null;
+  }
+
+  static String hash(CharSequence s) {
+    int length = s.length();
+    long h1 = 0L;
+    long h2 = 0L;
+
+    // Each 16-byte block is 8 chars.
+    int blockEnd = length & ~7;
+    for (int i = 0; i < blockEnd; i += 8) {
+      long k1 = chars(s, i, 4);
+      long k2 = chars(s, i + 4, 4);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = length - blockEnd;
+    if (tail > 4) h2 ^= mixK2(chars(s, blockEnd + 4, tail - 4));
+    if (tail > 0) h1 ^= mixK1(chars(s, blockEnd, Math.min(tail, 4)));
+
+    h1 ^= length * 2L;
+    h2 ^= length * 2L;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+
+    char[] result = new char[32];
+    hex(result, 0, h1);
+    hex(result, 16, h2);
+    return new String(result);
+  }
+
+  /** Returns {@code count} chars starting at {@code pos} as little-endian 16-bit lanes. */
+  private static long chars(CharSequence s, int pos, int count) {
+    long result = 0L;
+    for (int i = 0; i < count; i++) {
+      result |= (long) s.charAt(pos + i) << (16 * i);
+    }
+    return result;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    return k2;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static void hex(char[] out, int pos, long value) {
+    for (int i = 15; i >= 0; i--) {
+      out[pos + i] = HEX_DIGITS[(int) (value & 0xf)];
+      value >>>= 4;
+    }
+  }
+}
@@ -180,6 +180,7 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
   final CookieJar cookieJar;
   final @Nullable Cache cache;
   final @Nullable InternalCache internalCache;
+  final @Nullable ResponseRelay responseRelay;
   final SocketFactory socketFactory;
   final SSLSocketFactory sslSocketFactory;
   final CertificateChainCleaner certificateChainCleaner;
@@ -192,11 +193,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
   final boolean followSslRedirects;
   final boolean followRedirects;
   final boolean retryOnConnectionFailure;
+  final boolean fastFallback;
+  final boolean certificateCoalescing;
   final int callTimeout;
   final int connectTimeout;
   final int readTimeout;
   final int writeTimeout;
   final int pingInterval;
+  final int pingBeforeReuse;
+  final @Nullable PerMessageDeflate webSocketCompression;
 
   public OkHttpClient() {
     this(new Builder());
@@ -214,6 +219,7 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     this.cookieJar = builder.cookieJar;
     this.cache = builder.cache;
     this.internalCache = builder.internalCache;
+    this.responseRelay = builder.responseRelay;
     this.socketFactory = builder.socketFactory;
 
     boolean isTLS = false;
@@ -244,11 +250,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     this.followSslRedirects = builder.followSslRedirects;
     this.followRedirects = builder.followRedirects;
     this.retryOnConnectionFailure = builder.retryOnConnectionFailure;
+    this.fastFallback = builder.fastFallback;
+    this.certificateCoalescing = builder.certificateCoalescing;
     this.callTimeout = builder.callTimeout;
     this.connectTimeout = builder.connectTimeout;
     this.readTimeout = builder.readTimeout;
     this.writeTimeout = builder.writeTimeout;
     this.pingInterval = builder.pingInterval;
+    this.pingBeforeReuse = builder.pingBeforeReuse;
+    this.webSocketCompression = builder.webSocketCompression;
 
     if (interceptors.contains(null)) {
       throw new IllegalStateException("Null interceptor: " + interceptors);
@@ -296,6 +306,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     return pingInterval;
   }
 
+  /** Returns how long an HTTP/2 connection may be idle before it is pinged on reuse, or 0. */
+  public int pingBeforeReuseMillis() {
+    return pingBeforeReuse;
+  }
+
+  public @Nullable PerMessageDeflate webSocketCompression() {
+    return webSocketCompression;
+  }
+
   public @Nullable Proxy proxy() {
     return proxy;
   }
@@ -316,6 +335,10 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     return cache != null ? cache.internalCache : internalCache;
   }
 
+  public @Nullable ResponseRelay responseRelay() {
+    return responseRelay;
+  }
+
   public Dns dns() {
     return dns;
   }
@@ -360,6 +383,14 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     return retryOnConnectionFailure;
   }
 
+  public boolean fastFallback() {
+    return fastFallback;
+  }
+
+  public boolean certificateCoalescing() {
+    return certificateCoalescing;
+  }
+
   public Dispatcher dispatcher() {
     return dispatcher;
   }
@@ -394,6 +425,25 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     return eventListenerFactory;
   }
 
+  /**
+   * 根据url创建Address对象，包含有：域名，端口号，dns解析，socket工厂，ssl工厂，域名校验，证书锁定等
+   * Returns the address that calls to {@code url} made by this client connect to. Use this to
+   * {@linkplain ConnectionPool#prewarm pre-warm} connections in this client's pool.
+   */
+  public Address address(HttpUrl url) {
+    SSLSocketFactory sslSocketFactory = null;
+    HostnameVerifier hostnameVerifier = null;
+    CertificatePinner certificatePinner = null;
+    if (url.isHttps()) {// 如果是Https
+      sslSocketFactory = this.sslSocketFactory;// ssl工厂
+      hostnameVerifier = this.hostnameVerifier;// 域名认证
+      certificatePinner = this.certificatePinner;// 证书锁定
+    }
+    return new Address(url.host(), url.port(), dns, socketFactory, sslSocketFactory,
+        hostnameVerifier, certificatePinner, proxyAuthenticator, proxy, protocols,
+        connectionSpecs, proxySelector);
+  }
+
   /**
    * Prepares the {@code request} to be executed at some point in the future.
    */
@@ -405,7 +455,8 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
    * Uses {@code request} to connect a new web socket.
    */
   @Override public WebSocket newWebSocket(Request request, WebSocketListener listener) {
-    RealWebSocket webSocket = new RealWebSocket(request, listener, new Random(), pingInterval);
+    RealWebSocket webSocket = new RealWebSocket(
+        request, listener, new Random(), pingInterval, webSocketCompression);
     webSocket.connect(this);
     return webSocket;
   }
@@ -426,6 +477,7 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     CookieJar cookieJar;
     @Nullable Cache cache;
     @Nullable InternalCache internalCache;
+    @Nullable ResponseRelay responseRelay;
     SocketFactory socketFactory;
     @Nullable SSLSocketFactory sslSocketFactory;
     @Nullable CertificateChainCleaner certificateChainCleaner;
@@ -438,11 +490,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     boolean followSslRedirects;
     boolean followRedirects;
     boolean retryOnConnectionFailure;
+    boolean fastFallback;
+    boolean certificateCoalescing;
     int callTimeout;
     int connectTimeout;
     int readTimeout;
     int writeTimeout;
     int pingInterval;
+    int pingBeforeReuse;
+    @Nullable PerMessageDeflate webSocketCompression;
 
     public Builder() {
       dispatcher = new Dispatcher();
@@ -464,6 +520,7 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       followSslRedirects = true;
       followRedirects = true;
       retryOnConnectionFailure = true;
+      fastFallback = true;
       callTimeout = 0;
       connectTimeout = 10_000;
       readTimeout = 10_000;
@@ -483,6 +540,7 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       this.cookieJar = okHttpClient.cookieJar;
       this.internalCache = okHttpClient.internalCache;
       this.cache = okHttpClient.cache;
+      this.responseRelay = okHttpClient.responseRelay;
       this.socketFactory = okHttpClient.socketFactory;
       this.sslSocketFactory = okHttpClient.sslSocketFactory;
       this.certificateChainCleaner = okHttpClient.certificateChainCleaner;
@@ -495,11 +553,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       this.followSslRedirects = okHttpClient.followSslRedirects;
       this.followRedirects = okHttpClient.followRedirects;
       this.retryOnConnectionFailure = okHttpClient.retryOnConnectionFailure;
+      this.fastFallback = okHttpClient.fastFallback;
+      this.certificateCoalescing = okHttpClient.certificateCoalescing;
       this.callTimeout = okHttpClient.callTimeout;
       this.connectTimeout = okHttpClient.connectTimeout;
       this.readTimeout = okHttpClient.readTimeout;
       this.writeTimeout = okHttpClient.writeTimeout;
       this.pingInterval = okHttpClient.pingInterval;
+      this.pingBeforeReuse = okHttpClient.pingBeforeReuse;
+      this.webSocketCompression = okHttpClient.webSocketCompression;
     }
 
     /**
@@ -657,6 +719,43 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       return this;
     }
 
+    /**
+     * Sets how long a pooled HTTP/2 connection may go without reading a frame before it must answer
+     * a ping to be reused. Long-idle connections are often silently dropped by NATs and firewalls;
+     * without this check the first call on such a connection hangs until its read timeout.
+     *
+     * <p>The ping must be answered within 1 second. Connections that don't answer are discarded and
+     * the call continues with another connection. The pool's {@link
+     * ConnectionPool#reusePingCount} and {@link ConnectionPool#deadConnectionCount} count the pings
+     * and the dead connections they caught.
+     *
+     * <p>The default value of 0 reuses connections without pinging them.
+     */
+    public Builder pingBeforeReuse(long idleDuration, TimeUnit unit) {
+      pingBeforeReuse = checkDuration("idleDuration", idleDuration, unit);
+      return this;
+    }
+
+    /**
+     * Sets how long a pooled HTTP/2 connection may go without reading a frame before it must answer
+     * a ping to be reused. See {@link #pingBeforeReuse(long, TimeUnit)}.
+     */
+    @IgnoreJRERequirement
+    public Builder pingBeforeReuse(Duration duration) {
+      pingBeforeReuse = checkDuration("idleDuration", duration.toMillis(), TimeUnit.MILLISECONDS);
+      return this;
+    }
+
+    /**
+     * Sets the compression offered to servers by this client's web sockets. If the server accepts,
+     * large messages are compressed in both directions. If null, which is the default, web socket
+     * messages are not compressed.
+     */
+    public Builder webSocketCompression(@Nullable PerMessageDeflate webSocketCompression) {
+      this.webSocketCompression = webSocketCompression;
+      return this;
+    }
+
     /**
      * Sets the HTTP proxy that will be used by connections created by this client. This takes
      * precedence over {@link #proxySelector}, which is only honored when this proxy is null (which
@@ -700,6 +799,15 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       return this;
     }
 
+    /**
+     * Sets the relay that shares the downloads of responses among concurrent calls for them. If
+     * unset, each call makes its own request.
+     */
+    public Builder responseRelay(@Nullable ResponseRelay responseRelay) {
+      this.responseRelay = responseRelay;
+      return this;
+    }
+
     /**
      * Sets the DNS service used to lookup IP addresses for hostnames.
      *
@@ -881,6 +989,38 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       return this;
     }
 
+    /**
+     * Configure this client to race connections to a host's IP addresses, as described by RFC 8305
+     * (Happy Eyeballs). A new attempt starts every 250 ms, or as soon as the previous one fails,
+     * alternating between IPv6 and IPv4; the first to connect is used and the others are canceled.
+     * An address family whose last attempt failed is tried second. If unset, connections are
+     * raced.
+     *
+     * <p>Set this to false to try IP addresses one at a time, each until it fails or its connect
+     * timeout elapses. Only then are connect events reported strictly in sequence.
+     */
+    public Builder fastFallback(boolean fastFallback) {
+      this.fastFallback = fastFallback;
+      return this;
+    }
+
+    /**
+     * Configure this client to send requests on any pooled HTTP/2 connection whose server
+     * certificate covers the request's host, without first resolving the host or requiring it to
+     * share an IP address with the connection. This lets many hostnames served by one CDN
+     * certificate share a single connection. Certificate pinning still applies to each host. If
+     * unset, a host is only coalesced onto a connection to one of its resolved IP addresses.
+     *
+     * <p>Regardless of this setting, a host that has been coalesced onto a connection is remembered
+     * and later calls to it reuse a connection to the same IP address without a DNS lookup. If a
+     * server answers a coalesced request with {@code 421 Misdirected Request}, the request is
+     * retried on a connection of its own and the connection is no longer coalesced onto.
+     */
+    public Builder certificateCoalescing(boolean certificateCoalescing) {
+      this.certificateCoalescing = certificateCoalescing;
+      return this;
+    }
+
     /**
      * Sets the dispatcher used to set policy and execute asynchronous requests. Must not be null.
      */
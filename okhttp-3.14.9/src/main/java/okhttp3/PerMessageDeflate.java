@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+/**
+ * Configures <a href="https://tools.ietf.org/html/rfc7692">RFC 7692</a> {@code permessage-deflate}
+ * compression for a client's {@linkplain OkHttpClient#newWebSocket web sockets}. The client offers
+ * compression in each handshake. If the server accepts, messages of at least {@linkplain
+ * Builder#minimumSize the minimum size} are compressed and compressed messages from the server are
+ * decompressed. Smaller messages are sent as they are. If the server declines, messages are sent
+ * uncompressed.
+ *
+ * <p>Each web socket reuses one compressor and one decompressor for all of its messages. By default
+ * both peers keep their compression state between messages, which compresses repetitive formats
+ * like JSON much better but costs up to 32 KiB of window per direction. Use {@link
+ * Builder#clientNoContextTakeover} and {@link Builder#serverNoContextTakeover} to reset the state
+ * after each message instead, and {@link Builder#serverMaxWindowBits} to limit the server's window.
+ *
+ * <p>A compressed message that inflates to more than {@linkplain Builder#maximumMessageSize the
+ * maximum message size} closes the web socket with code 1009 and fails it.
+ *
+ * <pre>   {@code
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .webSocketCompression(new PerMessageDeflate.Builder()
+ *           .minimumSize(256)
+ *           .build())
+ *       .build();
+ * }</pre>
+ */
+public final class PerMessageDeflate {
+  final boolean clientNoContextTakeover;
+  final boolean serverNoContextTakeover;
+  final int serverMaxWindowBits;
+  final long minimumSize;
+  final long maximumMessageSize;
+
+  PerMessageDeflate(Builder builder) {
+    this.clientNoContextTakeover = builder.clientNoContextTakeover;
+    this.serverNoContextTakeover = builder.serverNoContextTakeover;
+    this.serverMaxWindowBits = builder.serverMaxWindowBits;
+    this.minimumSize = builder.minimumSize;
+    this.maximumMessageSize = builder.maximumMessageSize;
+  }
+
+  public boolean clientNoContextTakeover() {
+    return clientNoContextTakeover;
+  }
+
+  public boolean serverNoContextTakeover() {
+    return serverNoContextTakeover;
+  }
+
+  public int serverMaxWindowBits() {
+    return serverMaxWindowBits;
+  }
+
+  public long minimumSize() {
+    return minimumSize;
+  }
+
+  public long maximumMessageSize() {
+    return maximumMessageSize;
+  }
+
+  /** Returns the {@code Sec-WebSocket-Extensions} header value that offers this compression. */
+  public String offer() {
+    StringBuilder result = new StringBuilder("permessage-deflate");
+    if (clientNoContextTakeover) result.append("; client_no_context_takeover");
+    if (serverNoContextTakeover) result.append("; server_no_context_takeover");
+    if (serverMaxWindowBits != 15) {
+      result.append("; server_max_window_bits=").append(serverMaxWindowBits);
+    }
+    return result.toString();
+  }
+
+  @Override public String toString() {
+    return offer() + " (minimumSize=" + minimumSize
+        + ", maximumMessageSize=" + maximumMessageSize + ")";
+  }
+
+  public static final class Builder {
+    boolean clientNoContextTakeover;
+    boolean serverNoContextTakeover;
+    int serverMaxWindowBits = 15;
+    long minimumSize = 1024L;
+    long maximumMessageSize = 16L * 1024 * 1024; // 16 MiB.
+
+    /**
+     * Reset the client's compression state after each message. This saves the client's window
+     * memory between messages. The client resets if either it or the server asks to.
+     */
+    public Builder clientNoContextTakeover(boolean clientNoContextTakeover) {
+      this.clientNoContextTakeover = clientNoContextTakeover;
+      return this;
+    }
+
+    /**
+     * Ask the server to reset its compression state after each message. The server may decline,
+     * in which case its messages are still decompressed correctly.
+     */
+    public Builder serverNoContextTakeover(boolean serverNoContextTakeover) {
+      this.serverNoContextTakeover = serverNoContextTakeover;
+      return this;
+    }
+
+    /**
+     * Ask the server to refer back no more than 2<sup>bits</sup> bytes, from 8 to 15. The default
+     * is 15, the largest window. The client always compresses with the largest window; if the
+     * server requires a smaller one, the client's messages are sent uncompressed.
+     */
+    public Builder serverMaxWindowBits(int bits) {
+      if (bits < 8 || bits > 15) throw new IllegalArgumentException("bits out of range: " + bits);
+      this.serverMaxWindowBits = bits;
+      return this;
+    }
+
+    /** Sets the smallest message to compress, in bytes. The default is 1024. */
+    public Builder minimumSize(long minimumSize) {
+      if (minimumSize < 0L) throw new IllegalArgumentException("minimumSize < 0");
+      this.minimumSize = minimumSize;
+      return this;
+    }
+
+    /**
+     * Sets the largest message the server may send compressed, in bytes, once inflated. The
+     * default is 16 MiB.
+     */
+    public Builder maximumMessageSize(long maximumMessageSize) {
+      if (maximumMessageSize <= 0L) throw new IllegalArgumentException("maximumMessageSize <= 0");
+      this.maximumMessageSize = maximumMessageSize;
+      return this;
+    }
+
+    public PerMessageDeflate build() {
+      return new PerMessageDeflate(this);
+    }
+  }
+}
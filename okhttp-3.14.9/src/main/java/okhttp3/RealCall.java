@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.atomic.AtomicInteger;
 import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.cache.CacheInterceptor;
 import okhttp3.internal.connection.ConnectInterceptor;
@@ -116,21 +115,24 @@ final class RealCall implements Call {
 
   final class AsyncCall extends NamedRunnable {
     private final Callback responseCallback;
-    private volatile AtomicInteger callsPerHost = new AtomicInteger(0);
+
+    /** The host queue this call waits in and is counted against. Guarded by the dispatcher. */
+    Dispatcher.HostQueue hostQueue;
+
+    /** The order this call was enqueued in. Guarded by the dispatcher. */
+    long sequence;
+
+    /** The outcome of this call, reported to the dispatcher's adaptive per-host limits. */
+    long startNanos;
+    long responseNanos = -1L;
+    boolean failed;
+    boolean multiplexed;
 
     AsyncCall(Callback responseCallback) {
       super("OkHttp %s", redactedUrl());
       this.responseCallback = responseCallback;
     }
 
-    AtomicInteger callsPerHost() {
-      return callsPerHost;
-    }
-
-    void reuseCallsPerHostFrom(AsyncCall other) {
-      this.callsPerHost = other.callsPerHost;
-    }
-
     String host() {
       return originalRequest.url().host();
     }
@@ -168,8 +170,13 @@ final class RealCall implements Call {
     @Override protected void execute() {
       boolean signalledCallback = false;
       transmitter.timeoutEnter();
+      startNanos = System.nanoTime();
       try {
         Response response = getResponseWithInterceptorChain();
+        responseNanos = System.nanoTime();
+        failed = response.code() == 429 || response.code() == 503;
+        multiplexed = response.protocol() == Protocol.HTTP_2
+            || response.protocol() == Protocol.H2_PRIOR_KNOWLEDGE;
         signalledCallback = true;
         responseCallback.onResponse(RealCall.this, response);
       } catch (IOException e) {
@@ -177,6 +184,7 @@ final class RealCall implements Call {
           // Do not signal the callback twice!
           Platform.get().log(INFO, "Callback failure for " + toLoggableString(), e);
         } else {
+          failed = !isCanceled();
           responseCallback.onFailure(RealCall.this, e);
         }
       } catch (Throwable t) {
@@ -213,7 +221,10 @@ final class RealCall implements Call {
     interceptors.addAll(client.interceptors());
     interceptors.add(new RetryAndFollowUpInterceptor(client));
     interceptors.add(new BridgeInterceptor(client.cookieJar()));
-    interceptors.add(new CacheInterceptor(client.internalCache()));
+    interceptors.add(new CacheInterceptor(client.internalCache(), client));
+    if (!forWebSocket && client.responseRelay() != null) {
+      interceptors.add(client.responseRelay().interceptor);
+    }
     interceptors.add(new ConnectInterceptor(client));
     if (!forWebSocket) {
       interceptors.addAll(client.networkInterceptors());
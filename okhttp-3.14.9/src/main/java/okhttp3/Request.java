@@ -34,6 +34,7 @@ public final class Request {
   final Headers headers;
   final @Nullable RequestBody body;
   final Map<Class<?>, Object> tags;
+  final int priority;
 
   private volatile @Nullable CacheControl cacheControl; // Lazily initialized.
 
@@ -43,6 +44,7 @@ public final class Request {
     this.headers = builder.headers.build();
     this.body = builder.body;
     this.tags = Util.immutableMap(builder.tags);
+    this.priority = builder.priority;
   }
 
   public HttpUrl url() {
@@ -89,6 +91,14 @@ public final class Request {
     return type.cast(tags.get(type));
   }
 
+  /**
+   * Returns the HTTP/2 stream weight of this request, between 1 and 256. Streams that share a
+   * connection send request bodies in proportion to their weights.
+   */
+  public int priority() {
+    return priority;
+  }
+
   public Builder newBuilder() {
     return new Builder(this);
   }
@@ -125,6 +135,9 @@ public final class Request {
     /** A mutable map of tags, or an immutable empty map if we don't have any. */
     Map<Class<?>, Object> tags = Collections.emptyMap();
 
+    /** The default HTTP/2 stream weight. */
+    int priority = 16;
+
     public Builder() {
       this.method = "GET";
       this.headers = new Headers.Builder();
@@ -138,6 +151,7 @@ public final class Request {
           ? Collections.emptyMap()
           : new LinkedHashMap<>(request.tags);
       this.headers = request.headers.newBuilder();
+      this.priority = request.priority;
     }
 
     public Builder url(HttpUrl url) {
@@ -288,6 +302,22 @@ public final class Request {
       return this;
     }
 
+    /**
+     * Sets the HTTP/2 stream weight of this request, between 1 and 256. Defaults to 16.
+     *
+     * <p>When several calls upload request bodies over the same HTTP/2 connection, each gets a
+     * share of the connection proportional to its weight, so a large upload with a low weight
+     * can't starve small requests. The weight is also sent to the server as the stream's priority.
+     * It has no effect on HTTP/1 connections.
+     */
+    public Builder priority(int weight) {
+      if (weight < 1 || weight > 256) {
+        throw new IllegalArgumentException("weight < 1 || weight > 256: " + weight);
+      }
+      this.priority = weight;
+      return this;
+    }
+
     public Request build() {
       if (url == null) throw new IllegalStateException("url == null");
       return new Request(this);
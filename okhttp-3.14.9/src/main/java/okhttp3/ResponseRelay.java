@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import okhttp3.internal.cache2.RelayInterceptor;
+
+/**
+ * Shares the download of a response among concurrent calls for it. When several calls GET the same
+ * URL with the same headers at once, only the first makes a request. The others wait for its
+ * response headers and then read its body as it downloads, so they share its connection and
+ * bandwidth and start receiving bytes without waiting for a connection of their own.
+ *
+ * <p>The body is copied to a temporary file in {@code directory} while it downloads, so callers
+ * may read at different speeds. The file is deleted once every call has closed its response.
+ *
+ * <p>Only 200 responses with a body of at least {@code minimumSize} bytes, or of unknown size, are
+ * shared. Waiting calls make their own request if the first call fails or gets another response,
+ * and calls that start after the body has downloaded completely make their own request. Use a
+ * {@link Cache} to reuse responses after they have downloaded.
+ *
+ * <p>Calls reach the relay after the cache, so responses served by the cache are not shared.
+ * Install the same relay in clients that should share downloads:
+ *
+ * <pre>   {@code
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .responseRelay(new ResponseRelay(relayDirectory, 1024 * 1024))
+ *       .build();
+ * }</pre>
+ */
+public final class ResponseRelay {
+  final File directory;
+  final long minimumSize;
+  final RelayInterceptor interceptor;
+
+  /** Create a relay that shares responses of any size through files in {@code directory}. */
+  public ResponseRelay(File directory) {
+    this(directory, 0L);
+  }
+
+  /**
+   * Create a relay that shares responses of at least {@code minimumSize} bytes through files in
+   * {@code directory}.
+   */
+  public ResponseRelay(File directory, long minimumSize) {
+    if (directory == null) throw new NullPointerException("directory == null");
+    if (minimumSize < 0L) throw new IllegalArgumentException("minimumSize < 0");
+    this.directory = directory;
+    this.minimumSize = minimumSize;
+    this.interceptor = new RelayInterceptor(directory, minimumSize);
+  }
+
+  public File directory() {
+    return directory;
+  }
+
+  public long minimumSize() {
+    return minimumSize;
+  }
+
+  /** Returns the number of responses that other calls could read while they downloaded. */
+  public int relayCount() {
+    return interceptor.relayCount();
+  }
+
+  /** Returns the number of calls that read another call's response instead of making a request. */
+  public int joinCount() {
+    return interceptor.joinCount();
+  }
+}
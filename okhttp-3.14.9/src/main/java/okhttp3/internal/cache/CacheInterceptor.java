@@ -18,6 +18,7 @@ package okhttp3.internal.cache;
 
 import java.io.IOException;
 import javax.annotation.Nullable;
+import okhttp3.Call;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
 import okhttp3.Protocol;
@@ -45,9 +46,12 @@ import static okhttp3.internal.Util.discard;
 /** Serves requests from the cache and writes responses to the cache. */
 public final class CacheInterceptor implements Interceptor {
   final @Nullable InternalCache cache;
+  /** Makes the calls that revalidate stale-while-revalidate responses in the background. */
+  final Call.Factory callFactory;
 
-  public CacheInterceptor(@Nullable InternalCache cache) {
+  public CacheInterceptor(@Nullable InternalCache cache, Call.Factory callFactory) {
     this.cache = cache;
+    this.callFactory = callFactory;
   }
 
   @Override public Response intercept(Chain chain) throws IOException {
@@ -94,6 +98,10 @@ public final class CacheInterceptor implements Interceptor {
     // 4.缓存策略中设置不使用网络，但是又缓存，直接返回缓存
     // If we don't need the network, we're done.
     if (networkRequest == null) {
+      // 缓存已过期但允许 stale-while-revalidate，在后台重新验证
+      if (strategy.revalidationRequest != null) {
+        cache.revalidate(strategy.revalidationRequest, callFactory);
+      }
       //  缓存策略中设置不使用网络，但是又缓存，直接返回缓存
       return cacheResponse.newBuilder()
           .cacheResponse(stripBody(cacheResponse))
@@ -101,12 +109,22 @@ public final class CacheInterceptor implements Interceptor {
     }
 
     Response networkResponse = null;
+    boolean servedStale = false;
     try {
       // 5.接着走后续过滤器的流程，chain.proceed(networkRequest)
       networkResponse = chain.proceed(networkRequest);
+    } catch (IOException e) {
+      // 网络请求失败，缓存允许 stale-if-error 时返回过期的缓存
+      // 请求被取消或线程被中断时不是网络错误，不能用缓存代替
+      if (strategy.staleIfError && !chain.call().isCanceled()
+          && !Thread.currentThread().isInterrupted()) {
+        servedStale = true;
+        return staleIfErrorResponse(cacheResponse, null);
+      }
+      throw e;
     } finally {
       // If we're crashing on I/O or otherwise, don't leak the cache body.
-      if (networkResponse == null && cacheCandidate != null) {
+      if (networkResponse == null && cacheCandidate != null && !servedStale) {
         closeQuietly(cacheCandidate.body());
       }
     }
@@ -130,6 +148,9 @@ public final class CacheInterceptor implements Interceptor {
         // 更新缓存
         cache.update(cacheResponse, response);
         return response;
+      } else if (strategy.staleIfError && isServerError(networkResponse.code())) {
+        closeQuietly(networkResponse.body());
+        return staleIfErrorResponse(cacheResponse, networkResponse);
       } else {
         closeQuietly(cacheResponse.body());
       }
@@ -161,6 +182,22 @@ public final class CacheInterceptor implements Interceptor {
     return response;
   }
 
+  /** Returns a stale cached response in place of a failed validation. */
+  private Response staleIfErrorResponse(
+      Response cacheResponse, @Nullable Response networkResponse) {
+    cache.trackConditionalCacheHit();
+    return cacheResponse.newBuilder()
+        .addHeader("Warning", "111 HttpURLConnection \"Revalidation failed\"")
+        .cacheResponse(stripBody(cacheResponse))
+        .networkResponse(stripBody(networkResponse))
+        .build();
+  }
+
+  /** Returns true for the server errors that RFC 5861 permits stale-if-error to hide. */
+  private static boolean isServerError(int code) {
+    return code == 500 || code == 502 || code == 503 || code == 504;
+  }
+
   private static Response stripBody(Response response) {
     return response != null && response.body() != null
         ? response.newBuilder().body(null).build()
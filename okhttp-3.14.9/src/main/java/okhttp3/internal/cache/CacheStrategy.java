@@ -54,9 +54,28 @@ public final class CacheStrategy {
   /** The cached response to return or validate; or null if this call doesn't use a cache. */
   public final @Nullable Response cacheResponse;
 
+  /**
+   * The request to revalidate a stale {@link #cacheResponse} with in the background while it is
+   * returned, or null if the cached response is fresh or the network is used.
+   */
+  public final @Nullable Request revalidationRequest;
+
+  /**
+   * True if {@link #cacheResponse} may be returned if validating it fails with an I/O error or a
+   * server error.
+   */
+  public final boolean staleIfError;
+
   CacheStrategy(Request networkRequest, Response cacheResponse) {
+    this(networkRequest, cacheResponse, null, false);
+  }
+
+  CacheStrategy(Request networkRequest, Response cacheResponse,
+      @Nullable Request revalidationRequest, boolean staleIfError) {
     this.networkRequest = networkRequest;
     this.cacheResponse = cacheResponse;
+    this.revalidationRequest = revalidationRequest;
+    this.staleIfError = staleIfError;
   }
 
   /** Returns true if {@code response} can be stored to later serve another request. */
@@ -182,6 +201,11 @@ public final class CacheStrategy {
         return new CacheStrategy(null, null);
       }
 
+      if (candidate.revalidationRequest != null && request.cacheControl().onlyIfCached()) {
+        // We're forbidden from using the network. Serve the stale response without revalidating.
+        return new CacheStrategy(null, candidate.cacheResponse);
+      }
+
       return candidate;
     }
 
@@ -241,6 +265,31 @@ public final class CacheStrategy {
         return new CacheStrategy(null, builder.build());
       }
 
+      // 过期时间还在 stale-while-revalidate 范围内，先返回过期的缓存，再在后台重新验证
+      // Serve a response that is stale-while-revalidate, and refresh it in the background. A
+      // request that limits the age of its response doesn't get one this stale.
+      if (!responseCaching.noCache()
+          && !responseCaching.mustRevalidate()
+          && responseCaching.staleWhileRevalidateSeconds() != -1
+          && requestCaching.maxAgeSeconds() == -1
+          && requestCaching.minFreshSeconds() == -1
+          && ageMillis < freshMillis + maxStaleMillis
+              + SECONDS.toMillis(responseCaching.staleWhileRevalidateSeconds())) {
+        Response staleResponse = cacheResponse.newBuilder()
+            .addHeader("Warning", "110 HttpURLConnection \"Response is stale\"")
+            .build();
+        // The refresh goes through the cache as a request that doesn't accept stale responses.
+        Request revalidationRequest = request.newBuilder()
+            .cacheControl(new CacheControl.Builder().maxAge(0, SECONDS).build())
+            .build();
+        return new CacheStrategy(null, staleResponse, revalidationRequest, false);
+      }
+
+      // A response that is stale-if-error may be served if the network fails.
+      boolean staleIfError = !responseCaching.mustRevalidate()
+          && responseCaching.staleIfErrorSeconds() != -1
+          && ageMillis < freshMillis + SECONDS.toMillis(responseCaching.staleIfErrorSeconds());
+
       // Find a condition to add to the request. If the condition is satisfied, the response body
       // will not be transmitted.
       String conditionName;
@@ -254,6 +303,8 @@ public final class CacheStrategy {
       } else if (servedDate != null) {
         conditionName = "If-Modified-Since";
         conditionValue = servedDateString;
+      } else if (staleIfError) {
+        return new CacheStrategy(request, cacheResponse, null, true); // Regular request, fallback.
       } else {
         return new CacheStrategy(request, null); // No condition! Make a regular request.
       }
@@ -264,7 +315,7 @@ public final class CacheStrategy {
       Request conditionalRequest = request.newBuilder()
           .headers(conditionalRequestHeaders.build())
           .build();
-      return new CacheStrategy(conditionalRequest, cacheResponse);
+      return new CacheStrategy(conditionalRequest, cacheResponse, null, staleIfError);
     }
 
     /**
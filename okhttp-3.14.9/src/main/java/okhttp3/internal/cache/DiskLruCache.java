@@ -25,9 +25,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -36,6 +38,7 @@ import javax.annotation.Nullable;
 import okhttp3.internal.Util;
 import okhttp3.internal.io.FileSystem;
 import okhttp3.internal.platform.Platform;
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
@@ -83,6 +86,11 @@ import static okhttp3.internal.platform.Platform.WARN;
  * corresponding entries will be dropped from the cache. If an error occurs while writing a cache
  * value, the edit will fail silently. Callers should handle other problems by catching {@code
  * IOException} and responding appropriately.
+ *
+ * <p>Journal records are queued in memory and written in batches by a background task, so reads
+ * don't write to the filesystem. Only starting an edit waits for the journal to be written, before
+ * the edit's files are created. After a crash the journal may lack the most recent records; the
+ * entries they describe are then dropped or aged differently, but no files are leaked.
  */
 public final class DiskLruCache implements Closeable, Flushable {
   static final String JOURNAL_FILE = "journal";
@@ -97,6 +105,17 @@ public final class DiskLruCache implements Closeable, Flushable {
   private static final String REMOVE = "REMOVE";
   private static final String READ = "READ";
 
+  /** Queued journal records are written after this delay, or sooner if there are enough. */
+  static final long JOURNAL_WRITE_DELAY_NS = TimeUnit.SECONDS.toNanos(1);
+  static final int JOURNAL_WRITE_BATCH_SIZE = 64;
+
+  /**
+   * Hands delayed journal writes to each cache's executor when their delay elapses, so no executor
+   * thread waits out the delay. Shared by all caches; its thread exits when idle.
+   */
+  private static final ScheduledThreadPoolExecutor JOURNAL_WRITE_SCHEDULER =
+      newJournalWriteScheduler();
+
     /*
      * This cache uses a journal file named "journal". A typical journal file
      * looks like this:
@@ -146,10 +165,23 @@ public final class DiskLruCache implements Closeable, Flushable {
   private long maxSize;
   final int valueCount;
   private long size = 0;
-  BufferedSink journalWriter;
   final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<>(0, 0.75f, true);
   int redundantOpCount;
-  boolean hasJournalErrors;
+
+  /**
+   * Guards writes to the journal file. This lock is taken before 'this' and never while holding
+   * it, so the cache isn't locked while the filesystem is written.
+   */
+  private final Object journalLock = new Object();
+
+  /** Guarded by journalLock once initialized. */
+  BufferedSink journalWriter;
+  volatile boolean hasJournalErrors;
+
+  // Journal records waiting for the journal writer. Guarded by 'this'.
+  private final Buffer pendingJournal = new Buffer();
+  private int pendingJournalRecords;
+  private boolean journalWriteScheduled;
 
   // Must be read and written when synchronized on 'this'.
   boolean initialized;
@@ -164,6 +196,12 @@ public final class DiskLruCache implements Closeable, Flushable {
    */
   private long nextSequenceNumber = 0;
 
+  /** Mappings of this cache's files, released when their entries change. Null if none. */
+  volatile @Nullable MappedFileCache mappedFiles;
+
+  /** Told the keys of entries that are removed or evicted. Null if none. */
+  volatile @Nullable RemovalListener removalListener;
+
   /** Used to run 'cleanupRunnable' for journal rebuilds. */
   private final Executor executor;
   private final Runnable cleanupRunnable = new Runnable() {
@@ -179,16 +217,28 @@ public final class DiskLruCache implements Closeable, Flushable {
           mostRecentTrimFailed = true;
         }
 
-        try {
-          if (journalRebuildRequired()) {
-            rebuildJournal();
-            redundantOpCount = 0;
-          }
-        } catch (IOException e) {
-          mostRecentRebuildFailed = true;
-          journalWriter = Okio.buffer(Okio.blackhole());
-        }
+        if (!journalRebuildRequired()) return;
       }
+
+      // Compact the journal without holding the cache lock.
+      rebuildJournal();
+    }
+  };
+
+  /** Writes queued journal records. Runs as soon as a batch fills up. */
+  private final Runnable journalWriterRunnable = new Runnable() {
+    public void run() {
+      writeJournal();
+    }
+  };
+
+  /** Writes queued journal records once their delay has elapsed. */
+  private final Runnable delayedJournalWriterRunnable = new Runnable() {
+    public void run() {
+      synchronized (DiskLruCache.this) {
+        journalWriteScheduled = false;
+      }
+      writeJournal();
     }
   };
 
@@ -243,7 +293,7 @@ public final class DiskLruCache implements Closeable, Flushable {
       }
     }
 
-    rebuildJournal();
+    replaceJournal(compactJournal());
 
     initialized = true;
   }
@@ -301,7 +351,7 @@ public final class DiskLruCache implements Closeable, Flushable {
 
       // If we ended on a truncated line, rebuild the journal before appending to it.
       if (!source.exhausted()) {
-        rebuildJournal();
+        replaceJournal(compactJournal());
       } else {
         journalWriter = newJournalWriter();
       }
@@ -312,7 +362,6 @@ public final class DiskLruCache implements Closeable, Flushable {
     Sink fileSink = fileSystem.appendingSink(journalFile);
     Sink faultHidingSink = new FaultHidingSink(fileSink) {
       @Override protected void onException(IOException e) {
-        assert (Thread.holdsLock(DiskLruCache.this));
         hasJournalErrors = true;
       }
     };
@@ -383,32 +432,71 @@ public final class DiskLruCache implements Closeable, Flushable {
 
   /**
    * Creates a new journal that omits redundant information. This replaces the current journal if it
-   * exists.
+   * exists. The cache is only locked while its entries are copied to memory; records queued after
+   * that are written to the new journal.
    */
-  synchronized void rebuildJournal() throws IOException {
+  void rebuildJournal() {
+    synchronized (journalLock) {
+      try {
+        Buffer journal;
+        synchronized (this) {
+          if (closed) return;
+          journal = compactJournal();
+          // The compacted journal supersedes every queued record.
+          pendingJournal.clear();
+          pendingJournalRecords = 0;
+          redundantOpCount = 0;
+        }
+
+        replaceJournal(journal);
+        synchronized (this) {
+          mostRecentRebuildFailed = false;
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          mostRecentRebuildFailed = true;
+        }
+        journalWriter = Okio.buffer(Okio.blackhole());
+      }
+    }
+  }
+
+  /** Returns a journal with a header and one record per entry. */
+  private Buffer compactJournal() throws IOException {
+    assert Thread.holdsLock(this);
+    Buffer writer = new Buffer();
+    writer.writeUtf8(MAGIC).writeByte('\n');
+    writer.writeUtf8(VERSION_1).writeByte('\n');
+    writer.writeDecimalLong(appVersion).writeByte('\n');
+    writer.writeDecimalLong(valueCount).writeByte('\n');
+    writer.writeByte('\n');
+
+    for (Entry entry : lruEntries.values()) {
+      if (entry.currentEditor != null) {
+        writer.writeUtf8(DIRTY).writeByte(' ');
+        writer.writeUtf8(entry.key);
+        writer.writeByte('\n');
+      } else {
+        writer.writeUtf8(CLEAN).writeByte(' ');
+        writer.writeUtf8(entry.key);
+        entry.writeLengths(writer);
+        writer.writeByte('\n');
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Replaces the journal file with {@code journal} and opens a writer to append to it. The caller
+   * must hold journalLock, or 'this' during initialization when nothing else writes the journal.
+   */
+  private void replaceJournal(Buffer journal) throws IOException {
     if (journalWriter != null) {
       journalWriter.close();
     }
 
     try (BufferedSink writer = Okio.buffer(fileSystem.sink(journalFileTmp))) {
-      writer.writeUtf8(MAGIC).writeByte('\n');
-      writer.writeUtf8(VERSION_1).writeByte('\n');
-      writer.writeDecimalLong(appVersion).writeByte('\n');
-      writer.writeDecimalLong(valueCount).writeByte('\n');
-      writer.writeByte('\n');
-
-      for (Entry entry : lruEntries.values()) {
-        if (entry.currentEditor != null) {
-          writer.writeUtf8(DIRTY).writeByte(' ');
-          writer.writeUtf8(entry.key);
-          writer.writeByte('\n');
-        } else {
-          writer.writeUtf8(CLEAN).writeByte(' ');
-          writer.writeUtf8(entry.key);
-          entry.writeLengths(writer);
-          writer.writeByte('\n');
-        }
-      }
+      writer.writeAll(journal);
     }
 
     if (fileSystem.exists(journalFile)) {
@@ -419,7 +507,60 @@ public final class DiskLruCache implements Closeable, Flushable {
 
     journalWriter = newJournalWriter();
     hasJournalErrors = false;
-    mostRecentRebuildFailed = false;
+  }
+
+  /** Queues a journal record for {@code key}. */
+  private void journalRecord(String state, String key) {
+    pendingJournal.writeUtf8(state).writeByte(' ').writeUtf8(key).writeByte('\n');
+    journalRecordQueued();
+  }
+
+  /** Queues a CLEAN journal record for {@code entry}. */
+  private void journalCleanRecord(Entry entry) throws IOException {
+    pendingJournal.writeUtf8(CLEAN).writeByte(' ').writeUtf8(entry.key);
+    entry.writeLengths(pendingJournal);
+    pendingJournal.writeByte('\n');
+    journalRecordQueued();
+  }
+
+  private void journalRecordQueued() {
+    assert Thread.holdsLock(this);
+    pendingJournalRecords++;
+    if (pendingJournalRecords == JOURNAL_WRITE_BATCH_SIZE) {
+      // A full batch is written right away, without waiting for the delay.
+      executor.execute(journalWriterRunnable);
+    } else if (!journalWriteScheduled) {
+      journalWriteScheduled = true;
+      JOURNAL_WRITE_SCHEDULER.schedule(() -> executor.execute(delayedJournalWriterRunnable),
+          JOURNAL_WRITE_DELAY_NS, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static ScheduledThreadPoolExecutor newJournalWriteScheduler() {
+    ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1,
+        Util.threadFactory("OkHttp DiskLruCache Journal", true));
+    result.setKeepAliveTime(60L, TimeUnit.SECONDS);
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+
+  /** Writes the queued journal records to the journal file. */
+  void writeJournal() {
+    synchronized (journalLock) {
+      Buffer records = new Buffer();
+      synchronized (this) {
+        records.write(pendingJournal, pendingJournal.size());
+        pendingJournalRecords = 0;
+      }
+      if (journalWriter == null) return; // Closed.
+      if (records.size() == 0L) return; // Already written by an earlier batch.
+      try {
+        journalWriter.writeAll(records);
+        journalWriter.flush();
+      } catch (IOException e) {
+        hasJournalErrors = true;
+      }
+    }
   }
 
   /**
@@ -438,7 +579,7 @@ public final class DiskLruCache implements Closeable, Flushable {
     if (snapshot == null) return null;
 
     redundantOpCount++;
-    journalWriter.writeUtf8(READ).writeByte(' ').writeUtf8(key).writeByte('\n');
+    journalRecord(READ, key);
     if (journalRebuildRequired()) {
       executor.execute(cleanupRunnable);
     }
@@ -446,6 +587,28 @@ public final class DiskLruCache implements Closeable, Flushable {
     return snapshot;
   }
 
+  /**
+   * Records a read of the entry named {@code key} that was served from a copy of its values rather
+   * than from its files, moving it to the head of the LRU queue. Returns false without recording
+   * anything if the entry doesn't exist, isn't readable or has been edited since the copy's
+   * snapshot, whose sequence number is {@code sequenceNumber}.
+   */
+  public synchronized boolean recordRead(String key, long sequenceNumber) throws IOException {
+    initialize();
+
+    checkNotClosed();
+    validateKey(key);
+    Entry entry = lruEntries.get(key);
+    if (entry == null || !entry.readable || entry.sequenceNumber != sequenceNumber) return false;
+
+    redundantOpCount++;
+    journalRecord(READ, key);
+    if (journalRebuildRequired()) {
+      executor.execute(cleanupRunnable);
+    }
+    return true;
+  }
+
   /**
    * Returns an editor for the entry named {@code key}, or null if another edit is in progress.
    */
@@ -453,7 +616,22 @@ public final class DiskLruCache implements Closeable, Flushable {
     return edit(key, ANY_SEQUENCE_NUMBER);
   }
 
-  synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+  @Nullable Editor edit(String key, long expectedSequenceNumber) throws IOException {
+    Editor editor = newEditor(key, expectedSequenceNumber);
+    if (editor == null) return null;
+
+    // Write the journal before creating files to prevent file leaks.
+    writeJournal();
+
+    if (hasJournalErrors) {
+      editor.abortUnlessCommitted();
+      return null; // Don't edit; the journal can't be written.
+    }
+    return editor;
+  }
+
+  private synchronized @Nullable Editor newEditor(String key, long expectedSequenceNumber)
+      throws IOException {
     initialize();
 
     checkNotClosed();
@@ -476,14 +654,11 @@ public final class DiskLruCache implements Closeable, Flushable {
       return null;
     }
 
-    // Flush the journal before creating files to prevent file leaks.
-    journalWriter.writeUtf8(DIRTY).writeByte(' ').writeUtf8(key).writeByte('\n');
-    journalWriter.flush();
-
     if (hasJournalErrors) {
       return null; // Don't edit; the journal can't be written.
     }
 
+    journalRecord(DIRTY, key);
     if (entry == null) {
       entry = new Entry(key);
       lruEntries.put(key, entry);
@@ -565,20 +740,16 @@ public final class DiskLruCache implements Closeable, Flushable {
     entry.currentEditor = null;
     if (entry.readable | success) {
       entry.readable = true;
-      journalWriter.writeUtf8(CLEAN).writeByte(' ');
-      journalWriter.writeUtf8(entry.key);
-      entry.writeLengths(journalWriter);
-      journalWriter.writeByte('\n');
+      journalCleanRecord(entry);
       if (success) {
         entry.sequenceNumber = nextSequenceNumber++;
+        editor.committedSequenceNumber = entry.sequenceNumber;
+        releaseMappings(entry.key);
       }
     } else {
       lruEntries.remove(entry.key);
-      journalWriter.writeUtf8(REMOVE).writeByte(' ');
-      journalWriter.writeUtf8(entry.key);
-      journalWriter.writeByte('\n');
+      journalRecord(REMOVE, entry.key);
     }
-    journalWriter.flush();
 
     if (size > maxSize || journalRebuildRequired()) {
       executor.execute(cleanupRunnable);
@@ -613,6 +784,27 @@ public final class DiskLruCache implements Closeable, Flushable {
     return removed;
   }
 
+  /**
+   * Drops the entries whose keys start with {@code prefix}. This checks every key, so use it for
+   * occasional invalidations rather than lookups.
+   *
+   * @return the number of entries removed.
+   */
+  public synchronized int removeKeysWithPrefix(String prefix) throws IOException {
+    initialize();
+
+    checkNotClosed();
+    List<Entry> matches = new ArrayList<>();
+    for (Entry entry : lruEntries.values()) {
+      if (entry.key.startsWith(prefix)) matches.add(entry);
+    }
+    for (Entry entry : matches) {
+      removeEntry(entry);
+    }
+    if (!matches.isEmpty() && size <= maxSize) mostRecentTrimFailed = false;
+    return matches.size();
+  }
+
   boolean removeEntry(Entry entry) throws IOException {
     if (entry.currentEditor != null) {
       entry.currentEditor.detach(); // Prevent the edit from completing normally.
@@ -625,8 +817,11 @@ public final class DiskLruCache implements Closeable, Flushable {
     }
 
     redundantOpCount++;
-    journalWriter.writeUtf8(REMOVE).writeByte(' ').writeUtf8(entry.key).writeByte('\n');
+    journalRecord(REMOVE, entry.key);
     lruEntries.remove(entry.key);
+    releaseMappings(entry.key);
+    RemovalListener removalListener = this.removalListener;
+    if (removalListener != null) removalListener.onRemoved(entry.key);
 
     if (journalRebuildRequired()) {
       executor.execute(cleanupRunnable);
@@ -635,6 +830,11 @@ public final class DiskLruCache implements Closeable, Flushable {
     return true;
   }
 
+  private void releaseMappings(String key) {
+    MappedFileCache mappedFiles = this.mappedFiles;
+    if (mappedFiles != null) mappedFiles.remove(key);
+  }
+
   /** Returns true if this cache has been closed. */
   public synchronized boolean isClosed() {
     return closed;
@@ -647,30 +847,38 @@ public final class DiskLruCache implements Closeable, Flushable {
   }
 
   /** Force buffered operations to the filesystem. */
-  @Override public synchronized void flush() throws IOException {
-    if (!initialized) return;
+  @Override public void flush() throws IOException {
+    synchronized (this) {
+      if (!initialized) return;
 
-    checkNotClosed();
-    trimToSize();
-    journalWriter.flush();
+      checkNotClosed();
+      trimToSize();
+    }
+    writeJournal();
   }
 
   /** Closes this cache. Stored values will remain on the filesystem. */
-  @Override public synchronized void close() throws IOException {
-    if (!initialized || closed) {
+  @Override public void close() throws IOException {
+    synchronized (this) {
+      if (!initialized || closed) {
+        closed = true;
+        return;
+      }
+      // Copying for safe iteration.
+      for (Entry entry : lruEntries.values().toArray(new Entry[lruEntries.size()])) {
+        if (entry.currentEditor != null) {
+          entry.currentEditor.abort();
+        }
+      }
+      trimToSize();
       closed = true;
-      return;
     }
-    // Copying for safe iteration.
-    for (Entry entry : lruEntries.values().toArray(new Entry[lruEntries.size()])) {
-      if (entry.currentEditor != null) {
-        entry.currentEditor.abort();
-      }
+
+    synchronized (journalLock) {
+      writeJournal();
+      journalWriter.close();
+      journalWriter = null;
     }
-    trimToSize();
-    journalWriter.close();
-    journalWriter = null;
-    closed = true;
   }
 
   void trimToSize() throws IOException {
@@ -797,6 +1005,19 @@ public final class DiskLruCache implements Closeable, Flushable {
       return key;
     }
 
+    /** Returns the version of the entry this snapshot reads. Every commit changes it. */
+    public long sequenceNumber() {
+      return sequenceNumber;
+    }
+
+    /**
+     * Returns the file with the value for {@code index}. It may be replaced or deleted once the
+     * entry changes, so check its length before reading it directly.
+     */
+    public File getFile(int index) {
+      return new File(directory, key + "." + index);
+    }
+
     /**
      * Returns an editor for this snapshot's entry, or null if either the entry has changed since
      * this snapshot was created or if another edit is in progress.
@@ -827,6 +1048,8 @@ public final class DiskLruCache implements Closeable, Flushable {
     final Entry entry;
     final boolean[] written;
     private boolean done;
+    /** The sequence number of the value this edit committed. Guarded by DiskLruCache.this. */
+    long committedSequenceNumber = ANY_SEQUENCE_NUMBER;
 
     Editor(Entry entry) {
       this.entry = entry;
@@ -947,6 +1170,22 @@ public final class DiskLruCache implements Closeable, Flushable {
         }
       }
     }
+
+    /**
+     * Returns the sequence number of the value this edit committed, or -1 if it didn't commit one.
+     * Snapshots with this sequence number read exactly the values written by this edit.
+     */
+    public long committedSequenceNumber() {
+      synchronized (DiskLruCache.this) {
+        return committedSequenceNumber;
+      }
+    }
+  }
+
+  /** Receives the keys of entries as they are removed or evicted from a cache. */
+  public interface RemovalListener {
+    /** Called while the cache is locked, so this must not call back into the cache. */
+    void onRemoved(String key);
   }
 
   private final class Entry {
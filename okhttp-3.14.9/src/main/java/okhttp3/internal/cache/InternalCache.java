@@ -17,6 +17,7 @@ package okhttp3.internal.cache;
 
 import java.io.IOException;
 import javax.annotation.Nullable;
+import okhttp3.Call;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -42,6 +43,12 @@ public interface InternalCache {
    */
   void update(Response cached, Response network);
 
+  /**
+   * Makes {@code request} with {@code callFactory} in the background to refresh a stale cached
+   * response. This does nothing if a refresh of the same response is already in flight.
+   */
+  void revalidate(Request request, Call.Factory callFactory);
+
   /** Track an conditional GET that was satisfied by this cache. */
   void trackConditionalCacheHit();
 
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.annotation.Nullable;
+import okio.Buffer;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * Memory-mapped cache files, shared by the readers of each entry. Reading a mapped file copies
+ * from the page cache straight into okio's segments, with no read system calls, and the mapping
+ * is reused until the entry changes.
+ *
+ * <p>Mappings are keyed by cache key and identified by the entry's sequence number, so a new
+ * version of an entry gets a new mapping. A mapping that is replaced, removed or evicted is
+ * unmapped once the last source reading it is closed. If this JVM can't unmap buffers explicitly
+ * they are unmapped when they are garbage collected.
+ *
+ * <p>Don't map files on Windows, which can't delete or replace a file while it is mapped.
+ */
+public final class MappedFileCache {
+  private static final @Nullable Unmapper UNMAPPER = Unmapper.get();
+
+  private final int maxMappingCount;
+
+  /** Guarded by 'this'. In access order, least recently used first. */
+  private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(0, 0.75f, true);
+
+  public MappedFileCache(int maxMappingCount) {
+    if (maxMappingCount <= 0) throw new IllegalArgumentException("maxMappingCount <= 0");
+    this.maxMappingCount = maxMappingCount;
+  }
+
+  /**
+   * Returns a source that reads {@code file} from a mapping, or null if it can't be mapped. The
+   * file holds version {@code sequenceNumber} of the entry {@code key} and must be {@code length}
+   * bytes. The caller must close the returned source.
+   */
+  public @Nullable Source source(String key, long sequenceNumber, File file, long length) {
+    synchronized (this) {
+      Mapping mapping = mappings.get(key);
+      if (mapping != null && mapping.sequenceNumber == sequenceNumber) {
+        return mapping.newSource();
+      }
+    }
+
+    if (length > Integer.MAX_VALUE) return null; // Too large for a single buffer.
+    MappedByteBuffer buffer;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      // A different length means the entry was replaced since it was looked up.
+      if (channel.size() != length) return null;
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, length);
+    } catch (IOException e) {
+      return null;
+    }
+
+    synchronized (this) {
+      Mapping mapping = new Mapping(sequenceNumber, buffer);
+      Mapping replaced = mappings.put(key, mapping);
+      if (replaced != null) replaced.evict();
+      Source result = mapping.newSource();
+      trimToSize();
+      return result;
+    }
+  }
+
+  /** Drops the mapping of {@code key}, if any. */
+  public synchronized void remove(String key) {
+    Mapping mapping = mappings.remove(key);
+    if (mapping != null) mapping.evict();
+  }
+
+  public synchronized void evictAll() {
+    for (Mapping mapping : mappings.values()) {
+      mapping.evict();
+    }
+    mappings.clear();
+  }
+
+  /** Returns the number of files currently mapped. */
+  public synchronized int mappingCount() {
+    return mappings.size();
+  }
+
+  private void trimToSize() {
+    for (Iterator<Mapping> i = mappings.values().iterator();
+        mappings.size() > maxMappingCount && i.hasNext(); ) {
+      Mapping eldest = i.next();
+      i.remove();
+      eldest.evict();
+    }
+  }
+
+  /** A mapped file and the sources reading it. Guarded by MappedFileCache.this. */
+  private final class Mapping {
+    final long sequenceNumber;
+    final MappedByteBuffer buffer;
+    int sourceCount;
+    boolean evicted;
+
+    Mapping(long sequenceNumber, MappedByteBuffer buffer) {
+      this.sequenceNumber = sequenceNumber;
+      this.buffer = buffer;
+    }
+
+    Source newSource() {
+      sourceCount++;
+      return new MappedSource(this, buffer.duplicate());
+    }
+
+    void evict() {
+      evicted = true;
+      if (sourceCount == 0 && UNMAPPER != null) UNMAPPER.unmap(buffer);
+    }
+
+    void sourceClosed() {
+      synchronized (MappedFileCache.this) {
+        sourceCount--;
+        if (evicted && sourceCount == 0 && UNMAPPER != null) UNMAPPER.unmap(buffer);
+      }
+    }
+  }
+
+  /**
+   * Reads a mapping. Once closed it never touches the buffer again, which may be unmapped. Reads and
+   * close share this source's lock, so closing from another thread waits for an in-flight read to
+   * finish before the mapping can be released.
+   */
+  private static final class MappedSource implements Source {
+    private final Mapping mapping;
+    private final ByteBuffer buffer;
+    /** Guarded by 'this'. */
+    private boolean closed;
+
+    MappedSource(Mapping mapping, ByteBuffer buffer) {
+      this.mapping = mapping;
+      this.buffer = buffer;
+    }
+
+    @Override public synchronized long read(Buffer sink, long byteCount) throws IOException {
+      if (byteCount < 0L) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+      if (closed) throw new IllegalStateException("closed");
+      if (!buffer.hasRemaining()) return -1L;
+
+      int toRead = (int) Math.min(byteCount, buffer.remaining());
+      int limit = buffer.limit();
+      buffer.limit(buffer.position() + toRead);
+      try {
+        return sink.write(buffer);
+      } finally {
+        buffer.limit(limit);
+      }
+    }
+
+    @Override public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override public synchronized void close() {
+      if (closed) return;
+      closed = true;
+      mapping.sourceClosed();
+    }
+  }
+
+  /** Releases mapped buffers without waiting for garbage collection. */
+  private static final class Unmapper {
+    private final Object unsafe;
+    private final Method invokeCleaner;
+
+    private Unmapper(Object unsafe, Method invokeCleaner) {
+      this.unsafe = unsafe;
+      this.invokeCleaner = invokeCleaner;
+    }
+
+    /** Returns an unmapper for Java 9+, or null if this JVM doesn't offer one. */
+    static @Nullable Unmapper get() {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        return new Unmapper(theUnsafe.get(null), invokeCleaner);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return null;
+      }
+    }
+
+    void unmap(MappedByteBuffer buffer) {
+      try {
+        invokeCleaner.invoke(unsafe, buffer);
+      } catch (ReflectiveOperationException | RuntimeException ignored) {
+        // Leave it to the garbage collector.
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A size-bounded in-memory cache with a segmented LRU eviction policy. New values start in a
+ * probationary segment and move to a protected segment when they are read again, so a scan of
+ * values that are read only once can't flush out values that are read repeatedly. Values that fall
+ * out of the protected segment get a second chance at the head of the probationary segment; values
+ * that fall out of the probationary segment are evicted.
+ *
+ * <p>Each value has a caller-supplied size. Values larger than the whole cache are not stored.
+ */
+public final class SegmentedLruCache<V> {
+  /** The share of {@link #maxSize} that the protected segment may use, in percent. */
+  static final int PROTECTED_PERCENT = 80;
+
+  private final long maxSize;
+  private final long maxProtectedSize;
+
+  // Guarded by 'this'. Both maps are in access order, least recently used first.
+  private final LinkedHashMap<String, Node<V>> probation = new LinkedHashMap<>(0, 0.75f, true);
+  private final LinkedHashMap<String, Node<V>> protectedSegment =
+      new LinkedHashMap<>(0, 0.75f, true);
+  private long probationSize;
+  private long protectedSize;
+  private long writeCount;
+  private int evictionCount;
+
+  public SegmentedLruCache(long maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+    this.maxSize = maxSize;
+    this.maxProtectedSize = maxSize * PROTECTED_PERCENT / 100;
+  }
+
+  /** Returns the value for {@code key} and promotes it to the protected segment. */
+  public synchronized @Nullable V get(String key) {
+    Node<V> node = protectedSegment.get(key);
+    if (node != null) return node.value;
+
+    node = probation.remove(key);
+    if (node == null) return null;
+    probationSize -= node.size;
+    protectedSegment.put(key, node);
+    protectedSize += node.size;
+
+    // Demote the protected segment's least recently used values to make room.
+    for (Iterator<Map.Entry<String, Node<V>>> i = protectedSegment.entrySet().iterator();
+        protectedSize > maxProtectedSize && i.hasNext(); ) {
+      Map.Entry<String, Node<V>> eldest = i.next();
+      i.remove();
+      protectedSize -= eldest.getValue().size;
+      probation.put(eldest.getKey(), eldest.getValue());
+      probationSize += eldest.getValue().size;
+    }
+    return node.value;
+  }
+
+  /** Stores {@code value} for {@code key} in the probationary segment, replacing any old value. */
+  public synchronized void put(String key, V value, long size) {
+    writeCount++;
+    removeNode(key);
+    if (size > maxSize) return;
+
+    probation.put(key, new Node<>(value, size));
+    probationSize += size;
+    trimToSize();
+  }
+
+  /**
+   * Stores {@code value} for {@code key} unless this cache was written since {@link #writeCount}
+   * returned {@code expectedWriteCount}. Use this to store a value read from a slower tier without
+   * racing a concurrent update of that tier.
+   *
+   * @return true if the value was stored.
+   */
+  public synchronized boolean putIfUnchanged(
+      String key, V value, long size, long expectedWriteCount) {
+    if (writeCount != expectedWriteCount) return false;
+    put(key, value, size);
+    return true;
+  }
+
+  public synchronized void remove(String key) {
+    writeCount++;
+    removeNode(key);
+  }
+
+  public synchronized void evictAll() {
+    writeCount++;
+    probation.clear();
+    protectedSegment.clear();
+    probationSize = 0L;
+    protectedSize = 0L;
+  }
+
+  /** Returns the number of writes to this cache. It changes on every put and remove. */
+  public synchronized long writeCount() {
+    return writeCount;
+  }
+
+  /** Returns the total size of the values in this cache. */
+  public synchronized long size() {
+    return probationSize + protectedSize;
+  }
+
+  public long maxSize() {
+    return maxSize;
+  }
+
+  /** Returns the number of values evicted to make room for others. */
+  public synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  private void removeNode(String key) {
+    Node<V> node = probation.remove(key);
+    if (node != null) {
+      probationSize -= node.size;
+      return;
+    }
+    node = protectedSegment.remove(key);
+    if (node != null) {
+      protectedSize -= node.size;
+    }
+  }
+
+  private void trimToSize() {
+    while (probationSize + protectedSize > maxSize) {
+      LinkedHashMap<String, Node<V>> segment = !probation.isEmpty() ? probation : protectedSegment;
+      Iterator<Node<V>> i = segment.values().iterator();
+      Node<V> eldest = i.next();
+      i.remove();
+      if (segment == probation) {
+        probationSize -= eldest.size;
+      } else {
+        protectedSize -= eldest.size;
+      }
+      evictionCount++;
+    }
+  }
+
+  private static final class Node<V> {
+    final V value;
+    final long size;
+
+    Node(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
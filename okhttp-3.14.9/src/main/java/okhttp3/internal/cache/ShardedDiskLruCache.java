@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.internal.Util;
+import okhttp3.internal.io.FileSystem;
+import okhttp3.internal.platform.Platform;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+import static okhttp3.internal.platform.Platform.WARN;
+
+/**
+ * A {@link DiskLruCache} split into independent shards by key hash. Each shard has its own
+ * directory, journal, lock and an equal share of the size limit, so operations on different shards
+ * never contend. Eviction is least-recently-used within each shard.
+ *
+ * <p>With one shard this uses the directory itself, exactly like a plain {@link DiskLruCache}. With
+ * more, shard {@code i} lives in the subdirectory {@code shard-i}.
+ *
+ * <p>Keys map to shards by hash, so changing the shard count of an existing directory moves entries
+ * on initialization: entries of a single-shard journal in the directory itself and of shard
+ * directories beyond the new count are moved into the shards and those journals deleted, and
+ * entries of the remaining shards that now hash elsewhere are moved to their new shard. Entries
+ * that fail to move are dropped rather than left where they can't be found.
+ */
+public final class ShardedDiskLruCache implements Closeable, Flushable {
+  final FileSystem fileSystem;
+  final File directory;
+  private final int appVersion;
+  private final int valueCount;
+  private final Executor executor;
+  private final DiskLruCache[] shards;
+  private long maxSize;
+
+  // Must be written when synchronized on 'this'.
+  private volatile boolean initialized;
+  private volatile boolean closed;
+  private boolean hadJournal;
+
+  ShardedDiskLruCache(FileSystem fileSystem, File directory, int appVersion, int valueCount,
+      long maxSize, int shardCount, Executor executor) {
+    this.fileSystem = fileSystem;
+    this.directory = directory;
+    this.appVersion = appVersion;
+    this.valueCount = valueCount;
+    this.executor = executor;
+    this.maxSize = maxSize;
+    this.shards = new DiskLruCache[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      File shardDirectory = shardCount == 1 ? directory : shardDirectory(i);
+      shards[i] = new DiskLruCache(fileSystem, shardDirectory, appVersion, valueCount,
+          shardMaxSize(maxSize, i), executor);
+    }
+  }
+
+  /**
+   * Create a cache which will reside in {@code directory}, split into {@code shardCount} shards.
+   * This cache is lazily initialized on first access and will be created if it does not exist.
+   *
+   * @param directory a writable directory
+   * @param valueCount the number of values per cache entry. Must be positive.
+   * @param maxSize the maximum number of bytes this cache should use to store
+   * @param shardCount the number of independent shards. Must be positive.
+   */
+  public static ShardedDiskLruCache create(FileSystem fileSystem, File directory, int appVersion,
+      int valueCount, long maxSize, int shardCount) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+    if (valueCount <= 0) {
+      throw new IllegalArgumentException("valueCount <= 0");
+    }
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount <= 0");
+    }
+
+    // Use a single background thread to evict entries from all shards.
+    Executor executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), Util.threadFactory("OkHttp DiskLruCache", true));
+
+    return new ShardedDiskLruCache(fileSystem, directory, appVersion, valueCount, maxSize,
+        shardCount, executor);
+  }
+
+  /** Returns shard {@code index}'s share of {@code maxSize}. Low shards take the remainder. */
+  private long shardMaxSize(long maxSize, int index) {
+    long share = maxSize / shards.length;
+    return Math.max(1L, index < maxSize % shards.length ? share + 1 : share);
+  }
+
+  private int shardIndex(String key) {
+    // Spread the string hash first: its low bits alone are a poor shard index.
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (h & 0x7fffffff) % shards.length;
+  }
+
+  private DiskLruCache shard(String key) {
+    return shards[shardIndex(key)];
+  }
+
+  private File shardDirectory(int index) {
+    return new File(directory, "shard-" + index);
+  }
+
+  public void initialize() throws IOException {
+    if (initialized) return;
+    synchronized (this) {
+      if (initialized) return;
+      hadJournal = hasJournal(directory) || hasJournal(shardDirectory(0));
+      if (shards.length > 1) migrateSingleShardJournal();
+      migrateRemovedShards();
+      for (int i = 0; i < shards.length; i++) {
+        shards[i].initialize();
+        moveMisplacedEntries(i);
+      }
+      initialized = true;
+    }
+  }
+
+  /**
+   * Moves the entries of a single-shard cache in {@link #directory} into the shards. The old
+   * journal is deleted last, so an interrupted migration resumes on the next initialization.
+   */
+  private void migrateSingleShardJournal() throws IOException {
+    File journalFile = new File(directory, DiskLruCache.JOURNAL_FILE);
+    File journalFileBackup = new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP);
+    if (!fileSystem.exists(journalFile) && !fileSystem.exists(journalFileBackup)) return;
+
+    migrateAll(directory);
+    fileSystem.delete(journalFile);
+    fileSystem.delete(journalFileBackup);
+  }
+
+  /**
+   * Moves the entries of shard directories at or beyond the shard count, left by a cache with more
+   * shards, into the shards and deletes those directories. Shard directories are numbered from 0
+   * without gaps, so the first one without a journal ends the search. They're deleted from the
+   * highest down so an interrupted migration leaves no gaps.
+   */
+  private void migrateRemovedShards() throws IOException {
+    // With one shard the directory itself is shard 0, so every shard directory is left over.
+    int first = shards.length == 1 ? 0 : shards.length;
+    int end = first;
+    while (hasJournal(shardDirectory(end))) {
+      end++;
+    }
+    for (int i = end - 1; i >= first; i--) {
+      File shardDirectory = shardDirectory(i);
+      migrateAll(shardDirectory);
+      fileSystem.deleteContents(shardDirectory);
+      fileSystem.delete(shardDirectory);
+    }
+  }
+
+  /** Moves every entry of the cache in {@code source} into the shard for its key. */
+  private void migrateAll(File source) throws IOException {
+    DiskLruCache old = new DiskLruCache(
+        fileSystem, source, appVersion, valueCount, Long.MAX_VALUE, executor);
+    try {
+      old.initialize();
+      for (Iterator<DiskLruCache.Snapshot> i = old.snapshots(); i.hasNext(); ) {
+        try (DiskLruCache.Snapshot snapshot = i.next()) {
+          copy(snapshot);
+        } catch (IOException e) {
+          Platform.get().log(WARN, "DiskLruCache " + source + " failed to migrate an entry: "
+              + e.getMessage(), e);
+        }
+      }
+      old.evictAll();
+    } finally {
+      old.close();
+    }
+  }
+
+  /**
+   * Moves the entries of shard {@code index} whose keys hash to another shard, which happens when
+   * the shard count changed. Entries that can't be moved are removed.
+   */
+  private void moveMisplacedEntries(int index) throws IOException {
+    DiskLruCache shard = shards[index];
+    List<String> misplaced = new ArrayList<>();
+    synchronized (shard) {
+      for (String key : shard.lruEntries.keySet()) {
+        if (shardIndex(key) != index) misplaced.add(key);
+      }
+    }
+    for (String key : misplaced) {
+      try (DiskLruCache.Snapshot snapshot = shard.get(key)) {
+        if (snapshot != null) copy(snapshot);
+      } catch (IOException e) {
+        Platform.get().log(WARN, "DiskLruCache " + shard.getDirectory()
+            + " failed to migrate an entry: " + e.getMessage(), e);
+      }
+      shard.remove(key);
+    }
+  }
+
+  private void copy(DiskLruCache.Snapshot snapshot) throws IOException {
+    DiskLruCache.Editor editor = shard(snapshot.key()).edit(snapshot.key());
+    if (editor == null) return;
+    try {
+      for (int i = 0; i < valueCount; i++) {
+        try (Source source = snapshot.getSource(i);
+             BufferedSink sink = Okio.buffer(editor.newSink(i))) {
+          sink.writeAll(source);
+        }
+      }
+      editor.commit();
+    } finally {
+      editor.abortUnlessCommitted();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the entry named {@code key}, or null if it doesn't exist is not currently
+   * readable. If a value is returned, it is moved to the head of its shard's LRU queue.
+   */
+  public @Nullable DiskLruCache.Snapshot get(String key) throws IOException {
+    initialize();
+    return shard(key).get(key);
+  }
+
+  /**
+   * Records a read of the entry named {@code key} served from a copy of version {@code
+   * sequenceNumber} of its values. Returns false if that is no longer the entry's current version.
+   * See {@link DiskLruCache#recordRead}.
+   */
+  public boolean recordRead(String key, long sequenceNumber) throws IOException {
+    initialize();
+    return shard(key).recordRead(key, sequenceNumber);
+  }
+
+  /**
+   * Returns an editor for the entry named {@code key}, or null if another edit is in progress.
+   */
+  public @Nullable DiskLruCache.Editor edit(String key) throws IOException {
+    initialize();
+    return shard(key).edit(key);
+  }
+
+  /**
+   * Returns an editor for version {@code sequenceNumber} of the entry named {@code key}, or null if
+   * the entry has changed since or another edit is in progress.
+   */
+  public @Nullable DiskLruCache.Editor edit(String key, long sequenceNumber) throws IOException {
+    initialize();
+    return shard(key).edit(key, sequenceNumber);
+  }
+
+  /**
+   * Drops the entry for {@code key} if it exists and can be removed.
+   *
+   * @return true if an entry was removed.
+   */
+  public boolean remove(String key) throws IOException {
+    initialize();
+    return shard(key).remove(key);
+  }
+
+  /**
+   * Drops the entries whose keys start with {@code prefix}, in every shard.
+   *
+   * @return the number of entries removed.
+   */
+  public int removeKeysWithPrefix(String prefix) throws IOException {
+    initialize();
+    int result = 0;
+    for (DiskLruCache shard : shards) {
+      result += shard.removeKeysWithPrefix(prefix);
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the directory held a journal when this cache was initialized, written by a
+   * cache with this or any other shard count.
+   */
+  public boolean hadJournal() throws IOException {
+    initialize();
+    return hadJournal;
+  }
+
+  private boolean hasJournal(File directory) {
+    return fileSystem.exists(new File(directory, DiskLruCache.JOURNAL_FILE))
+        || fileSystem.exists(new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP));
+  }
+
+  /**
+   * Releases the mapping of an entry's files in {@code mappedFiles} when the entry is replaced,
+   * removed or evicted.
+   */
+  public void setMappedFiles(@Nullable MappedFileCache mappedFiles) {
+    for (DiskLruCache shard : shards) {
+      shard.mappedFiles = mappedFiles;
+    }
+  }
+
+  /** Tells {@code removalListener} the keys of entries removed or evicted from any shard. */
+  public void setRemovalListener(@Nullable DiskLruCache.RemovalListener removalListener) {
+    for (DiskLruCache shard : shards) {
+      shard.removalListener = removalListener;
+    }
+  }
+
+  /** Returns the directory where this cache stores its data. */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /** Returns the maximum number of bytes that this cache should use to store its data. */
+  public synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Changes the maximum number of bytes the cache can store and queues jobs to trim the existing
+   * shards, if necessary.
+   */
+  public synchronized void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    for (int i = 0; i < shards.length; i++) {
+      shards[i].setMaxSize(shardMaxSize(maxSize, i));
+    }
+  }
+
+  /** Returns the number of bytes currently being used to store the values in all shards. */
+  public long size() throws IOException {
+    initialize();
+    long result = 0L;
+    for (DiskLruCache shard : shards) {
+      result += shard.size();
+    }
+    return result;
+  }
+
+  /** Returns true if this cache has been closed. */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /** Force buffered operations to the filesystem. */
+  @Override public void flush() throws IOException {
+    if (!initialized) return;
+    for (DiskLruCache shard : shards) {
+      shard.flush();
+    }
+  }
+
+  /** Closes this cache. Stored values will remain on the filesystem. */
+  @Override public synchronized void close() throws IOException {
+    IOException failure = null;
+    for (DiskLruCache shard : shards) {
+      try {
+        shard.close();
+      } catch (IOException e) {
+        if (failure == null) failure = e;
+      }
+    }
+    closed = true;
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Closes the cache and deletes all of its stored values. This will delete all files in the cache
+   * directory including files that weren't created by the cache.
+   */
+  public void delete() throws IOException {
+    close();
+    fileSystem.deleteContents(directory);
+  }
+
+  /**
+   * Deletes all stored values from the cache. In-flight edits will complete normally but their
+   * values will not be stored.
+   */
+  public void evictAll() throws IOException {
+    initialize();
+    for (DiskLruCache shard : shards) {
+      shard.evictAll();
+    }
+  }
+
+  /**
+   * Returns an iterator over the current entries of every shard, one shard after another. It has
+   * the same guarantees as {@link DiskLruCache#snapshots}.
+   */
+  public Iterator<DiskLruCache.Snapshot> snapshots() throws IOException {
+    initialize();
+    return new Iterator<DiskLruCache.Snapshot>() {
+      int nextShard = 0;
+      Iterator<DiskLruCache.Snapshot> delegate;
+      Iterator<DiskLruCache.Snapshot> removeDelegate;
+
+      @Override public boolean hasNext() {
+        while (delegate == null || !delegate.hasNext()) {
+          if (nextShard == shards.length) return false;
+          try {
+            delegate = shards[nextShard++].snapshots();
+          } catch (IOException | IllegalStateException ignored) {
+            // This shard is unreadable or closed. Skip it.
+            delegate = null;
+          }
+        }
+        return true;
+      }
+
+      @Override public DiskLruCache.Snapshot next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        removeDelegate = delegate;
+        return delegate.next();
+      }
+
+      @Override public void remove() {
+        if (removeDelegate == null) throw new IllegalStateException("remove() before next()");
+        removeDelegate.remove();
+        removeDelegate = null;
+      }
+    };
+  }
+}
@@ -203,6 +203,11 @@ final class Relay {
     return file == null;
   }
 
+  /** Returns true once all of upstream has been copied to the file. */
+  synchronized boolean isComplete() {
+    return complete;
+  }
+
   public ByteString metadata() {
     return metadata;
   }
@@ -345,17 +350,27 @@ final class Relay {
       fileOperator = null;
 
       RandomAccessFile fileToClose = null;
+      Source upstreamToClose = null;
       synchronized (Relay.this) {
         sourceCount--;
         if (sourceCount == 0) {
           fileToClose = file;
           file = null;
+
+          // Nobody is left to read the rest of upstream. Release it.
+          if (!complete) {
+            upstreamToClose = upstream;
+            upstream = null;
+          }
         }
       }
 
       if (fileToClose != null) {
         closeQuietly(fileToClose);
       }
+      if (upstreamToClose != null) {
+        closeQuietly(upstreamToClose);
+      }
     }
   }
 }
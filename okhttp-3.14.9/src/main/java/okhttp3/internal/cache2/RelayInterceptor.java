@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.http.RealResponseBody;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Shares the network response of a GET with concurrent calls for the same URL and headers. The
+ * first call fetches the response and the others wait for its headers, then read its body through
+ * a {@link Relay} while it downloads. Calls that arrive after the body has downloaded completely
+ * make their own request.
+ *
+ * <p>Only complete 200 responses of at least {@code minimumSize} bytes are shared. If the first
+ * call fails or gets another response, each waiting call makes its own request.
+ */
+public final class RelayInterceptor implements Interceptor {
+  /** The number of recently downloaded bytes each relay keeps in memory. */
+  static final long RELAY_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * How often a waiting call checks whether it was canceled. Canceling a call, which is also what
+   * its call timeout does, doesn't notify this interceptor.
+   */
+  static final long CANCEL_POLL_MILLIS = 100L;
+
+  private final File directory;
+  private final long minimumSize;
+
+  /** Downloads that other calls may join, by URL. Guarded by 'this'. */
+  private final Map<String, Download> downloads = new LinkedHashMap<>();
+  private int relayCount;
+  private int joinCount;
+
+  public RelayInterceptor(File directory, long minimumSize) {
+    this.directory = directory;
+    this.minimumSize = minimumSize;
+  }
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!request.method().equals("GET") || request.header("Range") != null) {
+      return chain.proceed(request);
+    }
+
+    String key = request.url().toString();
+    Download download;
+    boolean first = false;
+    synchronized (this) {
+      download = downloads.get(key);
+      if (download == null) {
+        download = new Download(key, request.headers());
+        downloads.put(key, download);
+        first = true;
+      }
+    }
+    return first ? fetch(chain, download) : join(chain, download);
+  }
+
+  /** Makes the request for {@code download} and shares the response if it qualifies. */
+  private Response fetch(Chain chain, Download download) throws IOException {
+    Response response;
+    try {
+      response = chain.proceed(chain.request());
+    } catch (IOException | RuntimeException e) {
+      published(download, null, null);
+      throw e;
+    }
+
+    long contentLength = response.body().contentLength();
+    if (response.code() != 200
+        || response.header("Content-Range") != null
+        || (contentLength != -1L && contentLength < minimumSize)) {
+      published(download, null, null);
+      return response;
+    }
+
+    Relay relay;
+    Source source;
+    try {
+      directory.mkdirs();
+      download.file = File.createTempFile("relay", ".tmp", directory);
+      relay = Relay.edit(
+          download.file, response.body().source(), ByteString.EMPTY, RELAY_BUFFER_SIZE);
+      source = relay.newSource();
+    } catch (IOException e) {
+      if (download.file != null) download.file.delete();
+      published(download, null, null);
+      return response;
+    }
+
+    download.contentLength = contentLength;
+    Response shared = response.newBuilder().body(null).build();
+    published(download, shared, relay);
+    return withBody(response, download, source);
+  }
+
+  /** Waits for the response of {@code download} and reads it, or makes a separate request. */
+  private Response join(Chain chain, Download download) throws IOException {
+    Request request = chain.request();
+    if (!download.requestHeaders.equals(request.headers())) {
+      return chain.proceed(request);
+    }
+
+    synchronized (this) {
+      while (!download.published) {
+        if (chain.call().isCanceled()) throw new InterruptedIOException("canceled");
+        try {
+          wait(CANCEL_POLL_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt(); // Retain interrupted status.
+          throw new InterruptedIOException();
+        }
+      }
+      if (chain.call().isCanceled()) throw new InterruptedIOException("canceled");
+    }
+
+    Relay relay = download.relay;
+    if (relay == null || relay.isComplete()) {
+      forget(download);
+      return chain.proceed(request);
+    }
+    Source source = relay.newSource();
+    if (source == null) return chain.proceed(request); // The relay closed.
+
+    synchronized (this) {
+      joinCount++;
+    }
+    Response response = download.response.newBuilder().request(request).build();
+    return withBody(response, download, source);
+  }
+
+  private Response withBody(Response response, Download download, Source relaySource) {
+    Source source = new ForwardingSource(relaySource) {
+      @Override public void close() throws IOException {
+        super.close();
+        // The last reader deletes the file.
+        if (download.relay.isClosed()) {
+          forget(download);
+          download.file.delete();
+        }
+      }
+    };
+    String contentType = response.header("Content-Type");
+    return response.newBuilder()
+        .body(new RealResponseBody(contentType, download.contentLength, Okio.buffer(source)))
+        .build();
+  }
+
+  private synchronized void published(
+      Download download, @Nullable Response response, @Nullable Relay relay) {
+    download.response = response;
+    download.relay = relay;
+    download.published = true;
+    if (relay != null) {
+      relayCount++;
+    } else {
+      downloads.remove(download.key);
+    }
+    notifyAll();
+  }
+
+  /** Stops new calls from joining {@code download}. */
+  private synchronized void forget(Download download) {
+    if (downloads.get(download.key) == download) downloads.remove(download.key);
+  }
+
+  /** Returns the number of responses downloaded through a relay that other calls could join. */
+  public synchronized int relayCount() {
+    return relayCount;
+  }
+
+  /** Returns the number of calls that read the response of a concurrent call. */
+  public synchronized int joinCount() {
+    return joinCount;
+  }
+
+  /** A response being fetched for the first call and shared with others. */
+  static final class Download {
+    final String key;
+    final Headers requestHeaders;
+
+    // Guarded by RelayInterceptor.this until published, then read-only.
+    boolean published;
+    @Nullable Response response;
+    @Nullable Relay relay;
+    @Nullable File file;
+    long contentLength = -1L;
+
+    Download(String key, Headers requestHeaders) {
+      this.key = key;
+      this.requestHeaders = requestHeaders;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.connection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Route;
+import okhttp3.internal.NamedRunnable;
+import okhttp3.internal.Util;
+
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Connects to the first of several routes to answer, following RFC 8305 (Happy Eyeballs v2).
+ * Attempts start one at a time, {@link #ATTEMPT_DELAY_NANOS} apart or as soon as the previous
+ * attempt fails, and run concurrently. The first connection to complete its TCP and TLS handshakes
+ * wins; the other attempts are canceled and their connections closed.
+ *
+ * <p>Routes alternate between IPv6 and IPv4 addresses, starting with the family of the first
+ * route unless the {@link RouteDatabase} recorded that family's last attempt as a failure.
+ *
+ * <p>Attempts run on their own threads, so the call's {@link EventListener} may receive connect
+ * events for different routes concurrently, and may receive {@code connectFailed} for canceled
+ * attempts after the call has proceeded with the winner.
+ */
+final class ConnectRace {
+  /** The delay between starting attempts recommended by RFC 8305. */
+  static final long ATTEMPT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+  private static final Executor executor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<>(), Util.threadFactory("OkHttp ConnectRace", true));
+
+  private final RealConnectionPool connectionPool;
+  private final List<Route> routes;
+  private final Call call;
+  private final EventListener eventListener;
+
+  // Guarded by 'this'.
+  private final List<RealConnection> running = new ArrayList<>();
+  private final Deque<RealConnection> completed = new ArrayDeque<>();
+  private final List<RouteException> failures = new ArrayList<>();
+  private @Nullable RuntimeException crash;
+  private boolean done;
+
+  ConnectRace(RealConnectionPool connectionPool, List<Route> routes, Call call,
+      EventListener eventListener) {
+    this.connectionPool = connectionPool;
+    this.routes = order(routes, connectionPool.routeDatabase);
+    this.call = call;
+    this.eventListener = eventListener;
+  }
+
+  /**
+   * Returns {@code routes} alternating between address families, starting with the family of the
+   * first route unless it has recently failed and another family has not.
+   */
+  static List<Route> order(List<Route> routes, RouteDatabase routeDatabase) {
+    List<Route> preferred = new ArrayList<>();
+    List<Route> other = new ArrayList<>();
+    Class<?> preferredFamily = RouteDatabase.family(routes.get(0));
+    for (Route route : routes) {
+      (RouteDatabase.family(route) == preferredFamily ? preferred : other).add(route);
+    }
+    if (!other.isEmpty() && routeDatabase.shouldPostponeFamily(preferred.get(0))
+        && !routeDatabase.shouldPostponeFamily(other.get(0))) {
+      List<Route> swap = preferred;
+      preferred = other;
+      other = swap;
+    }
+
+    List<Route> result = new ArrayList<>(routes.size());
+    for (int i = 0; i < preferred.size() || i < other.size(); i++) {
+      if (i < preferred.size()) result.add(preferred.get(i));
+      if (i < other.size()) result.add(other.get(i));
+    }
+    return result;
+  }
+
+  /** Returns a connected connection to one of the routes, or throws if they all failed. */
+  RealConnection connect(int connectTimeout, int readTimeout, int writeTimeout,
+      int pingIntervalMillis, boolean connectionRetryEnabled) throws IOException {
+    RealConnection winner;
+    try {
+      synchronized (this) {
+        int nextRoute = 0;
+        long nextAttemptAtNanos = System.nanoTime();
+        while (true) {
+          if (done) throw new IOException("Canceled");
+          if (crash != null) throw crash;
+
+          long now = System.nanoTime();
+          if (nextRoute < routes.size() && (running.isEmpty() || now >= nextAttemptAtNanos)) {
+            startAttempt(routes.get(nextRoute++), connectTimeout, readTimeout, writeTimeout,
+                pingIntervalMillis, connectionRetryEnabled);
+            nextAttemptAtNanos = now + ATTEMPT_DELAY_NANOS;
+          }
+
+          RealConnection connection = completed.poll();
+          if (connection != null) {
+            running.remove(connection);
+            if (connection.protocol() != null) {
+              winner = connection;
+              break;
+            }
+            nextAttemptAtNanos = now; // Start the next attempt without waiting.
+            continue;
+          }
+
+          if (running.isEmpty()) {
+            RouteException failure = failures.get(0);
+            for (int i = 1; i < failures.size(); i++) {
+              failure.addConnectException(failures.get(i).getFirstConnectException());
+            }
+            throw failure;
+          }
+
+          if (nextRoute < routes.size()) {
+            TimeUnit.NANOSECONDS.timedWait(this, nextAttemptAtNanos - now);
+          } else {
+            wait();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (IOException | RuntimeException e) {
+      cancel();
+      throw e;
+    }
+
+    finish(winner);
+    return winner;
+  }
+
+  private void startAttempt(Route route, int connectTimeout, int readTimeout, int writeTimeout,
+      int pingIntervalMillis, boolean connectionRetryEnabled) {
+    assert Thread.holdsLock(this);
+    RealConnection connection = new RealConnection(connectionPool, route);
+    running.add(connection);
+    executor.execute(new NamedRunnable("OkHttp connect %s", route.socketAddress()) {
+      @Override protected void execute() {
+        RouteException failure = null;
+        RuntimeException crash = null;
+        try {
+          connection.connect(connectTimeout, readTimeout, writeTimeout, pingIntervalMillis,
+              connectionRetryEnabled, call, eventListener);
+        } catch (RouteException e) {
+          failure = e;
+        } catch (RuntimeException e) {
+          crash = e;
+        }
+
+        boolean discard;
+        synchronized (ConnectRace.this) {
+          discard = done;
+          if (!discard) {
+            if (failure != null) failures.add(failure);
+            if (crash != null && ConnectRace.this.crash == null) ConnectRace.this.crash = crash;
+            completed.add(connection);
+            ConnectRace.this.notifyAll();
+          }
+        }
+
+        if (discard) {
+          // The race is over. Discard this connection.
+          if (failure == null && crash == null) closeQuietly(connection.socket());
+        } else if (failure != null) {
+          connectionPool.connectFailed(route, failure.getFirstConnectException());
+        }
+      }
+    });
+  }
+
+  /** Ends the race with {@code winner}, canceling the other attempts. */
+  private void finish(@Nullable RealConnection winner) {
+    List<RealConnection> losers;
+    List<RealConnection> unused;
+    synchronized (this) {
+      done = true;
+      losers = new ArrayList<>(running);
+      unused = new ArrayList<>(completed);
+      running.clear();
+      completed.clear();
+      notifyAll();
+    }
+    for (RealConnection connection : unused) {
+      if (connection != winner && connection.protocol() != null) {
+        closeQuietly(connection.socket());
+      }
+    }
+    for (RealConnection loser : losers) {
+      loser.cancel();
+
+      // An attempt that started first but hadn't connected yet lost to the other family.
+      if (winner != null
+          && routes.indexOf(loser.route()) < routes.indexOf(winner.route())
+          && RouteDatabase.family(loser.route()) != RouteDatabase.family(winner.route())) {
+        connectionPool.routeDatabase.lostRace(loser.route());
+      }
+    }
+  }
+
+  /** Cancels all attempts. This is safe to call from any thread. */
+  void cancel() {
+    finish(null);
+  }
+}
@@ -17,6 +17,7 @@ package okhttp3.internal.connection;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 import okhttp3.Address;
 import okhttp3.Call;
@@ -27,6 +28,7 @@ import okhttp3.Route;
 import okhttp3.internal.Util;
 import okhttp3.internal.http.ExchangeCodec;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static okhttp3.internal.Util.closeQuietly;
 
 /**
@@ -62,6 +64,7 @@ final class ExchangeFinder {
   // State guarded by connectionPool.
   private final RouteSelector routeSelector;
   private RealConnection connectingConnection;
+  private ConnectRace connectRace;
   private boolean hasStreamFailure;
   private Route nextRouteToTry;
 
@@ -83,11 +86,15 @@ final class ExchangeFinder {
     int writeTimeout = chain.writeTimeoutMillis();// 写超时时间
     int pingIntervalMillis = client.pingIntervalMillis();// ping超时时间
     boolean connectionRetryEnabled = client.retryOnConnectionFailure();// 连接失败，是否重试
+    boolean fastFallback = client.fastFallback();// 是否同时尝试多个IP地址
+    boolean certificateCoalescing = client.certificateCoalescing();// 是否只凭证书合并连接
+    long pingAfterIdleNanos = MILLISECONDS.toNanos(client.pingBeforeReuseMillis());// 空闲多久后复用前先ping
 
     try {
         // 找到一个健康的连接
       RealConnection resultConnection = findHealthyConnection(connectTimeout, readTimeout,
-          writeTimeout, pingIntervalMillis, connectionRetryEnabled, doExtensiveHealthChecks);
+          writeTimeout, pingIntervalMillis, connectionRetryEnabled, fastFallback,
+          certificateCoalescing, pingAfterIdleNanos, doExtensiveHealthChecks);
         //利用连接实例化ExchangeCodec对象，如果是HTTP/2返回Http2ExchangeCodec，否则返回Http1ExchangeCodec
       return resultConnection.newCodec(client, chain);
     } catch (RouteException e) {
@@ -106,10 +113,11 @@ final class ExchangeFinder {
    */
   private RealConnection findHealthyConnection(int connectTimeout, int readTimeout,
       int writeTimeout, int pingIntervalMillis, boolean connectionRetryEnabled,
+      boolean fastFallback, boolean certificateCoalescing, long pingAfterIdleNanos,
       boolean doExtensiveHealthChecks) throws IOException {
     while (true) {// 循环查找，直到找到一个健康的连接
       RealConnection candidate = findConnection(connectTimeout, readTimeout, writeTimeout,
-          pingIntervalMillis, connectionRetryEnabled);
+          pingIntervalMillis, connectionRetryEnabled, fastFallback, certificateCoalescing);
 
       // If this is a brand new connection, we can skip the extensive health checks.
       synchronized (connectionPool) {
@@ -120,7 +128,7 @@ final class ExchangeFinder {
 
       // Do a (potentially slow) check to confirm that the pooled connection is still good. If it
       // isn't, take it out of the pool and start again.
-      if (!candidate.isHealthy(doExtensiveHealthChecks)) {
+      if (!candidate.isHealthy(doExtensiveHealthChecks, pingAfterIdleNanos, call)) {
         //  标记连接不可用
         candidate.noNewExchanges();
         continue;// 如果连接不可用，则继续循环查找下一个可用的连接
@@ -137,7 +145,8 @@ final class ExchangeFinder {
    * then the pool, finally building a new connection.
    */
   private RealConnection findConnection(int connectTimeout, int readTimeout, int writeTimeout,
-      int pingIntervalMillis, boolean connectionRetryEnabled) throws IOException {
+      int pingIntervalMillis, boolean connectionRetryEnabled, boolean fastFallback,
+      boolean certificateCoalescing) throws IOException {
     boolean foundPooledConnection = false;// 找到连接池连接
     RealConnection result = null;// 找到的连接
     Route selectedRoute = null;
@@ -170,7 +179,9 @@ final class ExchangeFinder {
       if (result == null) {
         // 1. 第一次尝试从缓冲池里面获取RealConnection(Socket的包装类)
         // Attempt to get a connection from the pool.
-        if (connectionPool.transmitterAcquirePooledConnection(address, transmitter, null, false)) {
+        // 对于已知可合并的域名，这里不用DNS解析就能复用其它域名的http2.0连接
+        if (connectionPool.transmitterAcquirePooledConnection(
+            address, transmitter, null, false, certificateCoalescing)) {
           foundPooledConnection = true;// 从连接池找到可用连接
           result = transmitter.connection;// 可用的连接
         } else if (nextRouteToTry != null) {
@@ -222,7 +233,7 @@ final class ExchangeFinder {
         // the pool. This could match due to connection coalescing.
         routes = routeSelection.getAll();
         if (connectionPool.transmitterAcquirePooledConnection(
-            address, transmitter, routes, false)) {
+            address, transmitter, routes, false, certificateCoalescing)) {
           foundPooledConnection = true;
           result = transmitter.connection;
         }
@@ -233,12 +244,24 @@ final class ExchangeFinder {
         // 4.前面我们拿到的是一批IP，这里通过routeSelection获取到其中一个IP，Route是proxy和InetAddress的包装类
         if (selectedRoute == null) {// 选择的路由
           selectedRoute = routeSelection.next();
+
+          // 有多个IP地址时，交错地同时连接它们，先连上的胜出（Happy Eyeballs）
+          if (fastFallback && routeSelection.hasNext()) {
+            List<Route> raceRoutes = new ArrayList<>();
+            raceRoutes.add(selectedRoute);
+            while (routeSelection.hasNext()) {
+              raceRoutes.add(routeSelection.next());
+            }
+            connectRace = new ConnectRace(connectionPool, raceRoutes, call, eventListener);
+          }
         }
         // 5.创建一个连接：用新的route创建RealConnection，注意这里还没有尝试连接.
         // Create a connection and assign it to this allocation immediately. This makes it possible
         // for an asynchronous cancel() to interrupt the handshake we're about to do.
-        result = new RealConnection(connectionPool, selectedRoute);
-        connectingConnection = result;
+        if (connectRace == null) {
+          result = new RealConnection(connectionPool, selectedRoute);
+          connectingConnection = result;
+        }
       }
     }
     // 6.如果第二次从connectionPool获取到Connection可以直接返回了，因为连接池中的连接是已经和服务器建立连接的
@@ -251,8 +274,25 @@ final class ExchangeFinder {
     // 7.只有新创建的连接，才会执行握手操作，如果是复用的连接，则不用重复握手。
     // 执行连接：即TCP和TLS握手连接，域名校验，证书校验等。这是一个阻塞操作。在这个过程中进行证书校验。
     // Do TCP + TLS handshakes. This is a blocking operation.
-    result.connect(connectTimeout, readTimeout, writeTimeout, pingIntervalMillis,
-        connectionRetryEnabled, call, eventListener);
+    if (connectRace != null) {
+      try {
+        result = connectRace.connect(connectTimeout, readTimeout, writeTimeout,
+            pingIntervalMillis, connectionRetryEnabled);
+      } finally {
+        synchronized (connectionPool) {
+          connectRace = null;
+        }
+      }
+      selectedRoute = result.route();
+    } else {
+      try {
+        result.connect(connectTimeout, readTimeout, writeTimeout, pingIntervalMillis,
+            connectionRetryEnabled, call, eventListener);
+      } catch (RouteException e) {
+        connectionPool.connectFailed(result.route(), e.getFirstConnectException());
+        throw e;
+      }
+    }
 
     connectionPool.routeDatabase.connected(result.route());
 
@@ -263,7 +303,8 @@ final class ExchangeFinder {
       //意思是，如果本次是http2.0，那么为了保证 多路复用性，（因为上面的握手操作不是线程安全）会再次确认连接池中此时是否已有同样连接
       // Last attempt at connection coalescing, which only occurs if we attempted multiple
       // concurrent connections to the same host.
-      if (connectionPool.transmitterAcquirePooledConnection(address, transmitter, routes, true)) {
+      if (connectionPool.transmitterAcquirePooledConnection(
+          address, transmitter, routes, true, certificateCoalescing)) {
         // We lost the race! Close the connection we created and return the pooled connection.
         // 如果获取到，就把新创建的连接设置为不可用
         result.noNewExchanges = true;
@@ -290,6 +331,12 @@ final class ExchangeFinder {
     return connectingConnection;
   }
 
+  /** Returns the race of connection attempts in flight, or null if there isn't one. */
+  ConnectRace connectRace() {
+    assert (Thread.holdsLock(connectionPool));
+    return connectRace;
+  }
+
   void trackFailure() {
     assert (!Thread.holdsLock(connectionPool));
     synchronized (connectionPool) {
@@ -17,6 +17,7 @@
 package okhttp3.internal.connection;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.ref.Reference;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
@@ -104,6 +105,12 @@ public final class RealConnection extends Http2Connection.Listener implements Co
    */
   boolean noNewExchanges;
 
+  /**
+   * If true, this connection may not be used for hosts other than its own, because a coalesced
+   * request was rejected as misdirected. Guarded by {@link #connectionPool}.
+   */
+  boolean noCoalescedConnections;
+
   /**
    * The number of times there was a problem establishing a stream that could be due to route
    * chosen. Guarded by {@link #connectionPool}.
@@ -139,6 +146,15 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     }
   }
 
+  /** Prevent this connection from carrying exchanges for hosts other than its own. */
+  public void noCoalescedConnections() {
+    assert (!Thread.holdsLock(connectionPool));
+    synchronized (connectionPool) {
+      noCoalescedConnections = true;
+      connectionPool.forgetCoalescedHosts(route.socketAddress());
+    }
+  }
+
   static RealConnection testConnection(
       RealConnectionPool connectionPool, Route route, Socket socket, long idleAtNanos) {
     RealConnection result = new RealConnection(connectionPool, route);
@@ -517,6 +533,15 @@ public final class RealConnection extends Http2Connection.Listener implements Co
    * {@code route} is the resolved route for a connection.
    */
   boolean isEligible(Address address, @Nullable List<Route> routes) {
+    return isEligible(address, routes, false);
+  }
+
+  /**
+   * Returns true if this connection can carry a stream allocation to {@code address}. If {@code
+   * trustCertificate} is true an HTTP/2 connection may be coalesced onto without sharing an IP
+   * address with {@code routes}: the server is trusted to serve every host its certificate covers.
+   */
+  boolean isEligible(Address address, @Nullable List<Route> routes, boolean trustCertificate) {
     // If this connection is not accepting new exchanges, we're done.
     // 如果当前连接承载的数据流到达最大值或者当前连接不可用，则当前连接不可以承载新的数据流，返回false
     if (transmitters.size() >= allocationLimit || noNewExchanges) return false;
@@ -544,10 +569,14 @@ public final class RealConnection extends Http2Connection.Listener implements Co
 
 
     // 1. This connection must be HTTP/2.
-    if (http2Connection == null) return false;
+    if (http2Connection == null || noCoalescedConnections) return false;
 
-    // 2. The routes must share an IP address.
-    if (routes == null || !routeMatchesAny(routes)) return false;
+    // 2. The routes must share an IP address, unless the certificate is trusted on its own.
+    if (trustCertificate) {
+      if (route.proxy().type() != Proxy.Type.DIRECT) return false;
+    } else if (routes == null || !routeMatchesAny(routes)) {
+      return false;
+    }
 
     // 3. This connection's server certificate's must cover the new host.
     if (address.hostnameVerifier() != OkHostnameVerifier.INSTANCE) return false;
@@ -670,6 +699,32 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     return true;
   }
 
+  /**
+   * Returns true if this connection is ready to host new streams. An HTTP/2 connection that hasn't
+   * read a frame for {@code pingAfterIdleNanos} must first answer a ping, which catches connections
+   * silently dropped by a NAT or firewall before a call hangs on them. Use 0 to skip the ping.
+   *
+   * <p>The wait for the pong ends early if {@code call} is canceled or times out.
+   */
+  boolean isHealthy(boolean doExtensiveChecks, long pingAfterIdleNanos, Call call)
+      throws IOException {
+    if (!isHealthy(doExtensiveChecks)) return false;
+    if (http2Connection == null || pingAfterIdleNanos == 0L) return true;
+    if (System.nanoTime() - http2Connection.lastReadNanos() < pingAfterIdleNanos) return true;
+
+    // 空闲太久的http2.0连接可能已被NAT悄悄断开，复用之前先ping一下
+    boolean healthy;
+    try {
+      healthy = http2Connection.pingAndAwaitPong(call);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt(); // Retain interrupted status.
+      throw new InterruptedIOException();
+    }
+    if (call.isCanceled()) throw new IOException("Canceled");
+    connectionPool.pingedBeforeReuse(healthy);
+    return healthy;
+  }
+
   /** Refuse incoming streams. */
   @Override public void onStream(Http2Stream stream) throws IOException {
     stream.close(ErrorCode.REFUSED_STREAM, null);
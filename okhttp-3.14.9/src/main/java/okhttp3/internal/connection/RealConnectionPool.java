@@ -18,23 +18,33 @@ package okhttp3.internal.connection;
 
 import java.io.IOException;
 import java.lang.ref.Reference;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import okhttp3.Address;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
 import okhttp3.Route;
+import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
 import okhttp3.internal.connection.Transmitter.TransmitterReference;
 import okhttp3.internal.platform.Platform;
 
+import static okhttp3.internal.Util.addSuppressedIfPossible;
 import static okhttp3.internal.Util.closeQuietly;
 
 public final class RealConnectionPool {
@@ -68,9 +78,71 @@ public final class RealConnectionPool {
     }
   };
 
-  private final Deque<RealConnection> connections = new ArrayDeque<>();
+  /** How long to wait before retrying an address whose minimum idle connections failed to open. */
+  private static final long IDLE_RETRY_DELAY_NS = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * 维持最小空闲连接数：空闲连接快过期之前提前建立新连接
+   * Opens connections for addresses with a minimum idle count. There will be at most a single
+   * thread running per connection pool.
+   */
+  private final Runnable idleMaintenanceRunnable = () -> {
+    while (true) {
+      long waitNanos = maintainIdleConnections(System.nanoTime());
+      if (waitNanos == -1) return;
+      if (waitNanos > 0) {
+        long waitMillis = waitNanos / 1000000L;
+        waitNanos -= (waitMillis * 1000000L);
+        synchronized (RealConnectionPool.this) {
+          try {
+            RealConnectionPool.this.wait(waitMillis, (int) waitNanos);
+          } catch (InterruptedException ignored) {
+          }
+        }
+      }
+    }
+  };
+
+  /** All pooled connections in insertion order. Used for cleanup and eviction. */
+  private final Set<RealConnection> connections = new LinkedHashSet<>();
+
+  /**
+   * Pooled connections grouped by the exact address they were created for. Acquiring a connection
+   * for an address only inspects its own group instead of every connection in the pool.
+   */
+  private final Map<Address, Deque<RealConnection>> connectionsByAddress = new HashMap<>();
+
+  /**
+   * Pooled HTTP/2 connections on direct routes grouped by their resolved socket address. These are
+   * the only connections that can be coalesced onto from another host, so lookups with resolved
+   * routes only inspect connections that share one of those IP addresses.
+   */
+  private final Map<InetSocketAddress, List<RealConnection>> multiplexedConnectionsBySocketAddress
+      = new HashMap<>();
+
+  /** The most hosts remembered in {@link #coalescedHosts}. */
+  static final int MAX_COALESCED_HOSTS = 256;
+
+  /**
+   * 已知可以合并的域名：记住与之共享IP的http2.0连接的地址，以后不用DNS解析就能复用
+   * Hosts that were coalesced onto an HTTP/2 connection after their resolved routes shared its IP
+   * address, with that address. Later calls to these hosts look for a connection to the same IP
+   * address before making a DNS lookup. Entries are in access order, least recently used first.
+   */
+  private final LinkedHashMap<String, InetSocketAddress> coalescedHosts =
+      new LinkedHashMap<>(0, 0.75f, true);
+
+  /**
+   * Addresses that keep a minimum number of idle connections, with the client whose settings are
+   * used to open them.
+   */
+  private final Map<Address, IdlePolicy> idlePolicies = new LinkedHashMap<>();
+
   final RouteDatabase routeDatabase = new RouteDatabase();
   boolean cleanupRunning;
+  boolean idleMaintenanceRunning;
+  private int reusePingCount;
+  private int deadConnectionCount;
 
   public RealConnectionPool(int maxIdleConnections, long keepAliveDuration, TimeUnit timeUnit) {
     this.maxIdleConnections = maxIdleConnections;
@@ -94,6 +166,21 @@ public final class RealConnectionPool {
     return connections.size();
   }
 
+  /** Returns the number of idle HTTP/2 connections that were pinged before they were reused. */
+  public synchronized int reusePingCount() {
+    return reusePingCount;
+  }
+
+  /** Returns the number of pinged connections that didn't answer in time and were discarded. */
+  public synchronized int deadConnectionCount() {
+    return deadConnectionCount;
+  }
+
+  synchronized void pingedBeforeReuse(boolean healthy) {
+    reusePingCount++;
+    if (!healthy) deadConnectionCount++;
+  }
+
   /**
    * 试图得到一个被回收的连接，如果有被回收的连接，则返回true
    * Attempts to acquire a recycled connection to {@code address} for {@code transmitter}. Returns
@@ -101,23 +188,103 @@ public final class RealConnectionPool {
    *
    * <p>If {@code routes} is non-null these are the resolved routes (ie. IP addresses) for the
    * connection. This is used to coalesce related domains to the same HTTP/2 connection, such as
-   * {@code square.com} and {@code square.ca}.
+   * {@code square.com} and {@code square.ca}. If {@code routes} is null, only HTTP/2 connections
+   * that a call to the same host has already been coalesced onto qualify, unless {@code
+   * certificateCoalescing} permits any HTTP/2 connection whose certificate covers the host.
    */
   boolean transmitterAcquirePooledConnection(Address address, Transmitter transmitter,
-      @Nullable List<Route> routes, boolean requireMultiplexed) {
+      @Nullable List<Route> routes, boolean requireMultiplexed, boolean certificateCoalescing) {
     assert (Thread.holdsLock(this));
-    for (RealConnection connection : connections) {
-      // 多路复用，即是否是http2.0
-      if (requireMultiplexed && !connection.isMultiplexed()) continue;
-      // 连接是否可以承载指定地址的数据流
-      if (!connection.isEligible(address, routes)) continue;
-      // 从连接池中获取一个可用的连接，把可用的连接设置给发射器
-      transmitter.acquireConnectionNoEvents(connection);
-      return true;
+    // 先从相同地址的连接中查找，大部分情况下在这里就能找到
+    // Fast path: connections created for exactly this address.
+    Deque<RealConnection> sameAddress = connectionsByAddress.get(address);
+    if (sameAddress != null) {
+      for (RealConnection connection : sameAddress) {
+        // 多路复用，即是否是http2.0
+        if (requireMultiplexed && !connection.isMultiplexed()) continue;
+        // 连接是否可以承载指定地址的数据流
+        if (!connection.isEligible(address, routes)) continue;
+        // 从连接池中获取一个可用的连接，把可用的连接设置给发射器
+        transmitter.acquireConnectionNoEvents(connection);
+        // 空闲连接被占用，唤醒维护线程补充空闲连接
+        if (idlePolicies.containsKey(address)) notifyAll();
+        return true;
+      }
+    }
+
+    // 连接合并：只有已解析出IP的http2.0连接才可能被其它域名复用
+    // Coalescing: only HTTP/2 connections that share one of the resolved IP addresses qualify.
+    if (routes == null) {
+      return acquireCoalescedConnection(address, transmitter, certificateCoalescing);
+    }
+    for (int i = 0, size = routes.size(); i < size; i++) {
+      Route route = routes.get(i);
+      if (route.proxy().type() != Proxy.Type.DIRECT) continue;
+      List<RealConnection> candidates =
+          multiplexedConnectionsBySocketAddress.get(route.socketAddress());
+      if (candidates == null) continue;
+      for (int j = 0, count = candidates.size(); j < count; j++) {
+        RealConnection connection = candidates.get(j);
+        if (!connection.isEligible(address, routes)) continue;
+        transmitter.acquireConnectionNoEvents(connection);
+        rememberCoalescedHost(address.url().host(), connection);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 不做DNS解析的连接合并：先找已知共享IP的连接，再按证书查找所有http2.0连接
+   * Coalesces onto an HTTP/2 connection before the routes of {@code address} are resolved. The
+   * host's remembered IP address is tried first, then if {@code certificateCoalescing} is true
+   * every HTTP/2 connection whose certificate covers the host.
+   */
+  private boolean acquireCoalescedConnection(
+      Address address, Transmitter transmitter, boolean certificateCoalescing) {
+    String host = address.url().host();
+    InetSocketAddress socketAddress = coalescedHosts.get(host);
+    if (socketAddress != null) {
+      List<RealConnection> candidates = multiplexedConnectionsBySocketAddress.get(socketAddress);
+      if (candidates != null) {
+        for (int i = 0, size = candidates.size(); i < size; i++) {
+          RealConnection connection = candidates.get(i);
+          if (!connection.isEligible(address, null, true)) continue;
+          transmitter.acquireConnectionNoEvents(connection);
+          return true;
+        }
+      }
+    }
+
+    if (!certificateCoalescing) return false;
+    for (List<RealConnection> candidates : multiplexedConnectionsBySocketAddress.values()) {
+      for (int i = 0, size = candidates.size(); i < size; i++) {
+        RealConnection connection = candidates.get(i);
+        if (!connection.isEligible(address, null, true)) continue;
+        transmitter.acquireConnectionNoEvents(connection);
+        return true;
+      }
     }
     return false;
   }
 
+  private void rememberCoalescedHost(String host, RealConnection connection) {
+    assert (Thread.holdsLock(this));
+    if (host.equals(connection.route().address().url().host())) return;
+    coalescedHosts.put(host, connection.route().socketAddress());
+    if (coalescedHosts.size() > MAX_COALESCED_HOSTS) {
+      coalescedHosts.remove(coalescedHosts.keySet().iterator().next());
+    }
+  }
+
+  /** Forgets the hosts coalesced onto {@code socketAddress}, so their next calls resolve them. */
+  void forgetCoalescedHosts(InetSocketAddress socketAddress) {
+    assert (Thread.holdsLock(this));
+    for (Iterator<InetSocketAddress> i = coalescedHosts.values().iterator(); i.hasNext(); ) {
+      if (socketAddress.equals(i.next())) i.remove();
+    }
+  }
+
   void put(RealConnection connection) {
     assert (Thread.holdsLock(this));
       // 看到在add之前 使用线程池executor执行了cleanupRunnable，意思是清理连接，为啥要清理呢？
@@ -126,7 +293,47 @@ public final class RealConnectionPool {
       cleanupRunning = true;
       executor.execute(cleanupRunnable);
     }
-    connections.add(connection);
+    // 维护线程在连接池为空时会退出，有新连接时再启动
+    startIdleMaintenance();
+    if (!connections.add(connection)) return;
+
+    Address address = connection.route().address();
+    Deque<RealConnection> sameAddress = connectionsByAddress.get(address);
+    if (sameAddress == null) {
+      sameAddress = new ArrayDeque<>();
+      connectionsByAddress.put(address, sameAddress);
+    }
+    sameAddress.add(connection);
+
+    if (connection.isMultiplexed() && connection.route().proxy().type() == Proxy.Type.DIRECT) {
+      InetSocketAddress socketAddress = connection.route().socketAddress();
+      List<RealConnection> multiplexed = multiplexedConnectionsBySocketAddress.get(socketAddress);
+      if (multiplexed == null) {
+        multiplexed = new ArrayList<>(2);
+        multiplexedConnectionsBySocketAddress.put(socketAddress, multiplexed);
+      }
+      multiplexed.add(connection);
+    }
+  }
+
+  /** Removes {@code connection} from the pool and its indexes. */
+  private void remove(RealConnection connection) {
+    assert (Thread.holdsLock(this));
+    if (!connections.remove(connection)) return;
+
+    Address address = connection.route().address();
+    Deque<RealConnection> sameAddress = connectionsByAddress.get(address);
+    if (sameAddress != null) {
+      sameAddress.remove(connection);
+      if (sameAddress.isEmpty()) connectionsByAddress.remove(address);
+    }
+
+    InetSocketAddress socketAddress = connection.route().socketAddress();
+    List<RealConnection> multiplexed = multiplexedConnectionsBySocketAddress.get(socketAddress);
+    if (multiplexed != null) {
+      multiplexed.remove(connection);
+      if (multiplexed.isEmpty()) multiplexedConnectionsBySocketAddress.remove(socketAddress);
+    }
   }
 
   /**
@@ -136,7 +343,7 @@ public final class RealConnectionPool {
   boolean connectionBecameIdle(RealConnection connection) {
     assert (Thread.holdsLock(this));
     if (connection.noNewExchanges || maxIdleConnections == 0) {
-      connections.remove(connection);
+      remove(connection);
       return true;
     } else {
       notifyAll(); // Awake the cleanup thread: we may have exceeded the idle connection limit.
@@ -147,14 +354,16 @@ public final class RealConnectionPool {
   public void evictAll() {
     List<RealConnection> evictedConnections = new ArrayList<>();
     synchronized (this) {
-      for (Iterator<RealConnection> i = connections.iterator(); i.hasNext(); ) {
-        RealConnection connection = i.next();
+      for (RealConnection connection : connections) {
         if (connection.transmitters.isEmpty()) {
           connection.noNewExchanges = true;
           evictedConnections.add(connection);
-          i.remove();
         }
       }
+      for (RealConnection connection : evictedConnections) {
+        remove(connection);
+      }
+      coalescedHosts.clear();
     }
 
     for (RealConnection connection : evictedConnections) {
@@ -173,12 +382,16 @@ public final class RealConnectionPool {
   long cleanup(long now) {
     int inUseConnectionCount = 0;//正在使用的连接数
     int idleConnectionCount = 0;//空闲连接数
+    int reservedConnectionCount = 0;// 为最小空闲连接数保留的连接数
+    long reservedWaitNs = Long.MAX_VALUE;// 最早不再保留的连接还要等多久
     RealConnection longestIdleConnection = null;//空闲时间最长的连接
     long longestIdleDurationNs = Long.MIN_VALUE;// 连接池中，连接闲置的最长时间
 
     // 遍历连接：找到待清理的连接, 找到下一次要清理的时间（还未到最大空闲时间）
     // Find either a connection to evict, or the time that the next eviction is due.
     synchronized (this) {
+      Map<Address, Integer> reservable = reservableIdleCounts();
+      long refreshNs = refreshDurationNs();
       for (Iterator<RealConnection> i = connections.iterator(); i.hasNext(); ) {
         RealConnection connection = i.next();
 
@@ -188,11 +401,21 @@ public final class RealConnectionPool {
           inUseConnectionCount++;
           continue;
         }
-        // 空闲连接数+1
-        idleConnectionCount++;
         // 如果连接可以被清理
         // If the connection is ready to be evicted, we're done.
         long idleDurationNs = now - connection.idleAtNanos;
+
+        // 最小空闲连接数范围内、还没到刷新时间的连接不参与清理
+        // Connections kept for a minimum idle count aren't evicted until they're due for refresh.
+        if (reservable != null && idleDurationNs < refreshNs
+            && reserve(reservable, connection.route().address())) {
+          reservedConnectionCount++;
+          reservedWaitNs = Math.min(reservedWaitNs, refreshNs - idleDurationNs);
+          continue;
+        }
+
+        // 空闲连接数+1
+        idleConnectionCount++;
         // 如果连接的闲置时间，超过最大的闲置时间，则必须被清理
         if (idleDurationNs > longestIdleDurationNs) {
           longestIdleDurationNs = idleDurationNs;//
@@ -205,15 +428,15 @@ public final class RealConnectionPool {
           || idleConnectionCount > this.maxIdleConnections) {
         // We've found a connection to evict. Remove it from the list, then close it below (outside
         // of the synchronized block).
-        connections.remove(longestIdleConnection);// 从集合中移除连接
+        remove(longestIdleConnection);// 从集合中移除连接
       } else if (idleConnectionCount > 0) {
         // A connection will be ready to evict soon.
         // 下次清理连接的等待时间，还剩多久到达5分钟，然后wait这个时间再来清理
-        return keepAliveDurationNs - longestIdleDurationNs;
-      } else if (inUseConnectionCount > 0) {
+        return Math.min(keepAliveDurationNs - longestIdleDurationNs, reservedWaitNs);
+      } else if (inUseConnectionCount > 0 || reservedConnectionCount > 0) {
         // All connections are in use. It'll be at least the keep alive duration 'til we run again.
         // 如果没有空闲连接，就5分钟后再尝试清理.
-        return keepAliveDurationNs;
+        return Math.min(keepAliveDurationNs, reservedWaitNs);
       } else {
         // No connections, idle or in use.
         // 连接池中没有连接，则不清理
@@ -228,6 +451,204 @@ public final class RealConnectionPool {
     return 0;
   }
 
+  /**
+   * 预热连接：异步为每个地址建立连接，http2.0连接可以多路复用，每个地址只建立一个
+   * Asynchronously opens connections to each of {@code addresses} using {@code client}'s timeouts,
+   * until each address has {@code connectionsPerAddress} usable connections or one HTTP/2
+   * connection. Connections beyond {@code maxIdleConnections} are evicted as usual.
+   */
+  public void prewarm(OkHttpClient client, List<Address> addresses, int connectionsPerAddress) {
+    if (connectionsPerAddress <= 0) {
+      throw new IllegalArgumentException("connectionsPerAddress <= 0: " + connectionsPerAddress);
+    }
+    for (Address address : addresses) {
+      executor.execute(new NamedRunnable("OkHttp ConnectionPool prewarm %s",
+          address.url().redact()) {
+        @Override protected void execute() {
+          try {
+            int missing;
+            synchronized (RealConnectionPool.this) {
+              missing = connectionsPerAddress - usableConnectionCount(address, Long.MAX_VALUE,
+                  System.nanoTime());
+            }
+            for (int i = 0; i < missing; i++) {
+              if (connect(client, address).isMultiplexed()) break;
+            }
+          } catch (IOException e) {
+            Platform.get().log(Platform.INFO, "Failed to prewarm " + address.url().redact(), e);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * 设置地址的最小空闲连接数，后台线程在空闲连接过期之前建立新连接替换，0表示取消
+   * Keeps at least {@code minimumIdle} idle connections to {@code address} (or one HTTP/2
+   * connection), opening them with {@code client}'s settings. Connections are replaced in the
+   * background before they reach the keep alive duration. Use 0 to stop maintaining the address.
+   */
+  public void setMinimumIdleConnections(OkHttpClient client, Address address, int minimumIdle) {
+    if (minimumIdle < 0) throw new IllegalArgumentException("minimumIdle < 0: " + minimumIdle);
+    synchronized (this) {
+      if (minimumIdle == 0) {
+        idlePolicies.remove(address);
+      } else {
+        idlePolicies.put(address, new IdlePolicy(client, address, minimumIdle));
+      }
+      startIdleMaintenance();
+      notifyAll();
+    }
+  }
+
+  private void startIdleMaintenance() {
+    assert (Thread.holdsLock(this));
+    if (!idleMaintenanceRunning && !idlePolicies.isEmpty()) {
+      idleMaintenanceRunning = true;
+      executor.execute(idleMaintenanceRunnable);
+    }
+  }
+
+  /**
+   * Opens connections for addresses that have fewer idle connections than their minimum. Returns
+   * the duration in nanos to sleep until the next call to this method, or -1 if there are no
+   * minimums to maintain or no connections could be opened. In the latter case maintenance is
+   * restarted when the next connection is added to this pool.
+   */
+  long maintainIdleConnections(long now) {
+    Map<IdlePolicy, Integer> missingConnections = new LinkedHashMap<>();
+    long waitNs = keepAliveDurationNs;
+    synchronized (this) {
+      if (idlePolicies.isEmpty()) {
+        idleMaintenanceRunning = false;
+        return -1;
+      }
+      long refreshNs = refreshDurationNs();
+      for (IdlePolicy policy : idlePolicies.values()) {
+        int missing = policy.minimumIdle - usableConnectionCount(policy.address, refreshNs, now);
+        if (missing > 0) missingConnections.put(policy, missing);
+
+        // 最早需要刷新的连接
+        Deque<RealConnection> sameAddress = connectionsByAddress.get(policy.address);
+        if (sameAddress == null) continue;
+        for (RealConnection connection : sameAddress) {
+          if (connection.noNewExchanges || !connection.transmitters.isEmpty()) continue;
+          long freshNs = refreshNs - (now - connection.idleAtNanos);
+          if (freshNs > 0) waitNs = Math.min(waitNs, freshNs);
+        }
+      }
+    }
+
+    // 在锁外建立连接
+    boolean connected = false;
+    boolean failed = false;
+    for (Map.Entry<IdlePolicy, Integer> entry : missingConnections.entrySet()) {
+      IdlePolicy policy = entry.getKey();
+      try {
+        for (int i = 0, missing = entry.getValue(); i < missing; i++) {
+          connected = true;
+          if (connect(policy.client, policy.address).isMultiplexed()) break;
+        }
+      } catch (IOException e) {
+        failed = true;
+        Platform.get().log(Platform.INFO,
+            "Failed to open idle connection to " + policy.address.url().redact(), e);
+      }
+    }
+
+    synchronized (this) {
+      // 连接池中没有连接（比如网络不可用），不再重试，等有新连接加入时再启动
+      if (connections.isEmpty()) {
+        idleMaintenanceRunning = false;
+        return -1;
+      }
+    }
+    if (failed) return Math.min(waitNs, IDLE_RETRY_DELAY_NS);
+    return connected ? 0 : waitNs;
+  }
+
+  /**
+   * Opens a new connection to {@code address}, trying each of its routes in turn, and adds it to
+   * this pool as an idle connection.
+   */
+  RealConnection connect(OkHttpClient client, Address address) throws IOException {
+    RouteSelector routeSelector = new RouteSelector(address, routeDatabase, null,
+        EventListener.NONE);
+    IOException failure = null;
+    while (routeSelector.hasNext()) {
+      RouteSelector.Selection selection = routeSelector.next();
+      while (selection.hasNext()) {
+        Route route = selection.next();
+        RealConnection connection = new RealConnection(this, route);
+        try {
+          connection.connect(client.connectTimeoutMillis(), client.readTimeoutMillis(),
+              client.writeTimeoutMillis(), client.pingIntervalMillis(),
+              client.retryOnConnectionFailure(), null, EventListener.NONE);
+        } catch (RouteException e) {
+          connectFailed(route, e.getFirstConnectException());
+          if (failure == null) {
+            failure = e.getFirstConnectException();
+          } else {
+            addSuppressedIfPossible(failure, e.getFirstConnectException());
+          }
+          continue;
+        }
+        routeDatabase.connected(route);
+
+        synchronized (this) {
+          connection.idleAtNanos = System.nanoTime();
+          put(connection);
+        }
+        return connection;
+      }
+    }
+    throw failure != null ? failure : new IOException("No route to " + address.url().redact());
+  }
+
+  /**
+   * Returns the number of idle connections to {@code address} that won't be due for refresh for
+   * {@code refreshNs}, or {@link Integer#MAX_VALUE} if there's a usable HTTP/2 connection.
+   */
+  private int usableConnectionCount(Address address, long refreshNs, long now) {
+    assert (Thread.holdsLock(this));
+    Deque<RealConnection> sameAddress = connectionsByAddress.get(address);
+    if (sameAddress == null) return 0;
+    int result = 0;
+    for (RealConnection connection : sameAddress) {
+      if (connection.noNewExchanges) continue;
+      if (connection.isMultiplexed()) return Integer.MAX_VALUE;
+      if (!connection.transmitters.isEmpty()) continue;
+      if (now - connection.idleAtNanos >= refreshNs) continue;
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * 空闲连接达到保活时间的3/4时开始刷新
+   * Idle connections kept for a minimum idle count are replaced once they've been idle this long.
+   */
+  private long refreshDurationNs() {
+    return keepAliveDurationNs - keepAliveDurationNs / 4;
+  }
+
+  /** Returns the remaining idle connections to keep for each address, or null if there are none. */
+  private @Nullable Map<Address, Integer> reservableIdleCounts() {
+    if (idlePolicies.isEmpty()) return null;
+    Map<Address, Integer> result = new HashMap<>();
+    for (IdlePolicy policy : idlePolicies.values()) {
+      result.put(policy.address, policy.minimumIdle);
+    }
+    return result;
+  }
+
+  private static boolean reserve(Map<Address, Integer> reservable, Address address) {
+    Integer remaining = reservable.get(address);
+    if (remaining == null || remaining == 0) return false;
+    reservable.put(address, remaining - 1);
+    return true;
+  }
+
   /**
    * 砍掉泄漏的发射器并且返回依然存活的发射器的数量，一个连接，可以对应多个发射器。
    * 如果一个连接追踪他们但应用程序已经抛弃了，则这个发射器是泄漏的。
@@ -278,4 +699,16 @@ public final class RealConnectionPool {
 
     routeDatabase.failed(failedRoute);
   }
+
+  static final class IdlePolicy {
+    final OkHttpClient client;
+    final Address address;
+    final int minimumIdle;
+
+    IdlePolicy(OkHttpClient client, Address address, int minimumIdle) {
+      this.client = client;
+      this.address = address;
+      this.minimumIdle = minimumIdle;
+    }
+  }
 }
@@ -15,8 +15,10 @@
  */
 package okhttp3.internal.connection;
 
+import java.net.InetAddress;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import javax.annotation.Nullable;
 import okhttp3.Route;
 
 /**
@@ -24,22 +26,52 @@ import okhttp3.Route;
  * used so that OkHttp can learn from its mistakes: if there was a failure attempting to connect to
  * a specific IP address or proxy server, that failure is remembered and alternate routes are
  * preferred.
+ *
+ * <p>This also remembers address families, IPv4 or IPv6, whose most recent connection attempt
+ * failed or lost a race to the other family. When racing routes the other family is tried first,
+ * so a broken IPv6 network doesn't delay every new connection.
  */
 final class RouteDatabase {
   private final Set<Route> failedRoutes = new LinkedHashSet<>();
+  private final Set<Class<?>> failedFamilies = new LinkedHashSet<>();
 
   /** Records a failure connecting to {@code failedRoute}. */
   public synchronized void failed(Route failedRoute) {
     failedRoutes.add(failedRoute);
+    Class<?> family = family(failedRoute);
+    if (family != null) failedFamilies.add(family);
   }
 
   /** Records success connecting to {@code route}. */
   public synchronized void connected(Route route) {
     failedRoutes.remove(route);
+    Class<?> family = family(route);
+    if (family != null) failedFamilies.remove(family);
+  }
+
+  /**
+   * Records that an attempt to connect to {@code route} was overtaken by a later attempt in another
+   * address family. The route itself is not avoided, but its family is tried second.
+   */
+  public synchronized void lostRace(Route route) {
+    Class<?> family = family(route);
+    if (family != null) failedFamilies.add(family);
   }
 
   /** Returns true if {@code route} has failed recently and should be avoided. */
   public synchronized boolean shouldPostpone(Route route) {
     return failedRoutes.contains(route);
   }
+
+  /** Returns true if the last connection attempt in the address family of {@code route} failed. */
+  public synchronized boolean shouldPostponeFamily(Route route) {
+    Class<?> family = family(route);
+    return family != null && failedFamilies.contains(family);
+  }
+
+  /** Returns the class of the IP address of {@code route}, or null if it is unresolved. */
+  static @Nullable Class<?> family(Route route) {
+    InetAddress address = route.socketAddress().getAddress();
+    return address != null ? address.getClass() : null;
+  }
 }
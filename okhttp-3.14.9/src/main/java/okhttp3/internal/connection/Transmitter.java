@@ -21,11 +21,8 @@ import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.net.Socket;
 import javax.annotation.Nullable;
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLSocketFactory;
 import okhttp3.Address;
 import okhttp3.Call;
-import okhttp3.CertificatePinner;
 import okhttp3.Connection;
 import okhttp3.EventListener;
 import okhttp3.HttpUrl;
@@ -148,18 +145,7 @@ public final class Transmitter {
      * @return
      */
   private Address createAddress(HttpUrl url) {
-    SSLSocketFactory sslSocketFactory = null;
-    HostnameVerifier hostnameVerifier = null;
-    CertificatePinner certificatePinner = null;
-    if (url.isHttps()) {// 如果是Https
-      sslSocketFactory = client.sslSocketFactory();// ssl工厂
-      hostnameVerifier = client.hostnameVerifier();// 域名认证
-      certificatePinner = client.certificatePinner();// 证书锁定
-    }
-    // 封装Address对象，包含有：域名，端口号，dns解析，socket工厂，ssl工厂，域名校验，证书锁定等
-    return new Address(url.host(), url.port(), client.dns(), client.socketFactory(),
-        sslSocketFactory, hostnameVerifier, certificatePinner, client.proxyAuthenticator(),
-        client.proxy(), client.protocols(), client.connectionSpecs(), client.proxySelector());
+    return client.address(url);
   }
 
   /** Returns a new exchange to carry a new request and response. */
@@ -343,15 +329,19 @@ public final class Transmitter {
   public void cancel() {
     Exchange exchangeToCancel;
     RealConnection connectionToCancel;
+    ConnectRace raceToCancel;
     synchronized (connectionPool) {
       canceled = true;
       exchangeToCancel = exchange;
       connectionToCancel = exchangeFinder != null && exchangeFinder.connectingConnection() != null
           ? exchangeFinder.connectingConnection()
           : connection;
+      raceToCancel = exchangeFinder != null ? exchangeFinder.connectRace() : null;
     }
     if (exchangeToCancel != null) {
       exchangeToCancel.cancel();
+    } else if (raceToCancel != null) {
+      raceToCancel.cancel();
     } else if (connectionToCancel != null) {
       connectionToCancel.cancel();
     }
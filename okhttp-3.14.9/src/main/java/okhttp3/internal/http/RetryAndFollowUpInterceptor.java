@@ -48,6 +48,7 @@ import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
 import static okhttp3.internal.Util.closeQuietly;
 import static okhttp3.internal.Util.sameConnection;
+import static okhttp3.internal.http.StatusLine.HTTP_MISDIRECTED_REQUEST;
 import static okhttp3.internal.http.StatusLine.HTTP_PERM_REDIRECT;
 import static okhttp3.internal.http.StatusLine.HTTP_TEMP_REDIRECT;
 
@@ -327,6 +328,21 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
 
         return userResponse.request();// 直接用原来的请求，进行重试
 
+      case HTTP_MISDIRECTED_REQUEST:// 421 请求被发到了不能处理它的服务器
+        // OkHttp can coalesce HTTP/2 connections even if the domain names are different. See
+        // RealConnection.isEligible(). If we attempted this and the server returned HTTP 421, then
+        // we can retry on a different connection.
+        RequestBody misdirectedBody = userResponse.request().body();
+        if (misdirectedBody != null && misdirectedBody.isOneShot()) return null;
+
+        Exchange exchange = Internal.instance.exchange(userResponse);
+        if (exchange == null || route == null
+            || route.address().url().host().equals(userResponse.request().url().host())) {
+          return null; // Not a coalesced connection.
+        }
+        exchange.connection().noCoalescedConnections();
+        return userResponse.request();
+
       case HTTP_UNAVAILABLE:// 503 服务器暂时处于超负载或正在进行停机维护，现在无法处理请求
         if (userResponse.priorResponse() != null
             && userResponse.priorResponse().code() == HTTP_UNAVAILABLE) {
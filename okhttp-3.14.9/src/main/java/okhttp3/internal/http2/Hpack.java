@@ -15,14 +15,18 @@
  */
 package okhttp3.internal.http2;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import okhttp3.Headers;
+import okhttp3.internal.Internal;
 import okio.Buffer;
 import okio.BufferedSource;
 import okio.ByteString;
@@ -36,7 +40,8 @@ import okio.Source;
  *
  * This implementation uses an array for the dynamic table and a list for indexed entries.  Dynamic
  * entries are added to the array, starting in the last position moving forward.  When the array
- * fills, it is doubled.
+ * fills, it is doubled. The writer also indexes its dynamic table by name and by name and value, so
+ * encoding a header doesn't scan the table.
  */
 final class Hpack {
   private static final int PREFIX_4_BITS = 0x0f;
@@ -114,9 +119,23 @@ final class Hpack {
   // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-3.1
   static final class Reader {
 
-    private final List<Header> headerList = new ArrayList<>();
+    /**
+     * Names and values of the header block being read. Fields from the static and dynamic tables
+     * share those tables' byte strings, and so their decoded strings too.
+     */
+    private final List<ByteString> namesAndValues = new ArrayList<>();
     private final BufferedSource source;
 
+    /**
+     * The largest Huffman scratch space kept between strings. Longer strings, like big cookies, are
+     * decoded into arrays that aren't retained.
+     */
+    private static final int MAX_HUFFMAN_SCRATCH_SIZE = 4096;
+
+    // Scratch space for Huffman-decoded strings, grown as needed up to MAX_HUFFMAN_SCRATCH_SIZE.
+    private byte[] huffmanInput = new byte[64];
+    private byte[] huffmanOutput = new byte[Huffman.maxDecodedLength(64)];
+
     private final int headerTableSizeSetting;
     private int maxDynamicTableByteCount;
 
@@ -210,22 +229,42 @@ final class Hpack {
     }
 
     public List<Header> getAndResetHeaderList() {
-      List<Header> result = new ArrayList<>(headerList);
-      headerList.clear();
+      List<Header> result = new ArrayList<>(namesAndValues.size() / 2);
+      for (int i = 0, size = namesAndValues.size(); i < size; i += 2) {
+        result.add(new Header(namesAndValues.get(i), namesAndValues.get(i + 1)));
+      }
+      namesAndValues.clear();
       return result;
     }
 
+    /** Returns the header block that was read, without creating a {@link Header} per field. */
+    public Headers getAndResetHeaders() {
+      Headers.Builder result = new Headers.Builder();
+      for (int i = 0, size = namesAndValues.size(); i < size; i += 2) {
+        Internal.instance.addLenient(
+            result, namesAndValues.get(i).utf8(), namesAndValues.get(i + 1).utf8());
+      }
+      namesAndValues.clear();
+      return result.build();
+    }
+
+    private void addHeader(ByteString name, ByteString value) {
+      namesAndValues.add(name);
+      namesAndValues.add(value);
+    }
+
     private void readIndexedHeader(int index) throws IOException {
+      Header entry;
       if (isStaticHeader(index)) {
-        Header staticEntry = STATIC_HEADER_TABLE[index];
-        headerList.add(staticEntry);
+        entry = STATIC_HEADER_TABLE[index];
       } else {
         int dynamicTableIndex = dynamicTableIndex(index - STATIC_HEADER_TABLE.length);
         if (dynamicTableIndex < 0 || dynamicTableIndex >= dynamicTable.length) {
           throw new IOException("Header index too large " + (index + 1));
         }
-        headerList.add(dynamicTable[dynamicTableIndex]);
+        entry = dynamicTable[dynamicTableIndex];
       }
+      addHeader(entry.name, entry.value);
     }
 
     // referencedHeaders is relative to nextHeaderIndex + 1.
@@ -236,13 +275,13 @@ final class Hpack {
     private void readLiteralHeaderWithoutIndexingIndexedName(int index) throws IOException {
       ByteString name = getName(index);
       ByteString value = readByteString();
-      headerList.add(new Header(name, value));
+      addHeader(name, value);
     }
 
     private void readLiteralHeaderWithoutIndexingNewName() throws IOException {
-      ByteString name = checkLowercase(readByteString());
+      ByteString name = intern(checkLowercase(readByteString()));
       ByteString value = readByteString();
-      headerList.add(new Header(name, value));
+      addHeader(name, value);
     }
 
     private void readLiteralHeaderWithIncrementalIndexingIndexedName(int nameIndex)
@@ -253,7 +292,7 @@ final class Hpack {
     }
 
     private void readLiteralHeaderWithIncrementalIndexingNewName() throws IOException {
-      ByteString name = checkLowercase(readByteString());
+      ByteString name = intern(checkLowercase(readByteString()));
       ByteString value = readByteString();
       insertIntoDynamicTable(-1, new Header(name, value));
     }
@@ -277,7 +316,7 @@ final class Hpack {
 
     /** index == -1 when new. */
     private void insertIntoDynamicTable(int index, Header entry) {
-      headerList.add(entry);
+      addHeader(entry.name, entry.value);
 
       int delta = entry.hpackSize;
       if (index != -1) { // Index -1 == new header.
@@ -344,7 +383,24 @@ final class Hpack {
       int length = readInt(firstByte, PREFIX_7_BITS);
 
       if (huffmanDecode) {
-        return ByteString.of(Huffman.get().decode(source.readByteArray(length)));
+        byte[] input = huffmanInput;
+        byte[] output = huffmanOutput;
+        if (length > MAX_HUFFMAN_SCRATCH_SIZE) {
+          input = new byte[length];
+          output = new byte[Huffman.maxDecodedLength(length)];
+        } else if (input.length < length) {
+          input = new byte[Math.min(Math.max(length, input.length * 2), MAX_HUFFMAN_SCRATCH_SIZE)];
+          output = new byte[Huffman.maxDecodedLength(input.length)];
+          huffmanInput = input;
+          huffmanOutput = output;
+        }
+        for (int offset = 0; offset < length; ) {
+          int read = source.read(input, offset, length - offset);
+          if (read == -1) throw new EOFException();
+          offset += read;
+        }
+        int decodedLength = Huffman.get().decode(input, length, output);
+        return ByteString.of(output, 0, decodedLength);
       } else {
         return source.readByteString(length);
       }
@@ -353,6 +409,15 @@ final class Hpack {
 
   static final Map<ByteString, Integer> NAME_TO_FIRST_INDEX = nameToFirstIndex();
 
+  /**
+   * Returns the static table's instance of {@code name} if it has one. Its decoded string is cached
+   * and shared by every header block that uses the name.
+   */
+  static ByteString intern(ByteString name) {
+    Integer index = NAME_TO_FIRST_INDEX.get(name);
+    return index != null ? STATIC_HEADER_TABLE[index].name : name;
+  }
+
   private static Map<ByteString, Integer> nameToFirstIndex() {
     Map<ByteString, Integer> result = new LinkedHashMap<>(STATIC_HEADER_TABLE.length);
     for (int i = 0; i < STATIC_HEADER_TABLE.length; i++) {
@@ -393,6 +458,19 @@ final class Hpack {
     int headerCount = 0;
     int dynamicTableByteCount = 0;
 
+    /**
+     * The number of entries ever inserted into the dynamic table. The entry inserted n-th has
+     * sequence number n - 1; the newest entry has dynamic index 0. Arithmetic on sequence numbers
+     * tolerates overflow.
+     */
+    private int insertCount = 0;
+
+    /** Sequence numbers of the newest dynamic table entry for each name and value. */
+    private final Map<Header, Integer> headerToSequence = new HashMap<>();
+
+    /** Sequence numbers of the newest dynamic table entry for each name. */
+    private final Map<ByteString, Integer> nameToSequence = new HashMap<>();
+
     Writer(Buffer out) {
       this(SETTINGS_HEADER_TABLE_SIZE, true, out);
     }
@@ -409,6 +487,8 @@ final class Hpack {
       nextHeaderIndex = dynamicTable.length - 1;
       headerCount = 0;
       dynamicTableByteCount = 0;
+      headerToSequence.clear();
+      nameToSequence.clear();
     }
 
     /** Returns the count of entries evicted. */
@@ -417,8 +497,18 @@ final class Hpack {
       if (bytesToRecover > 0) {
         // determine how many headers need to be evicted.
         for (int j = dynamicTable.length - 1; j >= nextHeaderIndex && bytesToRecover > 0; j--) {
-          bytesToRecover -= dynamicTable[j].hpackSize;
-          dynamicTableByteCount -= dynamicTable[j].hpackSize;
+          Header evicted = dynamicTable[j];
+          // The oldest entry has sequence number insertCount - headerCount.
+          Integer sequence = insertCount - headerCount;
+          // Only forget entries that still point at the evicted sequence; newer duplicates remain.
+          if (sequence.equals(headerToSequence.get(evicted))) {
+            headerToSequence.remove(evicted);
+          }
+          if (sequence.equals(nameToSequence.get(evicted.name))) {
+            nameToSequence.remove(evicted.name);
+          }
+          bytesToRecover -= evicted.hpackSize;
+          dynamicTableByteCount -= evicted.hpackSize;
           headerCount--;
           entriesToEvict++;
         }
@@ -453,6 +543,14 @@ final class Hpack {
       dynamicTable[index] = entry;
       headerCount++;
       dynamicTableByteCount += delta;
+      Integer sequence = insertCount++;
+      headerToSequence.put(entry, sequence);
+      nameToSequence.put(entry.name, sequence);
+    }
+
+    /** Returns the HPACK index of the dynamic table entry with {@code sequence}. */
+    private int dynamicIndex(int sequence) {
+      return insertCount - sequence + STATIC_HEADER_TABLE.length;
     }
 
     /** This does not use "never indexed" semantics for sensitive headers. */
@@ -491,16 +589,14 @@ final class Hpack {
           }
         }
 
-        if (headerIndex == -1) {
-          for (int j = nextHeaderIndex + 1, length = dynamicTable.length; j < length; j++) {
-            if (Objects.equals(dynamicTable[j].name, name)) {
-              if (Objects.equals(dynamicTable[j].value, value)) {
-                headerIndex = j - nextHeaderIndex + STATIC_HEADER_TABLE.length;
-                break;
-              } else if (headerNameIndex == -1) {
-                headerNameIndex = j - nextHeaderIndex + STATIC_HEADER_TABLE.length;
-              }
-            }
+        if (headerIndex == -1 && headerCount > 0) {
+          Header key = name == header.name ? header : new Header(name, value);
+          Integer sequence = headerToSequence.get(key);
+          if (sequence != null) {
+            headerIndex = dynamicIndex(sequence);
+          } else if (headerNameIndex == -1) {
+            sequence = nameToSequence.get(name);
+            if (sequence != null) headerNameIndex = dynamicIndex(sequence);
           }
         }
 
@@ -549,12 +645,10 @@ final class Hpack {
     }
 
     void writeByteString(ByteString data) throws IOException {
-      if (useCompression && Huffman.get().encodedLength(data) < data.size()) {
-        Buffer huffmanBuffer = new Buffer();
-        Huffman.get().encode(data, huffmanBuffer);
-        ByteString huffmanBytes = huffmanBuffer.readByteString();
-        writeInt(huffmanBytes.size(), PREFIX_7_BITS, 0x80);
-        out.write(huffmanBytes);
+      int huffmanLength = useCompression ? Huffman.get().encodedLength(data) : Integer.MAX_VALUE;
+      if (huffmanLength < data.size()) {
+        writeInt(huffmanLength, PREFIX_7_BITS, 0x80);
+        Huffman.get().encode(data, out);
       } else {
         writeInt(data.size(), PREFIX_7_BITS, 0);
         out.write(data);
@@ -21,6 +21,9 @@ import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -35,6 +38,7 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
+import okhttp3.Call;
 import okhttp3.Headers;
 import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
@@ -44,9 +48,15 @@ import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.ByteString;
 import okio.Okio;
+import okio.Timeout;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static okhttp3.internal.http2.ErrorCode.REFUSED_STREAM;
+import static okhttp3.internal.http2.Http2.TYPE_PING;
+import static okhttp3.internal.http2.Http2.TYPE_RST_STREAM;
+import static okhttp3.internal.http2.Http2.TYPE_SETTINGS;
+import static okhttp3.internal.http2.Http2.TYPE_WINDOW_UPDATE;
 import static okhttp3.internal.http2.Settings.DEFAULT_INITIAL_WINDOW_SIZE;
 import static okhttp3.internal.platform.Platform.INFO;
 
@@ -72,13 +82,26 @@ public final class Http2Connection implements Closeable {
   // frameWriter (to do blocking I/O) and this (to create streams). Such
   // operations must synchronize on 'this' last. This ensures that we never
   // wait for a blocking operation while holding 'this'.
+  //
+  // Control frames that don't need to be written synchronously are queued in
+  // controlFrames, guarded by itself. That lock is always taken last. Every
+  // write of HEADERS or DATA first writes the queued control frames, and a
+  // single writer task flushes whatever is still queued in one batch.
 
   static final int OKHTTP_CLIENT_WINDOW_SIZE = 16 * 1024 * 1024;
 
   static final int INTERVAL_PING = 1;
   static final int DEGRADED_PING = 2;
   static final int AWAIT_PING = 3;
+  static final int BDP_PING = 4;
   static final long DEGRADED_PONG_TIMEOUT_NS = 1_000_000_000L; // 1 second.
+  static final long CANCEL_POLL_NS = 100_000_000L; // 100 ms.
+
+  /**
+   * The largest receive window that flow control auto-tuning grows to. Windows are only refilled as
+   * the application reads, so this also bounds the bytes buffered by a stream or a connection.
+   */
+  static final int MAX_AUTO_TUNED_WINDOW_SIZE = 32 * 1024 * 1024;
 
   /**
    * Shared executor to send notifications of incoming streams. This executor requires multiple
@@ -105,6 +128,22 @@ public final class Http2Connection implements Closeable {
   /** Asynchronously writes frames to the outgoing socket. */
   private final ScheduledExecutorService writerExecutor;
 
+  /**
+   * Streams waiting to take bytes from {@link #bytesLeftInWriteWindow} for a DATA frame. The one
+   * with the earliest virtual start time goes next, so streams share the connection's write window
+   * in proportion to their weights. Guarded by this.
+   */
+  private final List<Http2Stream> dataWriters = new ArrayList<>();
+
+  /** The virtual start time of the DATA frame most recently scheduled. Guarded by this. */
+  private long virtualTime;
+
+  /** Control frames waiting to be written ahead of the next HEADERS or DATA frame. */
+  private final Deque<ControlFrame> controlFrames = new ArrayDeque<>();
+
+  /** True if a writer task is scheduled to write {@link #controlFrames}. Guarded by that queue. */
+  private boolean controlFramesScheduled;
+
   /** Ensures push promise callbacks events are sent in order per stream. */
   private final ExecutorService pushExecutor;
 
@@ -122,6 +161,20 @@ public final class Http2Connection implements Closeable {
   /** Consider this connection to be unhealthy if a degraded pong isn't received by this time. */
   private long degradedPongDeadlineNs = 0L;
 
+  /** When the most recent frame was read from the peer. */
+  private volatile long lastReadNs = System.nanoTime();
+
+  // Bandwidth-delay product estimation. All guarded by this.
+  private boolean bdpPingInFlight;
+  private long bdpPingSentNs;
+  /** Bytes received since the BDP ping was sent. When its pong arrives, this is one BDP sample. */
+  private long bdpBytesReceived;
+  /** The highest bandwidth measured by a BDP sample, in bytes per nanosecond. */
+  private double bdpMaxBandwidth;
+
+  /** The number of bytes received for streams, but not yet read by the application. */
+  private long unreadBytes = 0L;
+
   /**
    * The total number of bytes consumed by the application, but not yet acknowledged by sending a
    * {@code WINDOW_UPDATE} frame on this connection.
@@ -138,6 +191,12 @@ public final class Http2Connection implements Closeable {
   /** Settings we communicate to the peer. */
   Settings okHttpSettings = new Settings();
 
+  /**
+   * The initial window size in {@link #okHttpSettings}, for streams that read it without holding
+   * this connection's lock. Updated whenever that setting changes.
+   */
+  volatile int receiveWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
   /** Settings we receive from the peer. */
   // TODO: MWS will need to guard on this setting before attempting to push.
   final Settings peerSettings = new Settings();
@@ -164,6 +223,7 @@ public final class Http2Connection implements Closeable {
     // up the heap.
     if (builder.client) {
       okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, OKHTTP_CLIENT_WINDOW_SIZE);
+      receiveWindowSize = OKHTTP_CLIENT_WINDOW_SIZE;
     }
 
     connectionName = builder.connectionName;
@@ -209,6 +269,7 @@ public final class Http2Connection implements Closeable {
   }
 
   synchronized void updateConnectionFlowControl(long read) {
+    unreadBytes -= read;
     unacknowledgedBytesRead += read;
     if (unacknowledgedBytesRead >= okHttpSettings.getInitialWindowSize() / 2) {
       writeWindowUpdateLater(0, unacknowledgedBytesRead);
@@ -216,6 +277,55 @@ public final class Http2Connection implements Closeable {
     }
   }
 
+  /**
+   * Accounts for {@code byteCount} bytes of DATA received for a stream, and starts a new BDP sample
+   * by sending a ping if none is in flight.
+   */
+  void receiveData(long byteCount) {
+    synchronized (this) {
+      unreadBytes += byteCount;
+      if (bdpPingInFlight) {
+        bdpBytesReceived += byteCount;
+        return;
+      }
+      if (okHttpSettings.getInitialWindowSize() >= MAX_AUTO_TUNED_WINDOW_SIZE) return;
+      bdpPingInFlight = true;
+      bdpPingSentNs = System.nanoTime();
+      bdpBytesReceived = byteCount;
+    }
+    writeControlFrameLater(ControlFrame.ping(false, BDP_PING, 0));
+  }
+
+  /**
+   * Completes a BDP sample: the bytes received in one round trip. If the sample nearly filled the
+   * receive window at a new peak bandwidth, the window is what limits the peer, so the stream and
+   * connection windows both grow to twice the sample.
+   *
+   * <p>Windows don't grow while the application is slow to read: if more than half of the sample
+   * is still buffered, the reader rather than the network is the bottleneck, and a larger window
+   * would only buffer more.
+   */
+  private void receiveBdpPong(long nowNs) {
+    assert (Thread.holdsLock(this));
+    bdpPingInFlight = false;
+    long sample = bdpBytesReceived;
+    double bandwidth = (double) sample / Math.max(1L, nowNs - bdpPingSentNs);
+    if (bandwidth <= bdpMaxBandwidth) return;
+    bdpMaxBandwidth = bandwidth;
+
+    int windowSize = okHttpSettings.getInitialWindowSize();
+    if (sample < windowSize * 2L / 3L) return; // The window isn't the limit.
+    if (unreadBytes > sample / 2L) return; // The application is the limit.
+    int newWindowSize = (int) Math.min(sample * 2L, MAX_AUTO_TUNED_WINDOW_SIZE);
+    if (newWindowSize <= windowSize) return;
+
+    // Raise our own limits first: the peer may use the larger windows as soon as it reads these.
+    okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, newWindowSize);
+    receiveWindowSize = newWindowSize;
+    writeControlFrameLater(ControlFrame.initialWindowSize(newWindowSize));
+    writeControlFrameLater(ControlFrame.windowUpdate(0, newWindowSize - windowSize));
+  }
+
   /**
    * Returns a new server-initiated stream.
    *
@@ -226,7 +336,7 @@ public final class Http2Connection implements Closeable {
   public Http2Stream pushStream(int associatedStreamId, List<Header> requestHeaders, boolean out)
       throws IOException {
     if (client) throw new IllegalStateException("Client cannot push requests.");
-    return newStream(associatedStreamId, requestHeaders, out);
+    return newStream(associatedStreamId, requestHeaders, out, Http2Stream.DEFAULT_WEIGHT);
   }
 
   /**
@@ -235,11 +345,20 @@ public final class Http2Connection implements Closeable {
    * Corresponds to {@code FLAG_FIN}.
    */
   public Http2Stream newStream(List<Header> requestHeaders, boolean out) throws IOException {
-    return newStream(0, requestHeaders, out);
+    return newStream(0, requestHeaders, out, Http2Stream.DEFAULT_WEIGHT);
+  }
+
+  /**
+   * Returns a new locally-initiated stream with {@code weight} between 1 and 256. Its request body
+   * gets a share of this connection proportional to its weight.
+   */
+  public Http2Stream newStream(List<Header> requestHeaders, boolean out, int weight)
+      throws IOException {
+    return newStream(0, requestHeaders, out, weight);
   }
 
-  private Http2Stream newStream(
-      int associatedStreamId, List<Header> requestHeaders, boolean out) throws IOException {
+  private Http2Stream newStream(int associatedStreamId, List<Header> requestHeaders, boolean out,
+      int weight) throws IOException {
     boolean outFinished = !out;
     boolean inFinished = false;
     boolean flushHeaders;
@@ -257,13 +376,15 @@ public final class Http2Connection implements Closeable {
         streamId = nextStreamId;
         nextStreamId += 2;
         stream = new Http2Stream(streamId, this, outFinished, inFinished, null);
+        stream.weight = weight;
         flushHeaders = !out || bytesLeftInWriteWindow == 0L || stream.bytesLeftInWriteWindow == 0L;
         if (stream.isOpen()) {
           streams.put(streamId, stream);
         }
       }
+      writeControlFrames();
       if (associatedStreamId == 0) {
-        writer.headers(outFinished, streamId, requestHeaders);
+        writer.headers(outFinished, streamId, weight, requestHeaders);
       } else if (client) {
         throw new IllegalArgumentException("client streams shouldn't have associated stream IDs");
       } else { // HTTP/2 has a PUSH_PROMISE frame.
@@ -280,7 +401,10 @@ public final class Http2Connection implements Closeable {
 
   void writeHeaders(int streamId, boolean outFinished, List<Header> alternating)
       throws IOException {
-    writer.headers(outFinished, streamId, alternating);
+    synchronized (writer) {
+      writeControlFrames();
+      writer.headers(outFinished, streamId, alternating);
+    }
   }
 
   /**
@@ -298,43 +422,114 @@ public final class Http2Connection implements Closeable {
   public void writeData(int streamId, boolean outFinished, Buffer buffer, long byteCount)
       throws IOException {
     if (byteCount == 0) { // Empty data frames are not flow-controlled.
-      writer.data(outFinished, streamId, buffer, 0);
+      synchronized (writer) {
+        writeControlFrames();
+        writer.data(outFinished, streamId, buffer, 0);
+      }
       return;
     }
 
     while (byteCount > 0) {
       int toWrite;
+      Http2Stream scheduled;
       synchronized (Http2Connection.this) {
+        // 按权重公平调度：虚拟开始时间最早的流先写。已经关闭的流不参与调度
+        scheduled = streams.get(streamId);
+        if (scheduled != null) {
+          scheduled.virtualStart = Math.max(scheduled.virtualFinish, virtualTime);
+          dataWriters.add(scheduled);
+        }
         try {
-          while (bytesLeftInWriteWindow <= 0) {
+          while (bytesLeftInWriteWindow <= 0
+              || (scheduled != null && nextDataWriter() != scheduled)) {
             // Before blocking, confirm that the stream we're writing is still open. It's possible
             // that the stream has since been closed (such as if this write timed out.)
             if (!streams.containsKey(streamId)) {
               throw new IOException("stream closed");
             }
-            Http2Connection.this.wait(); // Wait until we receive a WINDOW_UPDATE.
+            Http2Connection.this.wait(); // Wait until we receive a WINDOW_UPDATE or our turn.
           }
         } catch (InterruptedException e) {
           Thread.currentThread().interrupt(); // Retain interrupted status.
           throw new InterruptedIOException();
+        } finally {
+          if (scheduled != null && dataWriters.remove(scheduled) && !dataWriters.isEmpty()) {
+            notifyAll(); // The next stream may be able to write.
+          }
         }
 
         toWrite = (int) Math.min(byteCount, bytesLeftInWriteWindow);
         toWrite = Math.min(toWrite, writer.maxDataLength());
         bytesLeftInWriteWindow -= toWrite;
+
+        if (scheduled != null) {
+          virtualTime = scheduled.virtualStart;
+          scheduled.virtualFinish = scheduled.virtualStart + (long) toWrite * 256 / scheduled.weight;
+        }
       }
 
       byteCount -= toWrite;
-      writer.data(outFinished && byteCount == 0, streamId, buffer, toWrite);
+      synchronized (writer) {
+        writeControlFrames();
+        writer.data(outFinished && byteCount == 0, streamId, buffer, toWrite);
+      }
+    }
+  }
+
+  /** Returns the waiting stream with the earliest virtual start time, preferring lower IDs. */
+  private Http2Stream nextDataWriter() {
+    assert (Thread.holdsLock(this));
+    Http2Stream result = null;
+    for (int i = 0, size = dataWriters.size(); i < size; i++) {
+      Http2Stream stream = dataWriters.get(i);
+      if (result == null || stream.virtualStart < result.virtualStart
+          || (stream.virtualStart == result.virtualStart && stream.id < result.id)) {
+        result = stream;
+      }
     }
+    return result;
+  }
+
+  void writeSynResetLater(int streamId, ErrorCode errorCode) {
+    writeControlFrameLater(ControlFrame.rstStream(streamId, errorCode));
   }
 
-  void writeSynResetLater(final int streamId, final ErrorCode errorCode) {
+  void writeSynReset(int streamId, ErrorCode statusCode) throws IOException {
+    synchronized (writer) {
+      writeControlFrames();
+      writer.rstStream(streamId, statusCode);
+      writer.flush();
+    }
+  }
+
+  void writeWindowUpdateLater(int streamId, long unacknowledgedBytesRead) {
+    writeControlFrameLater(ControlFrame.windowUpdate(streamId, unacknowledgedBytesRead));
+  }
+
+  /**
+   * Queues {@code frame} to be written before the next HEADERS or DATA frame, or by the writer
+   * thread if no stream writes first. Window updates for the same stream are merged.
+   */
+  void writeControlFrameLater(ControlFrame frame) {
+    boolean schedule;
+    synchronized (controlFrames) {
+      if (!merge(frame)) controlFrames.add(frame);
+      schedule = !controlFramesScheduled;
+      controlFramesScheduled = true;
+    }
+    if (!schedule) return;
+
     try {
-      writerExecutor.execute(new NamedRunnable("OkHttp %s stream %d", connectionName, streamId) {
+      writerExecutor.execute(new NamedRunnable("OkHttp %s control frames", connectionName) {
         @Override public void execute() {
+          synchronized (controlFrames) {
+            controlFramesScheduled = false;
+          }
           try {
-            writeSynReset(streamId, errorCode);
+            synchronized (writer) {
+              writeControlFrames();
+              writer.flush();
+            }
           } catch (IOException e) {
             failConnection(e);
           }
@@ -345,41 +540,30 @@ public final class Http2Connection implements Closeable {
     }
   }
 
-  void writeSynReset(int streamId, ErrorCode statusCode) throws IOException {
-    writer.rstStream(streamId, statusCode);
-  }
-
-  void writeWindowUpdateLater(final int streamId, final long unacknowledgedBytesRead) {
-    try {
-      writerExecutor.execute(
-          new NamedRunnable("OkHttp Window Update %s stream %d", connectionName, streamId) {
-            @Override public void execute() {
-              try {
-                writer.windowUpdate(streamId, unacknowledgedBytesRead);
-              } catch (IOException e) {
-                failConnection(e);
-              }
-            }
-          });
-    } catch (RejectedExecutionException ignored) {
-      // This connection has been closed.
+  /** Adds a window update to one already queued for the same stream. */
+  private boolean merge(ControlFrame frame) {
+    assert (Thread.holdsLock(controlFrames));
+    if (frame.type != TYPE_WINDOW_UPDATE) return false;
+    for (ControlFrame queued : controlFrames) {
+      if (queued.type != TYPE_WINDOW_UPDATE || queued.streamId != frame.streamId) continue;
+      long merged = queued.windowSizeIncrement + frame.windowSizeIncrement;
+      if (merged > 0x7fffffffL) return false;
+      queued.windowSizeIncrement = merged;
+      return true;
     }
+    return false;
   }
 
-  final class PingRunnable extends NamedRunnable {
-    final boolean reply;
-    final int payload1;
-    final int payload2;
-
-    PingRunnable(boolean reply, int payload1, int payload2) {
-      super("OkHttp %s ping %08x%08x", connectionName, payload1, payload2);
-      this.reply = reply;
-      this.payload1 = payload1;
-      this.payload2 = payload2;
-    }
-
-    @Override public void execute() {
-      writePing(reply, payload1, payload2);
+  /** Writes the queued control frames. The caller must hold the writer's lock and flush after. */
+  void writeControlFrames() throws IOException {
+    assert (Thread.holdsLock(writer));
+    while (true) {
+      ControlFrame frame;
+      synchronized (controlFrames) {
+        frame = controlFrames.poll();
+      }
+      if (frame == null) return;
+      frame.writeTo(writer);
     }
   }
 
@@ -408,7 +592,11 @@ public final class Http2Connection implements Closeable {
 
   void writePing(boolean reply, int payload1, int payload2) {
     try {
-      writer.ping(reply, payload1, payload2);
+      synchronized (writer) {
+        writeControlFrames();
+        writer.ping(reply, payload1, payload2);
+        writer.flush();
+      }
     } catch (IOException e) {
       failConnection(e);
     }
@@ -481,6 +669,7 @@ public final class Http2Connection implements Closeable {
         streamsToClose = streams.values().toArray(new Http2Stream[streams.size()]);
         streams.clear();
       }
+      notifyAll(); // Release threads awaiting a pong.
     }
 
     if (streamsToClose != null) {
@@ -532,6 +721,7 @@ public final class Http2Connection implements Closeable {
       int windowSize = okHttpSettings.getInitialWindowSize();
       if (windowSize != Settings.DEFAULT_INITIAL_WINDOW_SIZE) {
         writer.windowUpdate(0, windowSize - Settings.DEFAULT_INITIAL_WINDOW_SIZE);
+        writer.flush();
       }
     }
     new Thread(readerRunnable).start(); // Not a daemon thread.
@@ -545,11 +735,50 @@ public final class Http2Connection implements Closeable {
           throw new ConnectionShutdownException();
         }
         okHttpSettings.merge(settings);
+        receiveWindowSize = okHttpSettings.getInitialWindowSize();
       }
       writer.settings(settings);
     }
   }
 
+  /** Returns the time of the most recent frame read from the peer, in {@link System#nanoTime}. */
+  public long lastReadNanos() {
+    return lastReadNs;
+  }
+
+  /**
+   * Pings the peer, unless a degraded ping is already in flight, and waits for its pong. Returns
+   * false if the connection is shut down or the pong misses its deadline, after which this
+   * connection is also no longer {@linkplain #isHealthy healthy}.
+   *
+   * <p>Also returns false as soon as {@code call} is canceled or its timeout's deadline passes. The
+   * ping stays in flight and its pong still counts for later calls.
+   */
+  public boolean pingAndAwaitPong(Call call) throws InterruptedException {
+    sendDegradedPingLater();
+    long deadlineNs;
+    synchronized (this) {
+      deadlineNs = degradedPongDeadlineNs;
+    }
+    Timeout timeout = call.timeout();
+    if (timeout.hasDeadline() && timeout.deadlineNanoTime() - deadlineNs < 0L) {
+      deadlineNs = timeout.deadlineNanoTime();
+    }
+
+    while (true) {
+      // Check outside of this lock: canceling takes the connection pool's lock, which is held
+      // while calling into this connection.
+      if (call.isCanceled()) return false;
+      synchronized (this) {
+        if (degradedPongsReceived >= degradedPingsSent) return !shutdown;
+        long waitNs = deadlineNs - System.nanoTime();
+        if (shutdown || waitNs <= 0L) return false;
+        // Canceling the call, which is also what its call timeout does, doesn't notify us.
+        NANOSECONDS.timedWait(this, Math.min(waitNs, CANCEL_POLL_NS));
+      }
+    }
+  }
+
   public synchronized boolean isHealthy(long nowNs) {
     if (shutdown) return false;
 
@@ -580,15 +809,7 @@ public final class Http2Connection implements Closeable {
       degradedPingsSent++;
       degradedPongDeadlineNs = System.nanoTime() + DEGRADED_PONG_TIMEOUT_NS;
     }
-    try {
-      writerExecutor.execute(new NamedRunnable("OkHttp %s ping", connectionName) {
-        @Override public void execute() {
-          writePing(false, DEGRADED_PING, 0);
-        }
-      });
-    } catch (RejectedExecutionException ignored) {
-      // This connection has been closed.
-    }
+    writeControlFrameLater(ControlFrame.ping(false, DEGRADED_PING, 0));
   }
 
   public static class Builder {
@@ -666,6 +887,7 @@ public final class Http2Connection implements Closeable {
       try {
         reader.readConnectionPreface(this);
         while (reader.nextFrame(false, this)) {
+          lastReadNs = System.nanoTime();
         }
         connectionErrorCode = ErrorCode.NO_ERROR;
         streamErrorCode = ErrorCode.CANCEL;
@@ -685,6 +907,7 @@ public final class Http2Connection implements Closeable {
         pushDataLater(streamId, source, length, inFinished);
         return;
       }
+      receiveData(length);
       Http2Stream dataStream = getStream(streamId);
       if (dataStream == null) {
         writeSynResetLater(streamId, ErrorCode.PROTOCOL_ERROR);
@@ -699,9 +922,9 @@ public final class Http2Connection implements Closeable {
     }
 
     @Override public void headers(boolean inFinished, int streamId, int associatedStreamId,
-        List<Header> headerBlock) {
+        Headers headerBlock) {
       if (pushedStream(streamId)) {
-        pushHeadersLater(streamId, headerBlock, inFinished);
+        pushHeadersLater(streamId, Util.toHeaderBlock(headerBlock), inFinished);
         return;
       }
       Http2Stream stream;
@@ -719,9 +942,8 @@ public final class Http2Connection implements Closeable {
           if (streamId % 2 == nextStreamId % 2) return;
 
           // Create a stream.
-          Headers headers = Util.toHeaders(headerBlock);
           final Http2Stream newStream = new Http2Stream(streamId, Http2Connection.this,
-              false, inFinished, headers);
+              false, inFinished, headerBlock);
           lastGoodStreamId = streamId;
           streams.put(streamId, newStream);
           listenerExecutor.execute(new NamedRunnable(
@@ -744,7 +966,7 @@ public final class Http2Connection implements Closeable {
       }
 
       // Update an existing stream.
-      stream.receiveHeaders(Util.toHeaders(headerBlock), inFinished);
+      stream.receiveHeaders(headerBlock, inFinished);
     }
 
     @Override public void rstStream(int streamId, ErrorCode errorCode) {
@@ -787,7 +1009,9 @@ public final class Http2Connection implements Closeable {
           }
         }
         try {
+          writeControlFrames();
           writer.applyAndAckSettings(peerSettings);
+          writer.flush();
         } catch (IOException e) {
           failConnection(e);
         }
@@ -817,18 +1041,17 @@ public final class Http2Connection implements Closeable {
             intervalPongsReceived++;
           } else if (payload1 == DEGRADED_PING) {
             degradedPongsReceived++;
+            Http2Connection.this.notifyAll();
           } else if (payload1 == AWAIT_PING) {
             awaitPongsReceived++;
             Http2Connection.this.notifyAll();
+          } else if (payload1 == BDP_PING) {
+            receiveBdpPong(System.nanoTime());
           }
         }
       } else {
-        try {
-          // Send a reply to a client ping if this is a server and vice versa.
-          writerExecutor.execute(new PingRunnable(true, payload1, payload2));
-        } catch (RejectedExecutionException ignored) {
-          // This connection has been closed.
-        }
+        // Send a reply to a client ping if this is a server and vice versa.
+        writeControlFrameLater(ControlFrame.ping(true, payload1, payload2));
       }
     }
 
@@ -907,7 +1130,7 @@ public final class Http2Connection implements Closeable {
           boolean cancel = pushObserver.onRequest(streamId, requestHeaders);
           try {
             if (cancel) {
-              writer.rstStream(streamId, ErrorCode.CANCEL);
+              writeSynReset(streamId, ErrorCode.CANCEL);
               synchronized (Http2Connection.this) {
                 currentPushRequests.remove(streamId);
               }
@@ -929,7 +1152,7 @@ public final class Http2Connection implements Closeable {
         @Override public void execute() {
           boolean cancel = pushObserver.onHeaders(streamId, requestHeaders, inFinished);
           try {
-            if (cancel) writer.rstStream(streamId, ErrorCode.CANCEL);
+            if (cancel) writeSynReset(streamId, ErrorCode.CANCEL);
             if (cancel || inFinished) {
               synchronized (Http2Connection.this) {
                 currentPushRequests.remove(streamId);
@@ -958,7 +1181,7 @@ public final class Http2Connection implements Closeable {
       @Override public void execute() {
         try {
           boolean cancel = pushObserver.onData(streamId, buffer, byteCount, inFinished);
-          if (cancel) writer.rstStream(streamId, ErrorCode.CANCEL);
+          if (cancel) writeSynReset(streamId, ErrorCode.CANCEL);
           if (cancel || inFinished) {
             synchronized (Http2Connection.this) {
               currentPushRequests.remove(streamId);
@@ -1013,4 +1236,65 @@ public final class Http2Connection implements Closeable {
     public void onSettings(Http2Connection connection) {
     }
   }
+
+  /**
+   * A RST_STREAM, PING, WINDOW_UPDATE or window-size SETTINGS frame waiting in {@link
+   * #controlFrames}.
+   */
+  static final class ControlFrame {
+    final byte type;
+    final int streamId;
+    final @Nullable ErrorCode errorCode;
+    final boolean ack;
+    final int payload1;
+    final int payload2;
+    long windowSizeIncrement;
+
+    private ControlFrame(byte type, int streamId, @Nullable ErrorCode errorCode, boolean ack,
+        int payload1, int payload2, long windowSizeIncrement) {
+      this.type = type;
+      this.streamId = streamId;
+      this.errorCode = errorCode;
+      this.ack = ack;
+      this.payload1 = payload1;
+      this.payload2 = payload2;
+      this.windowSizeIncrement = windowSizeIncrement;
+    }
+
+    static ControlFrame rstStream(int streamId, ErrorCode errorCode) {
+      return new ControlFrame(TYPE_RST_STREAM, streamId, errorCode, false, 0, 0, 0L);
+    }
+
+    static ControlFrame ping(boolean ack, int payload1, int payload2) {
+      return new ControlFrame(TYPE_PING, 0, null, ack, payload1, payload2, 0L);
+    }
+
+    static ControlFrame windowUpdate(int streamId, long windowSizeIncrement) {
+      return new ControlFrame(TYPE_WINDOW_UPDATE, streamId, null, false, 0, 0,
+          windowSizeIncrement);
+    }
+
+    static ControlFrame initialWindowSize(int windowSize) {
+      return new ControlFrame(TYPE_SETTINGS, 0, null, false, windowSize, 0, 0L);
+    }
+
+    void writeTo(Http2Writer writer) throws IOException {
+      switch (type) {
+        case TYPE_RST_STREAM:
+          writer.rstStream(streamId, errorCode);
+          break;
+        case TYPE_PING:
+          writer.ping(ack, payload1, payload2);
+          break;
+        case TYPE_WINDOW_UPDATE:
+          writer.windowUpdate(streamId, windowSizeIncrement);
+          break;
+        case TYPE_SETTINGS:
+          writer.settings(new Settings().set(Settings.INITIAL_WINDOW_SIZE, payload1));
+          break;
+        default:
+          throw new AssertionError();
+      }
+    }
+  }
 }
@@ -113,7 +113,7 @@ public final class Http2ExchangeCodec implements ExchangeCodec {
 
     boolean hasRequestBody = request.body() != null;
     List<Header> requestHeaders = http2HeadersList(request);
-    stream = connection.newStream(requestHeaders, hasRequestBody);
+    stream = connection.newStream(requestHeaders, hasRequestBody, request.priority());
     // We may have been asked to cancel while creating the new stream and sending the request
     // headers, but there was still no stream to close.
     if (canceled) {
@@ -20,6 +20,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
+import okhttp3.Headers;
 import okio.Buffer;
 import okio.BufferedSource;
 import okio.ByteString;
@@ -180,12 +181,12 @@ final class Http2Reader implements Closeable {
 
     length = lengthWithoutPadding(length, flags, padding);
 
-    List<Header> headerBlock = readHeaderBlock(length, padding, flags, streamId);
+    readHeaderBlock(length, padding, flags, streamId);
 
-    handler.headers(endStream, streamId, -1, headerBlock);
+    handler.headers(endStream, streamId, -1, hpackReader.getAndResetHeaders());
   }
 
-  private List<Header> readHeaderBlock(int length, short padding, byte flags, int streamId)
+  private void readHeaderBlock(int length, short padding, byte flags, int streamId)
       throws IOException {
     continuation.length = continuation.left = length;
     continuation.padding = padding;
@@ -195,7 +196,6 @@ final class Http2Reader implements Closeable {
     // TODO: Concat multi-value headers with 0x0, except COOKIE, which uses 0x3B, 0x20.
     // http://tools.ietf.org/html/draft-ietf-httpbis-http2-17#section-8.1.2.5
     hpackReader.readHeaders();
-    return hpackReader.getAndResetHeaderList();
   }
 
   private void readData(Handler handler, int length, byte flags, int streamId)
@@ -299,8 +299,8 @@ final class Http2Reader implements Closeable {
     int promisedStreamId = source.readInt() & 0x7fffffff;
     length -= 4; // account for above read.
     length = lengthWithoutPadding(length, flags, padding);
-    List<Header> headerBlock = readHeaderBlock(length, padding, flags, streamId);
-    handler.pushPromise(streamId, promisedStreamId, headerBlock);
+    readHeaderBlock(length, padding, flags, streamId);
+    handler.pushPromise(streamId, promisedStreamId, hpackReader.getAndResetHeaderList());
   }
 
   private void readPing(Handler handler, int length, byte flags, int streamId)
@@ -423,8 +423,7 @@ final class Http2Reader implements Closeable {
      * @param streamId the stream owning these headers.
      * @param associatedStreamId the stream that triggered the sender to create this stream.
      */
-    void headers(boolean inFinished, int streamId, int associatedStreamId,
-        List<Header> headerBlock);
+    void headers(boolean inFinished, int streamId, int associatedStreamId, Headers headerBlock);
 
     void rstStream(int streamId, ErrorCode errorCode);
 
@@ -55,6 +55,16 @@ public final class Http2Stream {
   final int id;
   final Http2Connection connection;
 
+  /** The weight of this stream between 1 and 256. Higher weights get more of the connection. */
+  int weight = DEFAULT_WEIGHT;
+
+  /**
+   * Virtual times of this stream's DATA frames for weighted fair scheduling. A frame of n bytes
+   * advances the finish time by n scaled inversely to {@link #weight}. Guarded by the connection.
+   */
+  long virtualStart;
+  long virtualFinish;
+
   /**
    * Received headers yet to be {@linkplain #takeHeaders taken}, or {@linkplain FramingSource#read
    * read}.
@@ -79,6 +89,9 @@ public final class Http2Stream {
   /** The exception that explains {@code errorCode}. Null if no exception was provided. */
   @Nullable IOException errorException;
 
+  /** The weight of streams that don't specify a priority. */
+  static final int DEFAULT_WEIGHT = 16;
+
   Http2Stream(int id, Http2Connection connection, boolean outFinished, boolean inFinished,
       @Nullable Headers headers) {
     if (connection == null) throw new NullPointerException("connection == null");
@@ -87,7 +100,7 @@ public final class Http2Stream {
     this.connection = connection;
     this.bytesLeftInWriteWindow =
         connection.peerSettings.getInitialWindowSize();
-    this.source = new FramingSource(connection.okHttpSettings.getInitialWindowSize());
+    this.source = new FramingSource();
     this.sink = new FramingSink();
     this.source.finished = inFinished;
     this.sink.finished = outFinished;
@@ -343,9 +356,6 @@ public final class Http2Stream {
     /** Buffer with readable data. Guarded by Http2Stream.this. */
     private final Buffer readBuffer = new Buffer();
 
-    /** Maximum number of bytes to buffer before reporting a flow control error. */
-    private final long maxByteCount;
-
     /**
      * Received trailers. Null unless the server has provided trailers. Undefined until the stream
      * is exhausted. Guarded by Http2Stream.this.
@@ -361,10 +371,6 @@ public final class Http2Stream {
      */
     boolean finished;
 
-    FramingSource(long maxByteCount) {
-      this.maxByteCount = maxByteCount;
-    }
-
     @Override public long read(Buffer sink, long byteCount) throws IOException {
       if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
 
@@ -394,7 +400,7 @@ public final class Http2Stream {
 
               if (errorExceptionToDeliver == null
                   && unacknowledgedBytesRead
-                  >= connection.okHttpSettings.getInitialWindowSize() / 2) {
+                  >= connection.receiveWindowSize / 2) {
                 // Flow control: notify the peer that we're ready for more data! Only send a
                 // WINDOW_UPDATE if the stream isn't in error.
                 connection.writeWindowUpdateLater(id, unacknowledgedBytesRead);
@@ -447,12 +453,16 @@ public final class Http2Stream {
         boolean flowControlError;
         synchronized (Http2Stream.this) {
           finished = this.finished;
-          flowControlError = byteCount + readBuffer.size() > maxByteCount;
+          // The receive window may have grown since this stream was created, but never shrinks.
+          flowControlError = byteCount + readBuffer.size()
+              > connection.receiveWindowSize;
         }
 
         // If the peer sends more data than we can handle, discard it and close the connection.
+        // Discarded bytes are released from the connection window as if they had been read.
         if (flowControlError) {
           in.skip(byteCount);
+          updateConnectionFlowControl(byteCount);
           closeLater(ErrorCode.FLOW_CONTROL_ERROR);
           return;
         }
@@ -460,6 +470,7 @@ public final class Http2Stream {
         // Discard data received after the stream is finished. It's probably a benign race.
         if (finished) {
           in.skip(byteCount);
+          updateConnectionFlowControl(byteCount);
           return;
         }
 
@@ -29,6 +29,7 @@ import static okhttp3.internal.http2.Http2.FLAG_ACK;
 import static okhttp3.internal.http2.Http2.FLAG_END_HEADERS;
 import static okhttp3.internal.http2.Http2.FLAG_END_STREAM;
 import static okhttp3.internal.http2.Http2.FLAG_NONE;
+import static okhttp3.internal.http2.Http2.FLAG_PRIORITY;
 import static okhttp3.internal.http2.Http2.INITIAL_MAX_FRAME_SIZE;
 import static okhttp3.internal.http2.Http2.TYPE_CONTINUATION;
 import static okhttp3.internal.http2.Http2.TYPE_DATA;
@@ -42,7 +43,11 @@ import static okhttp3.internal.http2.Http2.TYPE_WINDOW_UPDATE;
 import static okhttp3.internal.http2.Http2.frameLog;
 import static okhttp3.internal.http2.Http2.illegalArgument;
 
-/** Writes HTTP/2 transport frames. */
+/**
+ * Writes HTTP/2 transport frames. Control frames (RST_STREAM, PING, WINDOW_UPDATE and SETTINGS
+ * ACK) are buffered until the next {@link #flush} so frames from many streams share one write to
+ * the socket.
+ */
 final class Http2Writer implements Closeable {
   private static final Logger logger = Logger.getLogger(Http2.class.getName());
 
@@ -52,6 +57,9 @@ final class Http2Writer implements Closeable {
   private int maxFrameSize;
   private boolean closed;
 
+  /** True if frames were written since the last flush. */
+  private boolean unflushed;
+
   final Hpack.Writer hpackWriter;
 
   Http2Writer(BufferedSink sink, boolean client) {
@@ -84,7 +92,6 @@ final class Http2Writer implements Closeable {
     byte flags = FLAG_ACK;
     int streamId = 0;
     frameHeader(streamId, length, type, flags);
-    sink.flush();
   }
 
   /**
@@ -116,8 +123,14 @@ final class Http2Writer implements Closeable {
     if (byteCount > length) writeContinuationFrames(streamId, byteCount - length);
   }
 
+  /**
+   * Flushes buffered frames to the socket. Does nothing if another caller's flush already wrote
+   * every frame, which is common when many streams flush concurrently.
+   */
   public synchronized void flush() throws IOException {
     if (closed) throw new IOException("closed");
+    if (!unflushed) return;
+    unflushed = false;
     sink.flush();
   }
 
@@ -131,7 +144,6 @@ final class Http2Writer implements Closeable {
     byte flags = FLAG_NONE;
     frameHeader(streamId, length, type, flags);
     sink.writeInt(errorCode.httpCode);
-    sink.flush();
   }
 
   /** The maximum size of bytes that may be sent in a single call to {@link #data}. */
@@ -182,7 +194,7 @@ final class Http2Writer implements Closeable {
       sink.writeShort(id);
       sink.writeInt(settings.get(i));
     }
-    sink.flush();
+    flush();
   }
 
   /**
@@ -198,7 +210,6 @@ final class Http2Writer implements Closeable {
     frameHeader(streamId, length, type, flags);
     sink.writeInt(payload1);
     sink.writeInt(payload2);
-    sink.flush();
   }
 
   /**
@@ -223,7 +234,7 @@ final class Http2Writer implements Closeable {
     if (debugData.length > 0) {
       sink.write(debugData);
     }
-    sink.flush();
+    flush();
   }
 
   /**
@@ -241,7 +252,6 @@ final class Http2Writer implements Closeable {
     byte flags = FLAG_NONE;
     frameHeader(streamId, length, type, flags);
     sink.writeInt((int) windowSizeIncrement);
-    sink.flush();
   }
 
   public void frameHeader(int streamId, int length, byte type, byte flags) throws IOException {
@@ -250,6 +260,7 @@ final class Http2Writer implements Closeable {
       throw illegalArgument("FRAME_SIZE_ERROR length > %d: %d", maxFrameSize, length);
     }
     if ((streamId & 0x80000000) != 0) throw illegalArgument("reserved bit set: %s", streamId);
+    unflushed = true;
     writeMedium(sink, length);
     sink.writeByte(type & 0xff);
     sink.writeByte(flags & 0xff);
@@ -278,15 +289,31 @@ final class Http2Writer implements Closeable {
 
   public synchronized void headers(
       boolean outFinished, int streamId, List<Header> headerBlock) throws IOException {
+    headers(outFinished, streamId, Http2Stream.DEFAULT_WEIGHT, headerBlock);
+  }
+
+  /**
+   * Writes a header block. If {@code weight} isn't the default the HEADERS frame carries it as the
+   * stream's priority, depending on the root stream.
+   */
+  public synchronized void headers(boolean outFinished, int streamId, int weight,
+      List<Header> headerBlock) throws IOException {
     if (closed) throw new IOException("closed");
     hpackWriter.writeHeaders(headerBlock);
 
+    boolean priority = weight != Http2Stream.DEFAULT_WEIGHT;
+    int priorityLength = priority ? 5 : 0;
     long byteCount = hpackBuffer.size();
-    int length = (int) Math.min(maxFrameSize, byteCount);
+    int length = (int) Math.min(maxFrameSize - priorityLength, byteCount);
     byte type = TYPE_HEADERS;
     byte flags = byteCount == length ? FLAG_END_HEADERS : 0;
     if (outFinished) flags |= FLAG_END_STREAM;
-    frameHeader(streamId, length, type, flags);
+    if (priority) flags |= FLAG_PRIORITY;
+    frameHeader(streamId, length + priorityLength, type, flags);
+    if (priority) {
+      sink.writeInt(0); // Not exclusive, depends on stream 0.
+      sink.writeByte(weight - 1);
+    }
     sink.write(hpackBuffer, length);
 
     if (byteCount > length) writeContinuationFrames(streamId, byteCount - length);
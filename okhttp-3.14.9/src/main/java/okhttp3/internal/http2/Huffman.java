@@ -15,8 +15,8 @@
  */
 package okhttp3.internal.http2;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import okio.BufferedSink;
 import okio.ByteString;
 
@@ -126,11 +126,25 @@ class Huffman {
   }
 
   byte[] decode(byte[] buf) {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] result = new byte[maxDecodedLength(buf.length)];
+    return Arrays.copyOf(result, decode(buf, buf.length, result));
+  }
+
+  /** Returns the most bytes that {@code length} bytes can decode to. The shortest code is 5 bits. */
+  static int maxDecodedLength(int length) {
+    return (int) (length * 8L / 5L);
+  }
+
+  /**
+   * Decodes the first {@code length} bytes of {@code buf} into {@code out}, which must hold at
+   * least {@link #maxDecodedLength} bytes. Returns the number of bytes decoded.
+   */
+  int decode(byte[] buf, int length, byte[] out) {
+    int outLength = 0;
     Node node = root;
     int current = 0;
     int nbits = 0;
-    for (int i = 0; i < buf.length; i++) {
+    for (int i = 0; i < length; i++) {
       int b = buf[i] & 0xFF;
       current = (current << 8) | b;
       nbits += 8;
@@ -139,7 +153,7 @@ class Huffman {
         node = node.children[c];
         if (node.children == null) {
           // terminal node
-          baos.write(node.symbol);
+          out[outLength++] = (byte) node.symbol;
           nbits -= node.terminalBits;
           node = root;
         } else {
@@ -155,12 +169,12 @@ class Huffman {
       if (node.children != null || node.terminalBits > nbits) {
         break;
       }
-      baos.write(node.symbol);
+      out[outLength++] = (byte) node.symbol;
       nbits -= node.terminalBits;
       node = root;
     }
 
-    return baos.toByteArray();
+    return outLength;
   }
 
   private void buildTree() {
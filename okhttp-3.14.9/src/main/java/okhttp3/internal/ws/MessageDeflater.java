@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Compresses messages for RFC 7692 {@code permessage-deflate}. One {@link Deflater} is reused for
+ * every message of a web socket. Unless {@code noContextTakeover}, it keeps its window between
+ * messages so later messages can refer back to earlier ones.
+ *
+ * <p>This class is only used by the writer thread, but any thread may {@linkplain #close close} it
+ * when the web socket fails.
+ */
+final class MessageDeflater {
+  /** The sync flush marker every compressed message ends with. It is not transmitted. */
+  static final ByteString EMPTY_DEFLATE_BLOCK = ByteString.decodeHex("0000ffff");
+
+  private final boolean noContextTakeover;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+  private final byte[] output = new byte[8192];
+  private boolean closed;
+
+  MessageDeflater(boolean noContextTakeover) {
+    this.noContextTakeover = noContextTakeover;
+  }
+
+  /** Replaces the message in {@code buffer} with its compressed form. */
+  synchronized void deflate(Buffer buffer) throws IOException {
+    if (closed) throw new IOException("closed");
+    deflater.setInput(buffer.readByteArray());
+    int count;
+    do {
+      count = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+      buffer.write(output, 0, count);
+    } while (count == output.length);
+
+    // The message must not end with the marker, which the receiver appends before inflating.
+    if (buffer.rangeEquals(buffer.size() - EMPTY_DEFLATE_BLOCK.size(), EMPTY_DEFLATE_BLOCK)) {
+      Buffer.UnsafeCursor cursor = buffer.readAndWriteUnsafe();
+      cursor.resizeBuffer(buffer.size() - EMPTY_DEFLATE_BLOCK.size());
+      cursor.close();
+    } else {
+      buffer.writeByte(0x00); // An empty final block, as RFC 7692 section 7.2.3.4 suggests.
+    }
+
+    if (noContextTakeover) deflater.reset();
+  }
+
+  /** Releases the deflater. It must not be used afterwards. Closing again does nothing. */
+  synchronized void close() {
+    if (closed) return;
+    closed = true;
+    deflater.end();
+  }
+}
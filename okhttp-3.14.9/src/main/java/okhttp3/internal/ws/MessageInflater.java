@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import okio.Buffer;
+
+/**
+ * Decompresses messages for RFC 7692 {@code permessage-deflate}. One {@link Inflater} is reused for
+ * every message of a web socket. Unless {@code noContextTakeover}, it keeps its window between
+ * messages because the peer's messages may refer back to earlier ones.
+ *
+ * <p>A few bytes can inflate to gigabytes, so messages that inflate to more than {@code
+ * maximumMessageSize} bytes fail with {@link MessageTooBigException}.
+ *
+ * <p>This class is only used by the reader thread, but any thread may {@linkplain #close close} it
+ * when the web socket fails.
+ */
+final class MessageInflater {
+  private final boolean noContextTakeover;
+  private final long maximumMessageSize;
+  private final Inflater inflater = new Inflater(true /* nowrap */);
+  private final byte[] output = new byte[8192];
+  private boolean closed;
+
+  MessageInflater(boolean noContextTakeover, long maximumMessageSize) {
+    this.noContextTakeover = noContextTakeover;
+    this.maximumMessageSize = maximumMessageSize;
+  }
+
+  /** Replaces the compressed message in {@code buffer} with its decompressed form. */
+  synchronized void inflate(Buffer buffer) throws IOException {
+    if (closed) throw new IOException("closed");
+    if (noContextTakeover) inflater.reset();
+
+    // Restore the sync flush marker the sender removed.
+    buffer.write(MessageDeflater.EMPTY_DEFLATE_BLOCK);
+    inflater.setInput(buffer.readByteArray());
+    try {
+      while (true) {
+        int count = inflater.inflate(output);
+        buffer.write(output, 0, count);
+        if (buffer.size() > maximumMessageSize) {
+          buffer.clear();
+          throw new MessageTooBigException(maximumMessageSize);
+        }
+        if (count == 0) break; // The input is exhausted, or a final block ended the stream.
+      }
+    } catch (DataFormatException e) {
+      ProtocolException exception = new ProtocolException("Malformed compressed message");
+      exception.initCause(e);
+      throw exception;
+    }
+
+    // A final block ends the stream, so the next message starts a new one.
+    if (inflater.finished()) inflater.reset();
+  }
+
+  /** Releases the inflater. It must not be used afterwards. Closing again does nothing. */
+  synchronized void close() {
+    if (closed) return;
+    closed = true;
+    inflater.end();
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.net.ProtocolException;
+
+/**
+ * Thrown when a compressed message inflates to more than the web socket accepts. The web socket
+ * sends close code 1009 before it fails.
+ */
+final class MessageTooBigException extends ProtocolException {
+  MessageTooBigException(long maximumMessageSize) {
+    super("Inflated message exceeds " + maximumMessageSize + " bytes");
+  }
+}
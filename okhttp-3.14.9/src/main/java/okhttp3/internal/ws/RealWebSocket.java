@@ -32,6 +32,7 @@ import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.EventListener;
 import okhttp3.OkHttpClient;
+import okhttp3.PerMessageDeflate;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -43,12 +44,13 @@ import okhttp3.internal.connection.Exchange;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.ByteString;
-import okio.Okio;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static okhttp3.internal.Util.closeQuietly;
+import static okhttp3.internal.ws.WebSocketExtensions.HEADER_WEB_SOCKET_EXTENSION;
 import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_CLIENT_GOING_AWAY;
 import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_MESSAGE_MAX;
+import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_BINARY;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_TEXT;
 import static okhttp3.internal.ws.WebSocketProtocol.validateCloseCode;
@@ -76,6 +78,9 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   private final long pingIntervalMillis;
   private final String key;
 
+  /** The compression to offer in the handshake, or null to offer none. */
+  private final @Nullable PerMessageDeflate compression;
+
   /** Non-null for client web sockets. These can be canceled. */
   private Call call;
 
@@ -100,6 +105,10 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
    */
   private Streams streams;
 
+  /** Null unless {@code permessage-deflate} was negotiated. Ended on close, failure or cancel. */
+  private @Nullable MessageDeflater messageDeflater;
+  private @Nullable MessageInflater messageInflater;
+
   /** Outgoing pongs in the order they should be written. */
   private final ArrayDeque<ByteString> pongQueue = new ArrayDeque<>();
 
@@ -141,6 +150,11 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
   public RealWebSocket(Request request, WebSocketListener listener, Random random,
       long pingIntervalMillis) {
+    this(request, listener, random, pingIntervalMillis, null);
+  }
+
+  public RealWebSocket(Request request, WebSocketListener listener, Random random,
+      long pingIntervalMillis, @Nullable PerMessageDeflate compression) {
     if (!"GET".equals(request.method())) {
       throw new IllegalArgumentException("Request must be GET: " + request.method());
     }
@@ -148,6 +162,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     this.listener = listener;
     this.random = random;
     this.pingIntervalMillis = pingIntervalMillis;
+    this.compression = compression;
 
     byte[] nonce = new byte[16];
     random.nextBytes(nonce);
@@ -173,6 +188,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
   @Override public void cancel() {
     call.cancel();
+    releaseCompression();
   }
 
   public void connect(OkHttpClient client) {
@@ -180,19 +196,27 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         .eventListener(EventListener.NONE)
         .protocols(ONLY_HTTP1)
         .build();
-    final Request request = originalRequest.newBuilder()
+    Request.Builder requestBuilder = originalRequest.newBuilder()
         .header("Upgrade", "websocket")
         .header("Connection", "Upgrade")
         .header("Sec-WebSocket-Key", key)
-        .header("Sec-WebSocket-Version", "13")
-        .build();
+        .header("Sec-WebSocket-Version", "13");
+    if (compression != null) {
+      requestBuilder.header(HEADER_WEB_SOCKET_EXTENSION, compression.offer());
+    }
+    final Request request = requestBuilder.build();
     call = Internal.instance.newWebSocketCall(client, request);
     call.enqueue(new Callback() {
       @Override public void onResponse(Call call, Response response) {
         Exchange exchange = Internal.instance.exchange(response);
         Streams streams;
+        WebSocketExtensions extensions = null;
         try {
           checkUpgradeSuccess(response, exchange);
+          if (compression != null) {
+            // The offer never includes client_max_window_bits.
+            extensions = WebSocketExtensions.parse(response.headers(), false);
+          }
           streams = exchange.newWebSocketStreams();
         } catch (IOException e) {
           if (exchange != null) exchange.webSocketUpgradeFailed();
@@ -204,7 +228,17 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         // Process all web socket messages.
         try {
           String name = "OkHttp WebSocket " + request.url().redact();
-          initReaderAndWriter(name, streams);
+          initReaderAndWriter(name, streams, extensions);
+
+          // 服务端返回了不认识的扩展或参数时，不发送任何消息，直接关闭
+          // If the server returned extensions or parameters we don't understand, shut down.
+          if (extensions != null && extensions.unknownValues) {
+            synchronized (RealWebSocket.this) {
+              messageAndCloseQueue.clear(); // Don't transmit any messages.
+              queueSize = 0L;
+              close(1010, "unexpected Sec-WebSocket-Extensions in response header");
+            }
+          }
           listener.onOpen(RealWebSocket.this, response);
           loopReader();
         } catch (Exception e) {
@@ -250,9 +284,45 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   }
 
   public void initReaderAndWriter(String name, Streams streams) throws IOException {
+    initReaderAndWriter(name, streams, null);
+  }
+
+  /**
+   * Starts reading and writing {@code streams}. If {@code extensions} negotiated {@code
+   * permessage-deflate}, large outgoing messages are compressed and compressed incoming messages
+   * are decompressed.
+   */
+  public void initReaderAndWriter(String name, Streams streams,
+      @Nullable WebSocketExtensions extensions) throws IOException {
+    boolean deflate = extensions != null && extensions.perMessageDeflate
+        && !extensions.unknownValues;
+    boolean client = streams.client;
+
+    // java.util.zip always compresses with a 15-bit window, so don't compress if the peer needs
+    // a smaller one. Uncompressed messages are always permitted.
+    Integer writeWindowBits = !deflate ? null
+        : client ? extensions.clientMaxWindowBits : extensions.serverMaxWindowBits;
+    MessageDeflater messageDeflater = null;
+    if (deflate && (writeWindowBits == null || writeWindowBits == 15)) {
+      boolean offeredNoContextTakeover = client && compression != null
+          && compression.clientNoContextTakeover();
+      messageDeflater = new MessageDeflater(
+          extensions.noContextTakeover(client) || offeredNoContextTakeover);
+    }
+    long maximumMessageSize = compression != null
+        ? compression.maximumMessageSize()
+        : MAX_QUEUE_SIZE;
+    MessageInflater messageInflater = deflate
+        ? new MessageInflater(extensions.noContextTakeover(!client), maximumMessageSize)
+        : null;
+    long minimumDeflateSize = compression != null ? compression.minimumSize() : 0L;
+
     synchronized (this) {
       this.streams = streams;
-      this.writer = new WebSocketWriter(streams.client, streams.sink, random);
+      this.messageDeflater = messageDeflater;
+      this.messageInflater = messageInflater;
+      this.writer = new WebSocketWriter(
+          client, streams.sink, random, messageDeflater, minimumDeflateSize);
       this.executor = new ScheduledThreadPoolExecutor(1, Util.threadFactory(name, false));
       if (pingIntervalMillis != 0) {
         executor.scheduleAtFixedRate(
@@ -263,7 +333,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
       }
     }
 
-    reader = new WebSocketReader(streams.client, streams.source, this);
+    reader = new WebSocketReader(client, streams.source, this, messageInflater);
   }
 
   /** Receive frames until there are no more. Invoked only by the reader thread. */
@@ -470,7 +540,8 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
       pong = pongQueue.poll();
       if (pong == null) {
         messageOrClose = messageAndCloseQueue.poll();
-        if (messageOrClose instanceof Close) {
+        // A close frame that carries a failure fails the web socket once written; see below.
+        if (messageOrClose instanceof Close && ((Close) messageOrClose).failure == null) {
           receivedCloseCode = this.receivedCloseCode;
           receivedCloseReason = this.receivedCloseReason;
           if (receivedCloseCode != -1) {
@@ -494,10 +565,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
       } else if (messageOrClose instanceof Message) {
         ByteString data = ((Message) messageOrClose).data;
-        BufferedSink sink = Okio.buffer(writer.newMessageSink(
-            ((Message) messageOrClose).formatOpcode, data.size()));
-        sink.write(data);
-        sink.close();
+        writer.writeMessage(((Message) messageOrClose).formatOpcode, data);
         synchronized (this) {
           queueSize -= data.size();
         }
@@ -506,6 +574,11 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         Close close = (Close) messageOrClose;
         writer.writeClose(close.code, close.reason);
 
+        if (close.failure != null) {
+          failWebSocket(close.failure, null);
+          return false;
+        }
+
         // We closed the writer: now both reader and writer are closed.
         if (streamsToClose != null) {
           listener.onClosed(this, receivedCloseCode, receivedCloseReason);
@@ -559,6 +632,19 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     Streams streamsToClose;
     synchronized (this) {
       if (failed) return; // Already failed.
+
+      // 消息解压后过大：丢弃待发消息，先发送1009关闭帧，写线程发完后再让web socket失败
+      // Tell the peer why before failing. The writer thread fails after the close frame is sent.
+      if (e instanceof MessageTooBigException && writer != null && !enqueuedClose) {
+        enqueuedClose = true;
+        messageAndCloseQueue.clear();
+        queueSize = 0L;
+        messageAndCloseQueue.add(new Close(CLOSE_MESSAGE_TOO_BIG,
+            ByteString.encodeUtf8("message too big"), 0L, e));
+        runWriter();
+        return;
+      }
+
       failed = true;
       streamsToClose = this.streams;
       this.streams = null;
@@ -570,7 +656,23 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
       listener.onFailure(this, e, response);
     } finally {
       closeQuietly(streamsToClose);
+      releaseCompression();
+    }
+  }
+
+  /**
+   * Ends the compressor and decompressor. They're also ended when a close frame is written or read,
+   * but a failed or canceled web socket may never get that far.
+   */
+  private void releaseCompression() {
+    MessageDeflater deflaterToClose;
+    MessageInflater inflaterToClose;
+    synchronized (this) {
+      deflaterToClose = messageDeflater;
+      inflaterToClose = messageInflater;
     }
+    if (deflaterToClose != null) deflaterToClose.close();
+    if (inflaterToClose != null) inflaterToClose.close();
   }
 
   static final class Message {
@@ -587,11 +689,19 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     final int code;
     final ByteString reason;
     final long cancelAfterCloseMillis;
+    /** If non-null, the web socket fails with this once the close frame is written. */
+    final @Nullable Exception failure;
 
     Close(int code, ByteString reason, long cancelAfterCloseMillis) {
+      this(code, reason, cancelAfterCloseMillis, null);
+    }
+
+    Close(int code, ByteString reason, long cancelAfterCloseMillis,
+        @Nullable Exception failure) {
       this.code = code;
       this.reason = reason;
       this.cancelAfterCloseMillis = cancelAfterCloseMillis;
+      this.failure = failure;
     }
   }
 
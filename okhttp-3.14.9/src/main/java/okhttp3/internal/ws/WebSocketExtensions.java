@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import javax.annotation.Nullable;
+import okhttp3.Headers;
+
+import static okhttp3.internal.Util.delimiterOffset;
+import static okhttp3.internal.Util.trimSubstring;
+
+/**
+ * The web socket extensions negotiated in a handshake response. Only <a
+ * href="https://tools.ietf.org/html/rfc7692">RFC 7692</a> {@code permessage-deflate} is supported;
+ * any other extension or parameter sets {@link #unknownValues}.
+ *
+ * <p>A negotiated {@code permessage-deflate} compresses each message separately with DEFLATE. The
+ * parameters limit how the peers compress:
+ *
+ * <ul>
+ *   <li>{@code client_no_context_takeover} and {@code server_no_context_takeover}: that peer resets
+ *       its compression state after each message, so no message refers to an earlier one. This
+ *       saves the receiver memory but compresses similar messages less well.
+ *   <li>{@code client_max_window_bits} and {@code server_max_window_bits}: that peer refers back no
+ *       more than 2<sup>bits</sup> bytes, from 8 to 15.
+ * </ul>
+ */
+public final class WebSocketExtensions {
+  static final String HEADER_WEB_SOCKET_EXTENSION = "Sec-WebSocket-Extensions";
+
+  /** True if {@code permessage-deflate} was negotiated. */
+  public final boolean perMessageDeflate;
+  public final @Nullable Integer clientMaxWindowBits;
+  public final boolean clientNoContextTakeover;
+  public final @Nullable Integer serverMaxWindowBits;
+  public final boolean serverNoContextTakeover;
+
+  /** True if the header had an extension, parameter or value this class doesn't understand. */
+  public final boolean unknownValues;
+
+  WebSocketExtensions(boolean perMessageDeflate, @Nullable Integer clientMaxWindowBits,
+      boolean clientNoContextTakeover, @Nullable Integer serverMaxWindowBits,
+      boolean serverNoContextTakeover, boolean unknownValues) {
+    this.perMessageDeflate = perMessageDeflate;
+    this.clientMaxWindowBits = clientMaxWindowBits;
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    this.serverMaxWindowBits = serverMaxWindowBits;
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    this.unknownValues = unknownValues;
+  }
+
+  /** Returns true if the writer on the {@code isClient} side must reset after each message. */
+  public boolean noContextTakeover(boolean isClient) {
+    return isClient ? clientNoContextTakeover : serverNoContextTakeover;
+  }
+
+  /**
+   * Returns the extensions negotiated by the {@code Sec-WebSocket-Extensions} response headers.
+   * A server may only send {@code client_max_window_bits} if the client offered it, so an unasked
+   * {@code client_max_window_bits} sets {@link #unknownValues}.
+   *
+   * @param clientMaxWindowBitsOffered true if the request offered {@code client_max_window_bits}.
+   */
+  public static WebSocketExtensions parse(Headers responseHeaders,
+      boolean clientMaxWindowBitsOffered) {
+    boolean perMessageDeflate = false;
+    Integer clientMaxWindowBits = null;
+    boolean clientNoContextTakeover = false;
+    Integer serverMaxWindowBits = null;
+    boolean serverNoContextTakeover = false;
+    boolean unknownValues = false;
+
+    for (String header : responseHeaders.values(HEADER_WEB_SOCKET_EXTENSION)) {
+      // Extensions are separated by ',' and their parameters by ';'.
+      for (int pos = 0, limit = header.length(); pos < limit; ) {
+        int extensionEnd = delimiterOffset(header, pos, limit, ',');
+        int tokenEnd = delimiterOffset(header, pos, extensionEnd, ';');
+        String token = trimSubstring(header, pos, tokenEnd);
+        pos = tokenEnd + 1;
+
+        if (!token.equalsIgnoreCase("permessage-deflate")) {
+          unknownValues = true; // An extension we don't support.
+          pos = extensionEnd + 1;
+          continue;
+        }
+        if (perMessageDeflate) unknownValues = true; // Repeated extension.
+        perMessageDeflate = true;
+
+        while (pos < extensionEnd) {
+          int parameterEnd = delimiterOffset(header, pos, extensionEnd, ';');
+          int equals = delimiterOffset(header, pos, parameterEnd, '=');
+          String name = trimSubstring(header, pos, equals);
+          String value = equals < parameterEnd
+              ? unquote(trimSubstring(header, equals + 1, parameterEnd))
+              : null;
+          pos = parameterEnd + 1;
+
+          if (name.equalsIgnoreCase("client_max_window_bits")) {
+            if (clientMaxWindowBits != null) unknownValues = true; // Repeated parameter.
+            if (!clientMaxWindowBitsOffered) unknownValues = true; // Not offered.
+            clientMaxWindowBits = parseWindowBits(value);
+            if (clientMaxWindowBits == null) unknownValues = true;
+          } else if (name.equalsIgnoreCase("client_no_context_takeover")) {
+            if (clientNoContextTakeover || value != null) unknownValues = true;
+            clientNoContextTakeover = true;
+          } else if (name.equalsIgnoreCase("server_max_window_bits")) {
+            if (serverMaxWindowBits != null) unknownValues = true; // Repeated parameter.
+            serverMaxWindowBits = parseWindowBits(value);
+            if (serverMaxWindowBits == null) unknownValues = true;
+          } else if (name.equalsIgnoreCase("server_no_context_takeover")) {
+            if (serverNoContextTakeover || value != null) unknownValues = true;
+            serverNoContextTakeover = true;
+          } else {
+            unknownValues = true; // A parameter we don't support.
+          }
+        }
+      }
+    }
+
+    return new WebSocketExtensions(perMessageDeflate, clientMaxWindowBits,
+        clientNoContextTakeover, serverMaxWindowBits, serverNoContextTakeover, unknownValues);
+  }
+
+  private static String unquote(String value) {
+    return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")
+        ? value.substring(1, value.length() - 1)
+        : value;
+  }
+
+  /** Returns the window bits in {@code value}, or null if it isn't an integer in [8..15]. */
+  private static @Nullable Integer parseWindowBits(@Nullable String value) {
+    if (value == null) return null;
+    try {
+      int bits = Integer.parseInt(value);
+      return bits >= 8 && bits <= 15 ? bits : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -91,6 +91,8 @@ public final class WebSocketProtocol {
   static final int CLOSE_CLIENT_GOING_AWAY = 1001;
   /** Used when an empty close frame was received (i.e., without a status code). */
   static final int CLOSE_NO_STATUS_CODE = 1005;
+  /** Used when a message inflated to more than the web socket accepts. */
+  static final int CLOSE_MESSAGE_TOO_BIG = 1009;
 
   static void toggleMask(Buffer.UnsafeCursor cursor, byte[] key) {
     int keyIndex = 0;
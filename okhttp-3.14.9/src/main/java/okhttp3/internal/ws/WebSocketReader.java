@@ -18,6 +18,7 @@ package okhttp3.internal.ws;
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import okio.Buffer;
 import okio.BufferedSource;
 import okio.ByteString;
@@ -68,6 +69,7 @@ final class WebSocketReader {
   long frameLength;
   boolean isFinalFrame;
   boolean isControlFrame;
+  boolean readingCompressedMessage;
 
   private final Buffer controlFrameBuffer = new Buffer();
   private final Buffer messageFrameBuffer = new Buffer();
@@ -75,12 +77,21 @@ final class WebSocketReader {
   private final byte[] maskKey;
   private final Buffer.UnsafeCursor maskCursor;
 
+  /** Decompresses messages if {@code permessage-deflate} was negotiated, otherwise null. */
+  private final @Nullable MessageInflater messageInflater;
+
   WebSocketReader(boolean isClient, BufferedSource source, FrameCallback frameCallback) {
+    this(isClient, source, frameCallback, null);
+  }
+
+  WebSocketReader(boolean isClient, BufferedSource source, FrameCallback frameCallback,
+      @Nullable MessageInflater messageInflater) {
     if (source == null) throw new NullPointerException("source == null");
     if (frameCallback == null) throw new NullPointerException("frameCallback == null");
     this.isClient = isClient;
     this.source = source;
     this.frameCallback = frameCallback;
+    this.messageInflater = messageInflater;
 
     // Masks are only a concern for server writers.
     maskKey = isClient ? null : new byte[4];
@@ -131,11 +142,19 @@ final class WebSocketReader {
     boolean reservedFlag1 = (b0 & B0_FLAG_RSV1) != 0;
     boolean reservedFlag2 = (b0 & B0_FLAG_RSV2) != 0;
     boolean reservedFlag3 = (b0 & B0_FLAG_RSV3) != 0;
-    if (reservedFlag1 || reservedFlag2 || reservedFlag3) {
+    if ((reservedFlag1 && messageInflater == null) || reservedFlag2 || reservedFlag3) {
       // Reserved flags are for extensions which we currently do not support.
       throw new ProtocolException("Reserved flags are unsupported.");
     }
 
+    // With permessage-deflate, RSV1 on a message's first frame marks the message as compressed.
+    if (reservedFlag1 && (isControlFrame || opcode == OPCODE_CONTINUATION)) {
+      throw new ProtocolException("Unexpected rsv1 flag");
+    }
+    if (!isControlFrame && opcode != OPCODE_CONTINUATION) {
+      readingCompressedMessage = reservedFlag1;
+    }
+
     int b1 = source.readByte() & 0xff;
 
     boolean isMasked = (b1 & B1_FLAG_MASK) != 0;
@@ -201,6 +220,7 @@ final class WebSocketReader {
         }
         frameCallback.onReadClose(code, reason);
         closed = true;
+        if (messageInflater != null) messageInflater.close();
         break;
       default:
         throw new ProtocolException("Unknown control opcode: " + toHexString(opcode));
@@ -215,6 +235,10 @@ final class WebSocketReader {
 
     readMessage();
 
+    if (readingCompressedMessage) {
+      messageInflater.inflate(messageFrameBuffer);
+    }
+
     if (opcode == OPCODE_TEXT) {
       frameCallback.onReadMessage(messageFrameBuffer.readUtf8());
     } else {
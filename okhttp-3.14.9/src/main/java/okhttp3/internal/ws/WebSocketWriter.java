@@ -17,13 +17,16 @@ package okhttp3.internal.ws;
 
 import java.io.IOException;
 import java.util.Random;
+import javax.annotation.Nullable;
 import okio.Buffer;
 import okio.BufferedSink;
 import okio.ByteString;
+import okio.Okio;
 import okio.Sink;
 import okio.Timeout;
 
 import static okhttp3.internal.ws.WebSocketProtocol.B0_FLAG_FIN;
+import static okhttp3.internal.ws.WebSocketProtocol.B0_FLAG_RSV1;
 import static okhttp3.internal.ws.WebSocketProtocol.B1_FLAG_MASK;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_CONTINUATION;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_CONTROL_CLOSE;
@@ -58,13 +61,24 @@ final class WebSocketWriter {
   private final byte[] maskKey;
   private final Buffer.UnsafeCursor maskCursor;
 
+  /** Compresses messages if {@code permessage-deflate} was negotiated, otherwise null. */
+  private final @Nullable MessageDeflater messageDeflater;
+  private final long minimumDeflateSize;
+
   WebSocketWriter(boolean isClient, BufferedSink sink, Random random) {
+    this(isClient, sink, random, null, 0L);
+  }
+
+  WebSocketWriter(boolean isClient, BufferedSink sink, Random random,
+      @Nullable MessageDeflater messageDeflater, long minimumDeflateSize) {
     if (sink == null) throw new NullPointerException("sink == null");
     if (random == null) throw new NullPointerException("random == null");
     this.isClient = isClient;
     this.sink = sink;
     this.sinkBuffer = sink.buffer();
     this.random = random;
+    this.messageDeflater = messageDeflater;
+    this.minimumDeflateSize = minimumDeflateSize;
 
     // Masks are only a concern for client writers.
     maskKey = isClient ? new byte[4] : null;
@@ -106,6 +120,7 @@ final class WebSocketWriter {
       writeControlFrame(OPCODE_CONTROL_CLOSE, payload);
     } finally {
       writerClosed = true;
+      if (messageDeflater != null) messageDeflater.close();
     }
   }
 
@@ -165,6 +180,28 @@ final class WebSocketWriter {
     return frameSink;
   }
 
+  /**
+   * Write {@code data} as one message. If {@code permessage-deflate} was negotiated and the message
+   * is at least the minimum size it is compressed and sent in a single frame.
+   */
+  void writeMessage(int formatOpcode, ByteString data) throws IOException {
+    if (messageDeflater == null || data.size() < minimumDeflateSize) {
+      BufferedSink sink = Okio.buffer(newMessageSink(formatOpcode, data.size()));
+      sink.write(data);
+      sink.close();
+      return;
+    }
+
+    if (activeWriter) {
+      throw new IllegalStateException("Another message writer is active. Did you call close()?");
+    }
+    buffer.write(data);
+    messageDeflater.deflate(buffer);
+    // The RSV1 bit marks the message as compressed.
+    writeMessageFrame(
+        formatOpcode | B0_FLAG_RSV1, buffer.size(), true /* first */, true /* final */);
+  }
+
   void writeMessageFrame(int formatOpcode, long byteCount, boolean isFirstFrame,
       boolean isFinal) throws IOException {
     if (writerClosed) throw new IOException("closed");
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import okhttp3.internal.io.FileSystem;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the batched journal of {@link DiskLruCache}. Background work only runs when a test calls
+ * {@link TestExecutor#runAll}, and a crash is simulated by opening the directory again without
+ * closing the first cache.
+ */
+public final class DiskLruCacheJournalTest {
+  @Rule public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  private final FileSystem fileSystem = FileSystem.SYSTEM;
+  private final int appVersion = 100;
+  private final int entryCount = 100;
+  private final TestExecutor executor = new TestExecutor();
+  private File cacheDir;
+  private DiskLruCache cache;
+
+  @Before public void setUp() throws Exception {
+    cacheDir = tempDir.getRoot();
+    cache = open(executor);
+  }
+
+  @After public void tearDown() throws Exception {
+    cache.close();
+  }
+
+  private DiskLruCache open(Executor executor) {
+    return new DiskLruCache(fileSystem, cacheDir, appVersion, 2, Long.MAX_VALUE, executor);
+  }
+
+  @Test public void compactionKeepsEntriesAcrossReopen() throws Exception {
+    for (int round = 0; round < 3; round++) {
+      writeAndReadEntries(round);
+      executor.runAll();
+      assertEquals(0, cache.redundantOpCount);
+    }
+    cache.close();
+
+    // The compacted journal holds the header and one CLEAN record per entry.
+    assertEquals(5 + entryCount, readJournalLines().length);
+
+    cache = open(executor);
+    assertEntries(2);
+  }
+
+  @Test public void crashAfterCompactionsKeepsFlushedEntries() throws Exception {
+    for (int round = 0; round < 3; round++) {
+      writeAndReadEntries(round);
+      executor.runAll();
+      assertEquals(0, cache.redundantOpCount);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertTrue(cache.remove("k" + i));
+    }
+    cache.flush();
+
+    // Committed after the last flush, so its CLEAN record is still queued when the process dies.
+    set("unflushed", "x", "y");
+
+    cache = open(new TestExecutor());
+    long size = 0L;
+    for (int i = 0; i < 10; i++) {
+      assertNull(cache.get("k" + i));
+    }
+    for (int i = 10; i < entryCount; i++) {
+      assertValue("k" + i, "a2-" + i, "b2-" + i);
+      size += ("a2-" + i).length() + ("b2-" + i).length();
+    }
+    assertEquals(size, cache.size());
+    assertNull(cache.get("unflushed"));
+    assertFalse(fileSystem.exists(new File(cacheDir, "unflushed.0")));
+    assertFalse(fileSystem.exists(new File(cacheDir, "unflushed.1")));
+  }
+
+  @Test public void crashWithQueuedRecordsAfterCompaction() throws Exception {
+    writeAndReadEntries(0);
+    executor.runAll();
+    assertEquals(0, cache.redundantOpCount);
+
+    // Overwrite every entry. Each edit writes its DIRTY record, and with it any queued CLEAN
+    // records, before it creates files. Nothing else is written.
+    for (int i = 0; i < entryCount; i++) {
+      set("k" + i, "a1-" + i, "b1-" + i);
+    }
+
+    cache = open(new TestExecutor());
+    // Every overwrite but the last had its CLEAN record written by the next edit.
+    for (int i = 0; i < entryCount - 1; i++) {
+      assertValue("k" + i, "a1-" + i, "b1-" + i);
+    }
+    assertNull(cache.get("k" + (entryCount - 1)));
+    assertFalse(fileSystem.exists(new File(cacheDir, "k" + (entryCount - 1) + ".0")));
+  }
+
+  /** Writes every entry for {@code round} and reads each enough times to require compaction. */
+  private void writeAndReadEntries(int round) throws IOException {
+    for (int i = 0; i < entryCount; i++) {
+      set("k" + i, "a" + round + "-" + i, "b" + round + "-" + i);
+    }
+    for (int read = 0; read < 25; read++) {
+      for (int i = 0; i < entryCount; i++) {
+        cache.get("k" + i).close();
+      }
+    }
+    assertTrue(cache.journalRebuildRequired());
+  }
+
+  private void assertEntries(int round) throws IOException {
+    for (int i = 0; i < entryCount; i++) {
+      assertValue("k" + i, "a" + round + "-" + i, "b" + round + "-" + i);
+    }
+  }
+
+  private void set(String key, String value0, String value1) throws IOException {
+    DiskLruCache.Editor editor = cache.edit(key);
+    try (BufferedSink sink = Okio.buffer(editor.newSink(0))) {
+      sink.writeUtf8(value0);
+    }
+    try (BufferedSink sink = Okio.buffer(editor.newSink(1))) {
+      sink.writeUtf8(value1);
+    }
+    editor.commit();
+  }
+
+  private void assertValue(String key, String value0, String value1) throws IOException {
+    try (DiskLruCache.Snapshot snapshot = cache.get(key)) {
+      assertNotNull(key, snapshot);
+      assertEquals(value0, Okio.buffer(snapshot.getSource(0)).readUtf8());
+      assertEquals(value1, Okio.buffer(snapshot.getSource(1)).readUtf8());
+    }
+  }
+
+  private String[] readJournalLines() throws IOException {
+    File journal = new File(cacheDir, DiskLruCache.JOURNAL_FILE);
+    try (BufferedSource source = Okio.buffer(fileSystem.source(journal))) {
+      return source.readUtf8().split("\n");
+    }
+  }
+
+  /** Queues background work until the test runs it. */
+  static final class TestExecutor implements Executor {
+    final Deque<Runnable> jobs = new ConcurrentLinkedDeque<>();
+
+    @Override public void execute(Runnable command) {
+      jobs.addLast(command);
+    }
+
+    void runAll() {
+      for (Runnable job; (job = jobs.pollFirst()) != null; ) {
+        job.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import okhttp3.internal.io.FileSystem;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ShardedDiskLruCacheTest {
+  @Rule public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  private final FileSystem fileSystem = FileSystem.SYSTEM;
+  private final int appVersion = 100;
+  private final int entryCount = 200;
+  private File cacheDir;
+  private ShardedDiskLruCache cache;
+
+  @Before public void setUp() throws Exception {
+    cacheDir = tempDir.getRoot();
+  }
+
+  @After public void tearDown() throws Exception {
+    if (cache != null) cache.close();
+  }
+
+  private ShardedDiskLruCache open(FileSystem fileSystem, int shardCount) {
+    if (cache != null && !cache.isClosed()) throw new AssertionError("previous cache not closed");
+    cache = ShardedDiskLruCache.create(fileSystem, cacheDir, appVersion, 2, Long.MAX_VALUE,
+        shardCount);
+    return cache;
+  }
+
+  @Test public void singleShardToMany() throws Exception {
+    writeEntries(open(fileSystem, 1));
+    assertTrue(fileSystem.exists(new File(cacheDir, DiskLruCache.JOURNAL_FILE)));
+    long size = cache.size();
+    cache.close();
+
+    open(fileSystem, 4);
+    assertEntries(cache);
+    assertEquals(size, cache.size());
+    assertFalse(fileSystem.exists(new File(cacheDir, DiskLruCache.JOURNAL_FILE)));
+    assertShardDirectories(4);
+    cache.close();
+
+    open(fileSystem, 4);
+    assertEntries(cache);
+    assertEquals(size, cache.size());
+  }
+
+  @Test public void manyShardsToMore() throws Exception {
+    writeEntries(open(fileSystem, 4));
+    cache.close();
+
+    open(fileSystem, 7);
+    assertEntries(cache);
+    assertShardDirectories(7);
+  }
+
+  @Test public void manyShardsToFewer() throws Exception {
+    writeEntries(open(fileSystem, 7));
+    long size = cache.size();
+    cache.close();
+
+    open(fileSystem, 3);
+    assertEntries(cache);
+    assertEquals(size, cache.size());
+    assertShardDirectories(3);
+  }
+
+  @Test public void manyShardsToOne() throws Exception {
+    writeEntries(open(fileSystem, 4));
+    long size = cache.size();
+    cache.close();
+
+    open(fileSystem, 1);
+    assertEntries(cache);
+    assertEquals(size, cache.size());
+    assertTrue(fileSystem.exists(new File(cacheDir, DiskLruCache.JOURNAL_FILE)));
+    assertShardDirectories(0);
+    cache.close();
+
+    open(fileSystem, 1);
+    assertEntries(cache);
+  }
+
+  /**
+   * Stops all writes partway through a migration, as if the process died, and checks that the next
+   * initialization finishes the migration without losing entries.
+   */
+  @Test public void interruptedMigrationResumes() throws Exception {
+    writeEntries(open(fileSystem, 1));
+    cache.close();
+
+    CrashingFileSystem crashingFileSystem = new CrashingFileSystem(fileSystem, entryCount / 2);
+    open(crashingFileSystem, 4);
+    try {
+      cache.initialize();
+      fail();
+    } catch (IOException expected) {
+    }
+    assertTrue(crashingFileSystem.crashed);
+    assertTrue(fileSystem.exists(new File(cacheDir, DiskLruCache.JOURNAL_FILE)));
+    cache = null; // Abandoned, like a cache in a process that died.
+
+    open(fileSystem, 4);
+    assertEntries(cache);
+    assertFalse(fileSystem.exists(new File(cacheDir, DiskLruCache.JOURNAL_FILE)));
+    assertShardDirectories(4);
+  }
+
+  private void writeEntries(ShardedDiskLruCache cache) throws IOException {
+    for (int i = 0; i < entryCount; i++) {
+      DiskLruCache.Editor editor = cache.edit("k" + i);
+      setString(editor, 0, "a" + i);
+      setString(editor, 1, "b" + i);
+      editor.commit();
+    }
+  }
+
+  /** Asserts that the cache holds exactly the entries written by {@link #writeEntries}. */
+  private void assertEntries(ShardedDiskLruCache cache) throws IOException {
+    for (int i = 0; i < entryCount; i++) {
+      try (DiskLruCache.Snapshot snapshot = cache.get("k" + i)) {
+        assertNotNull("k" + i, snapshot);
+        assertEquals("a" + i, readString(snapshot.getSource(0)));
+        assertEquals("b" + i, readString(snapshot.getSource(1)));
+      }
+    }
+    int count = 0;
+    for (Iterator<DiskLruCache.Snapshot> i = cache.snapshots(); i.hasNext(); ) {
+      i.next().close();
+      count++;
+    }
+    assertEquals(entryCount, count);
+  }
+
+  /** Asserts that exactly {@code count} shard directories exist, each with a journal. */
+  private void assertShardDirectories(int count) {
+    for (int i = 0; i < count; i++) {
+      File journal = new File(new File(cacheDir, "shard-" + i), DiskLruCache.JOURNAL_FILE);
+      assertTrue(journal.toString(), fileSystem.exists(journal));
+    }
+    assertFalse(fileSystem.exists(new File(cacheDir, "shard-" + count)));
+  }
+
+  private static void setString(DiskLruCache.Editor editor, int index, String value)
+      throws IOException {
+    try (BufferedSink sink = Okio.buffer(editor.newSink(index))) {
+      sink.writeUtf8(value);
+    }
+  }
+
+  private static String readString(Source source) throws IOException {
+    try (Source s = source) {
+      return Okio.buffer(s).readUtf8();
+    }
+  }
+
+  /**
+   * Rejects every write once {@code crashAfter} files have been created, including writes to sinks
+   * opened earlier. Reads keep working, so the files on disk are left as a crash would leave them.
+   */
+  static final class CrashingFileSystem implements FileSystem {
+    private final FileSystem delegate;
+    private int crashAfter;
+    volatile boolean crashed;
+
+    CrashingFileSystem(FileSystem delegate, int crashAfter) {
+      this.delegate = delegate;
+      this.crashAfter = crashAfter;
+    }
+
+    @Override public Source source(File file) throws FileNotFoundException {
+      return delegate.source(file);
+    }
+
+    @Override public synchronized Sink sink(File file) throws FileNotFoundException {
+      if (crashed || crashAfter-- == 0) {
+        crashed = true;
+        throw new FileNotFoundException("crashed");
+      }
+      return crashingSink(delegate.sink(file));
+    }
+
+    @Override public Sink appendingSink(File file) throws FileNotFoundException {
+      if (crashed) throw new FileNotFoundException("crashed");
+      return crashingSink(delegate.appendingSink(file));
+    }
+
+    @Override public void delete(File file) throws IOException {
+      if (crashed) throw new IOException("crashed");
+      delegate.delete(file);
+    }
+
+    @Override public boolean exists(File file) {
+      return delegate.exists(file);
+    }
+
+    @Override public long size(File file) {
+      return delegate.size(file);
+    }
+
+    @Override public void rename(File from, File to) throws IOException {
+      if (crashed) throw new IOException("crashed");
+      delegate.rename(from, to);
+    }
+
+    @Override public void deleteContents(File directory) throws IOException {
+      if (crashed) throw new IOException("crashed");
+      delegate.deleteContents(directory);
+    }
+
+    private Sink crashingSink(Sink sink) {
+      return new ForwardingSink(sink) {
+        @Override public void write(Buffer source, long byteCount) throws IOException {
+          if (crashed) throw new IOException("crashed");
+          super.write(source, byteCount);
+        }
+
+        @Override public void flush() throws IOException {
+          if (crashed) throw new IOException("crashed");
+          super.flush();
+        }
+      };
+    }
+  }
+}